@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.LegacyValueFormat;
+
+/**
+ * Formatting runs for every transaction row and balance update, parsing for every keystroke in amount fields.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AmountFormatBenchmark
+{
+	@Param({ "4/0", "8/0", "2/3", "5/3" })
+	public String precisionShift;
+
+	private int precision;
+	private int shift;
+	private final BigInteger value = new BigInteger("-1122334455667788");
+	private final StringBuilder builder = new StringBuilder();
+
+	@Setup
+	public void setup()
+	{
+		final String[] parts = precisionShift.split("/");
+		precision = Integer.parseInt(parts[0]);
+		shift = Integer.parseInt(parts[1]);
+	}
+
+	@Benchmark
+	public String formatValue()
+	{
+		return GenericUtils.formatValue(value, "+", "-", precision, shift);
+	}
+
+	@Benchmark
+	public StringBuilder formatValueIntoBuilder()
+	{
+		builder.setLength(0);
+
+		return GenericUtils.formatValue(builder, value, "+", "-", precision, shift);
+	}
+
+	// the String.format based formatter it replaced, as baseline
+	@Benchmark
+	public String formatValueLegacy()
+	{
+		return LegacyValueFormat.formatValue(value, "+", "-", precision, shift);
+	}
+
+	@Benchmark
+	public BigInteger toNanoCoins()
+	{
+		return GenericUtils.toNanoCoins("1234.56", shift);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.schildbach.wallet.util.Io;
+import de.schildbach.wallet.util.TickerParser;
+
+/**
+ * Parses the ticker fixtures of the wallet tests, with the fields the exchange rates provider asks for.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExchangeRatesParserBenchmark
+{
+	@Param({ "bitcoinaverage-ticker-all.json:24h_avg", "bitcoincharts-weighted-prices.json:24h,7d,30d", "blockchaininfo-ticker.json:15m" })
+	public String fixture;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private byte[] payload;
+	private String[] fields;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		final String[] parts = fixture.split(":");
+		fields = parts[1].split(",");
+
+		final InputStream is = getClass().getResourceAsStream("/de/schildbach/wallet/util/fixtures/" + parts[0]);
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Io.copy(is, os);
+		is.close();
+		payload = os.toByteArray();
+	}
+
+	@Benchmark
+	public Map<String, BigDecimal> parseTickers() throws IOException
+	{
+		return TickerParser.parseTickers(new InputStreamReader(new ByteArrayInputStream(payload), UTF_8), fields);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zetacoin.core.ECKey;
+
+import de.schildbach.wallet.util.Crypto;
+import de.schildbach.wallet.util.WalletUtils;
+
+/**
+ * Key export and import, in plain text and encrypted the way backups are written.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeyBackupBenchmark
+{
+	@Param({ "1", "100" })
+	public int numKeys;
+
+	private static final char[] PASSWORD = "benchmark".toCharArray();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private List<ECKey> keys;
+	private String plainText;
+	private String cipherText;
+	private byte[] cipherBytes;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		keys = new ArrayList<ECKey>(numKeys);
+		for (int i = 0; i < numKeys; i++)
+		{
+			final ECKey key = new ECKey();
+			key.setCreationTimeSeconds(1388534400 + i * 3600);
+			keys.add(key);
+		}
+
+		plainText = writeKeys();
+		cipherText = Crypto.encrypt(plainText, PASSWORD);
+		cipherBytes = cipherText.getBytes(UTF_8);
+	}
+
+	@Benchmark
+	public String writeKeys() throws IOException
+	{
+		final StringWriter writer = new StringWriter();
+		WalletUtils.writeKeys(writer, keys);
+
+		return writer.toString();
+	}
+
+	@Benchmark
+	public List<ECKey> readKeys() throws IOException
+	{
+		return WalletUtils.readKeys(new BufferedReader(new StringReader(plainText)));
+	}
+
+	@Benchmark
+	public String encrypt() throws IOException
+	{
+		return Crypto.encrypt(plainText, PASSWORD);
+	}
+
+	@Benchmark
+	public String decrypt() throws IOException
+	{
+		return Crypto.decrypt(cipherText, PASSWORD);
+	}
+
+	// export and import the way the wallet does it, streaming keys through the cipher
+	@Benchmark
+	public byte[] exportStreaming() throws IOException
+	{
+		final ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+		final Writer plainOut = new OutputStreamWriter(Crypto.encryptingStream(cipherOut, PASSWORD), UTF_8);
+		WalletUtils.writeKeys(plainOut, keys);
+		plainOut.close();
+
+		return cipherOut.toByteArray();
+	}
+
+	@Benchmark
+	public List<ECKey> importStreaming() throws IOException
+	{
+		final BufferedReader plainIn = new BufferedReader(new InputStreamReader(Crypto.decryptingStream(new ByteArrayInputStream(cipherBytes),
+				PASSWORD), UTF_8));
+		final List<ECKey> keys = WalletUtils.readKeys(plainIn);
+		plainIn.close();
+
+		return keys;
+	}
+}
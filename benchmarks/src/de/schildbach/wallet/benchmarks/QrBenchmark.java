@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmarks;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import de.schildbach.wallet.util.Qr;
+
+/**
+ * @author Andreas Schildbach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QrBenchmark
+{
+	@Param({ "250", "1000" })
+	public int size;
+
+	private byte[] bytes;
+	private String encoded;
+
+	@Setup
+	public void setup()
+	{
+		// transactions compress somewhat, so use half random and half repetitive bytes
+		bytes = new byte[size];
+		final Random random = new Random(0);
+		for (int i = 0; i < size; i++)
+			bytes[i] = (byte) (i % 2 == 0 ? random.nextInt() : i % 16);
+		encoded = Qr.encodeBinary(bytes);
+	}
+
+	@Benchmark
+	public String encodeBinary()
+	{
+		return Qr.encodeBinary(bytes);
+	}
+
+	@Benchmark
+	public byte[] decodeBinary() throws IOException
+	{
+		return Qr.decodeBinary(encoded);
+	}
+
+	@Benchmark
+	public BitMatrix matrix() throws WriterException
+	{
+		return Qr.matrix(encoded, ErrorCorrectionLevel.H);
+	}
+
+	// how the qr code used to be rendered, at the display size of a 384dp view on an xhdpi screen
+	@Benchmark
+	public BitMatrix matrixDisplaySize() throws WriterException
+	{
+		final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+		hints.put(EncodeHintType.MARGIN, 0);
+		hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
+		return new QRCodeWriter().encode(encoded, BarcodeFormat.QR_CODE, 768, 768, hints);
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmarks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.zetacoin.core.Address;
+import com.google.zetacoin.core.ECKey;
+import com.google.zetacoin.core.NetworkParameters;
+import com.google.zetacoin.core.ScriptException;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionConfidence;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.TransactionInput;
+import com.google.zetacoin.core.TransactionOutPoint;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.crypto.TransactionSignature;
+import com.google.zetacoin.script.ScriptBuilder;
+import com.google.zetacoin.wallet.DefaultCoinSelector;
+import com.google.zetacoin.wallet.WalletTransaction;
+import com.google.zetacoin.wallet.WalletTransaction.Pool;
+
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.ui.TransactionRow;
+import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.WalletUtils;
+
+/**
+ * Main thread work per frame of the transaction list, on a synthetic wallet. A frame binds one screenful of rows, and
+ * each invocation scrolls by one row. Binding from transactions evaluates them like the adapter used to on every bind,
+ * binding from rows only reads the precomputed fields. Both format the amount, which still happens at bind time.
+ * Relative times, labels and view updates are the same for both and need a device, so they are left out.
+ *
+ * Creating the rows of the whole wallet shows what moved to the loader thread.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransactionRowsBenchmark
+{
+	@Param({ "10000" })
+	public int numTransactions;
+
+	private static final int ROWS_PER_FRAME = 10;
+	private static final int NUM_PENDING = 10;
+	private static final long START_TIME_MS = 1388534400000l;
+
+	private Wallet wallet;
+	private List<Transaction> transactions;
+	private List<TransactionRow> rows;
+	private int firstRow = 0;
+
+	@Setup
+	public void setup()
+	{
+		final NetworkParameters params = Constants.NETWORK_PARAMETERS;
+		final Random random = new Random(0);
+
+		final ECKey key = new ECKey();
+		final Address address = key.toAddress(params);
+		final ECKey foreignKey = new ECKey();
+		final Address foreignAddress = foreignKey.toAddress(params);
+		final TransactionSignature signature = new TransactionSignature(BigInteger.ONE, BigInteger.ONE);
+
+		wallet = new Wallet(params);
+		wallet.addKey(key);
+
+		transactions = new ArrayList<Transaction>(numTransactions);
+		Transaction previousTx = null;
+
+		for (int i = 0; i < numTransactions; i++)
+		{
+			final Transaction tx = new Transaction(params);
+
+			// every fourth transaction spends the previous one, the others are received from a foreign key
+			if (previousTx != null && i % 4 == 3)
+			{
+				tx.addInput(previousTx.getOutput(0));
+				tx.addOutput(BigInteger.valueOf(50000), foreignAddress);
+			}
+			else
+			{
+				final byte[] outPointHash = new byte[32];
+				random.nextBytes(outPointHash);
+				final TransactionOutPoint outPoint = new TransactionOutPoint(params, 0, new Sha256Hash(outPointHash));
+				tx.addInput(new TransactionInput(params, tx, ScriptBuilder.createInputScript(signature, foreignKey).getProgram(), outPoint));
+				tx.addOutput(BigInteger.valueOf(100000 + random.nextInt(100000000)), address);
+			}
+
+			tx.setUpdateTime(new Date(START_TIME_MS + i * 10 * 60 * 1000l));
+
+			final TransactionConfidence confidence = tx.getConfidence();
+			final boolean pending = i >= numTransactions - NUM_PENDING;
+			if (pending)
+			{
+				confidence.setConfidenceType(ConfidenceType.PENDING);
+			}
+			else
+			{
+				confidence.setAppearedAtChainHeight(i + 1);
+				confidence.setDepthInBlocks(numTransactions - i);
+			}
+
+			wallet.addWalletTransaction(new WalletTransaction(pending ? Pool.PENDING : Pool.UNSPENT, tx));
+			transactions.add(tx);
+			previousTx = tx;
+		}
+
+		rows = createRows();
+	}
+
+	@Benchmark
+	public List<TransactionRow> createRows()
+	{
+		final List<TransactionRow> rows = new ArrayList<TransactionRow>(transactions.size());
+		for (final Transaction tx : transactions)
+			rows.add(TransactionRow.create(tx, wallet, null));
+
+		return rows;
+	}
+
+	@Benchmark
+	public void bindFrameFromTransactions(final Blackhole blackhole) throws ScriptException
+	{
+		final int first = nextFrame();
+
+		for (int i = first; i < first + ROWS_PER_FRAME; i++)
+		{
+			final Transaction tx = transactions.get(i);
+			final TransactionConfidence confidence = tx.getConfidence();
+
+			final BigInteger value = tx.getValue(wallet);
+			final boolean sent = value.signum() < 0;
+			final Address address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+
+			blackhole.consume(confidence.getConfidenceType());
+			blackhole.consume(confidence.getConfidenceType() == ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0);
+			blackhole.consume(confidence.numBroadcastPeers());
+			blackhole.consume(tx.isCoinBase());
+			blackhole.consume(WalletUtils.isInternal(tx));
+			blackhole.consume(DefaultCoinSelector.isSelectable(tx));
+			blackhole.consume(tx.getUpdateTime());
+			blackhole.consume(address != null ? address.toString() : null);
+			blackhole.consume(tx.isTimeLocked());
+			blackhole.consume(GenericUtils.formatValue(value, precision(), 0));
+		}
+	}
+
+	@Benchmark
+	public void bindFrameFromRows(final Blackhole blackhole)
+	{
+		final int first = nextFrame();
+
+		for (int i = first; i < first + ROWS_PER_FRAME; i++)
+		{
+			final TransactionRow row = rows.get(i);
+
+			blackhole.consume(row.confidenceType);
+			blackhole.consume(row.depth);
+			blackhole.consume(row.numBroadcastPeers);
+			blackhole.consume(row.coinBase);
+			blackhole.consume(row.internal);
+			blackhole.consume(row.selectable);
+			blackhole.consume(row.time);
+			blackhole.consume(row.label != null ? row.label : row.address);
+			blackhole.consume(row.message);
+			blackhole.consume(GenericUtils.formatValue(row.value, precision(), 0));
+		}
+	}
+
+	private int nextFrame()
+	{
+		final int first = firstRow;
+		firstRow = (firstRow + 1) % (numTransactions - ROWS_PER_FRAME);
+
+		return first;
+	}
+
+	private static int precision()
+	{
+		return Constants.PREFS_DEFAULT_BTC_PRECISION.charAt(0) - '0';
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.checkpoints;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.zetacoin.core.NetworkParameters;
+import com.google.zetacoin.core.StoredBlock;
+import com.google.zetacoin.params.MainNetParams;
+import com.google.zetacoin.params.TestNet3Params;
+import com.google.zetacoin.store.BlockStore;
+import com.google.zetacoin.store.BlockStoreException;
+import com.google.zetacoin.store.SPVBlockStore;
+
+import de.schildbach.wallet.service.BinaryCheckpoints;
+import de.schildbach.wallet.service.HeightIndexedBlockStore;
+
+/**
+ * Builds the binary checkpoints file bundled with the wallet from a local block store file, for example one pulled
+ * from a device that is in sync. Both SPVBlockStore files and the wallet's height indexed block store files are
+ * understood. The file format is described and read by {@link BinaryCheckpoints}, which is compiled into this module
+ * from the wallet sources together with {@link HeightIndexedBlockStore}.
+ *
+ * A block store only holds a limited number of recent headers. If the output file already exists, its checkpoints are
+ * kept and the new ones are merged in, so checkpoints accumulate over releases.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BuildCheckpoints
+{
+	// don't checkpoint blocks that could still be reorganized away
+	private static final long MIN_AGE_SECS = 60 * 60 * 24 * 30;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final boolean testnet = args.length > 0 && "-testnet".equals(args[0]);
+		final int argsOffset = testnet ? 1 : 0;
+
+		if (args.length - argsOffset != 2)
+		{
+			System.err.println("usage: BuildCheckpoints [-testnet] <block store> <checkpoints file>");
+			System.exit(1);
+		}
+
+		final NetworkParameters params = testnet ? TestNet3Params.get() : MainNetParams.get();
+		final File blockStoreFile = new File(args[argsOffset]);
+		final File checkpointsFile = new File(args[argsOffset + 1]);
+
+		final Map<Integer, byte[]> checkpoints = new TreeMap<Integer, byte[]>();
+
+		if (checkpointsFile.exists())
+		{
+			readCheckpoints(checkpointsFile, checkpoints);
+			System.out.println("read " + checkpoints.size() + " existing checkpoints from " + checkpointsFile);
+		}
+
+		final int numNew = collectCheckpoints(params, blockStoreFile, checkpoints);
+		System.out.println("collected " + numNew + " checkpoints from " + blockStoreFile);
+
+		final int numWritten = writeCheckpoints(checkpointsFile, checkpoints);
+		System.out.println("wrote " + numWritten + " checkpoints to " + checkpointsFile);
+	}
+
+	private static int collectCheckpoints(final NetworkParameters params, final File blockStoreFile, final Map<Integer, byte[]> checkpoints)
+			throws IOException, BlockStoreException
+	{
+		final BlockStore store;
+		if (isIndexedStore(blockStoreFile))
+			store = new HeightIndexedBlockStore(params, blockStoreFile, 0); // existing files keep their capacity
+		else
+			store = new SPVBlockStore(params, blockStoreFile);
+
+		final long cutoffSecs = System.currentTimeMillis() / 1000 - MIN_AGE_SECS;
+		final int interval = params.getInterval();
+
+		int count = 0;
+
+		try
+		{
+			StoredBlock block = store.getChainHead();
+
+			while (block != null)
+			{
+				if (block.getHeight() % interval == 0 && block.getHeader().getTimeSeconds() <= cutoffSecs)
+				{
+					final ByteBuffer buffer = ByteBuffer.allocate(BinaryCheckpoints.RECORD_SIZE);
+					block.serializeCompact(buffer);
+					checkpoints.put(block.getHeight(), buffer.array());
+					count++;
+				}
+
+				block = block.getPrev(store);
+			}
+		}
+		finally
+		{
+			store.close();
+		}
+
+		return count;
+	}
+
+	private static boolean isIndexedStore(final File file) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+
+		try
+		{
+			final byte[] magic = new byte[HeightIndexedBlockStore.MAGIC.length];
+			is.readFully(magic);
+			return Arrays.equals(magic, HeightIndexedBlockStore.MAGIC);
+		}
+		catch (final EOFException x)
+		{
+			return false;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static void readCheckpoints(final File file, final Map<Integer, byte[]> checkpoints) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+
+		try
+		{
+			final byte[] magic = new byte[BinaryCheckpoints.MAGIC.length];
+			is.readFully(magic);
+			if (!Arrays.equals(magic, BinaryCheckpoints.MAGIC))
+				throw new IOException("not a binary checkpoints file: " + file);
+
+			final int count = is.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				final byte[] record = new byte[BinaryCheckpoints.RECORD_SIZE];
+				is.readFully(record);
+				checkpoints.put(ByteBuffer.wrap(record).getInt(BinaryCheckpoints.HEIGHT_OFFSET), record);
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static int writeCheckpoints(final File file, final Map<Integer, byte[]> checkpoints) throws IOException
+	{
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final DataOutputStream os = new DataOutputStream(new FileOutputStream(tmpFile));
+
+		int count = 0;
+
+		try
+		{
+			os.write(BinaryCheckpoints.MAGIC);
+			os.writeInt(checkpoints.size());
+
+			long lastTime = 0;
+			for (final byte[] record : checkpoints.values())
+			{
+				// the wallet binary searches by time, so times must be ascending
+				final long time = timeOf(record);
+				if (time <= lastTime)
+					throw new IOException("block times not ascending at height " + ByteBuffer.wrap(record).getInt(BinaryCheckpoints.HEIGHT_OFFSET));
+				lastTime = time;
+
+				os.write(record);
+				count++;
+			}
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tmpFile.renameTo(file))
+		{
+			file.delete();
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot rename " + tmpFile + " to " + file);
+		}
+
+		return count;
+	}
+
+	private static long timeOf(final byte[] record)
+	{
+		// block header fields are little endian
+		final int offset = BinaryCheckpoints.TIME_OFFSET;
+
+		return (record[offset] & 0xffl) | (record[offset + 1] & 0xffl) << 8 | (record[offset + 2] & 0xffl) << 16
+				| (record[offset + 3] & 0xffl) << 24;
+	}
+}
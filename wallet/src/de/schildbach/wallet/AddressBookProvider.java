@@ -17,13 +17,21 @@
 
 package de.schildbach.wallet;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -36,6 +44,7 @@ import android.net.Uri;
 public class AddressBookProvider extends ContentProvider
 {
 	private static final String DATABASE_TABLE = "address_book";
+	private static final String DATABASE_TABLE_FTS = "address_book_fts";
 
 	public static final String KEY_ROWID = "_id";
 	public static final String KEY_ADDRESS = "address";
@@ -45,17 +54,27 @@ public class AddressBookProvider extends ContentProvider
 	public static final String SELECTION_IN = "in";
 	public static final String SELECTION_NOTIN = "notin";
 
+	private static final Logger log = LoggerFactory.getLogger(AddressBookProvider.class);
+
 	public static Uri contentUri(@Nonnull final String packageName)
 	{
 		return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
 	}
 
+	/**
+	 * Queries the database. For resolving labels of list rows or notifications, use {@link AddressLabelIndex}.
+	 */
 	public static String resolveLabel(final Context context, @Nonnull final String address)
+	{
+		return resolveLabel(context.getContentResolver(), contentUri(context.getPackageName()), address);
+	}
+
+	static String resolveLabel(@Nonnull final ContentResolver contentResolver, @Nonnull final Uri contentUri, @Nonnull final String address)
 	{
 		String label = null;
 
-		final Uri uri = contentUri(context.getPackageName()).buildUpon().appendPath(address).build();
-		final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+		final Uri uri = contentUri.buildUpon().appendPath(address).build();
+		final Cursor cursor = contentResolver.query(uri, null, null, null, null);
 
 		if (cursor != null)
 		{
@@ -70,6 +89,9 @@ public class AddressBookProvider extends ContentProvider
 
 	private Helper helper;
 
+	// set while applying a batch, so there is only one change notification for the whole batch
+	private final ThreadLocal<Boolean> inBatch = new ThreadLocal<Boolean>();
+
 	@Override
 	public boolean onCreate()
 	{
@@ -77,6 +99,34 @@ public class AddressBookProvider extends ContentProvider
 		return true;
 	}
 
+	/**
+	 * Applies all operations in a single transaction, e.g. for importing a large number of entries.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations) throws OperationApplicationException
+	{
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final ContentProviderResult[] results;
+
+		db.beginTransaction();
+		inBatch.set(Boolean.TRUE);
+		try
+		{
+			results = super.applyBatch(operations);
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			inBatch.remove();
+			db.endTransaction();
+		}
+
+		getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+
+		return results;
+	}
+
 	@Override
 	public String getType(final Uri uri)
 	{
@@ -96,7 +146,7 @@ public class AddressBookProvider extends ContentProvider
 
 		final Uri rowUri = contentUri(getContext().getPackageName()).buildUpon().appendPath(address).appendPath(Long.toString(rowId)).build();
 
-		getContext().getContentResolver().notifyChange(rowUri, null);
+		notifyChange(rowUri);
 
 		return rowUri;
 	}
@@ -112,7 +162,7 @@ public class AddressBookProvider extends ContentProvider
 		final int count = helper.getWritableDatabase().update(DATABASE_TABLE, values, KEY_ADDRESS + "=?", new String[] { address });
 
 		if (count > 0)
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri);
 
 		return count;
 	}
@@ -129,7 +179,7 @@ public class AddressBookProvider extends ContentProvider
 		final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_ADDRESS + "=?", new String[] { address });
 
 		if (count > 0)
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri);
 
 		return count;
 	}
@@ -173,9 +223,20 @@ public class AddressBookProvider extends ContentProvider
 		}
 		else if (SELECTION_QUERY.equals(originalSelection))
 		{
-			final String query = '%' + originalSelectionArgs[0].trim() + '%';
-			selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
-			selectionArgs = new String[] { query, query };
+			// an address is a single token, so autocomplete needs a substring match on it rather than a prefix match
+			final String query = originalSelectionArgs[0].trim();
+			final String match = ftsPrefixMatch(query);
+			if (match != null)
+			{
+				selection = KEY_ADDRESS + " LIKE ? OR " + KEY_ROWID + " IN (SELECT docid FROM " + DATABASE_TABLE_FTS + " WHERE "
+						+ DATABASE_TABLE_FTS + " MATCH ?)";
+				selectionArgs = new String[] { '%' + query + '%', match };
+			}
+			else
+			{
+				selection = KEY_ADDRESS + " LIKE ?";
+				selectionArgs = new String[] { '%' + query + '%' };
+			}
 		}
 
 		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
@@ -185,6 +246,46 @@ public class AddressBookProvider extends ContentProvider
 		return cursor;
 	}
 
+	private void notifyChange(final Uri uri)
+	{
+		if (inBatch.get() == null)
+			getContext().getContentResolver().notifyChange(uri, null);
+	}
+
+	/**
+	 * Turns user input into a full text query matching all words as prefixes, like "ali smi" to "ali* smi*". Everything
+	 * but letters and digits separates words, as it does for the tokenizer.
+	 *
+	 * @return query, or null if there are no words
+	 */
+	private static String ftsPrefixMatch(final String input)
+	{
+		final StringBuilder match = new StringBuilder();
+		boolean inWord = false;
+
+		for (int i = 0; i < input.length(); i++)
+		{
+			final char c = input.charAt(i);
+			if (Character.isLetterOrDigit(c))
+			{
+				if (!inWord && match.length() > 0)
+					match.append(' ');
+				match.append(c);
+				inWord = true;
+			}
+			else if (inWord)
+			{
+				match.append('*');
+				inWord = false;
+			}
+		}
+
+		if (inWord)
+			match.append('*');
+
+		return match.length() > 0 ? match.toString() : null;
+	}
+
 	private static void appendAddresses(@Nonnull final SQLiteQueryBuilder qb, @Nonnull final String[] addresses)
 	{
 		for (final String address : addresses)
@@ -198,13 +299,33 @@ public class AddressBookProvider extends ContentProvider
 	private static class Helper extends SQLiteOpenHelper
 	{
 		private static final String DATABASE_NAME = "address_book";
-		private static final int DATABASE_VERSION = 1;
+		private static final int DATABASE_VERSION = 2;
 
 		private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
 				+ KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
 				+ KEY_ADDRESS + " TEXT NOT NULL, " //
 				+ KEY_LABEL + " TEXT NULL);";
 
+		private static final String DATABASE_CREATE_INDEX = "CREATE UNIQUE INDEX " + DATABASE_TABLE + "_" + KEY_ADDRESS + " ON " + DATABASE_TABLE
+				+ " (" + KEY_ADDRESS + ");";
+
+		// fts4 needs API level 11
+		private static final String DATABASE_CREATE_FTS = "CREATE VIRTUAL TABLE " + DATABASE_TABLE_FTS + " USING fts3 (" + KEY_ADDRESS + ", "
+				+ KEY_LABEL + ");";
+
+		private static final String DATABASE_POPULATE_FTS = "INSERT INTO " + DATABASE_TABLE_FTS + " (docid, " + KEY_ADDRESS + ", " + KEY_LABEL
+				+ ") SELECT " + KEY_ROWID + ", " + KEY_ADDRESS + ", " + KEY_LABEL + " FROM " + DATABASE_TABLE + ";";
+
+		private static final String[] DATABASE_CREATE_FTS_TRIGGERS = new String[] {
+				"CREATE TRIGGER " + DATABASE_TABLE_FTS + "_insert AFTER INSERT ON " + DATABASE_TABLE + " BEGIN " //
+						+ "INSERT INTO " + DATABASE_TABLE_FTS + " (docid, " + KEY_ADDRESS + ", " + KEY_LABEL + ") VALUES (new." + KEY_ROWID
+						+ ", new." + KEY_ADDRESS + ", new." + KEY_LABEL + "); END;",
+				"CREATE TRIGGER " + DATABASE_TABLE_FTS + "_update AFTER UPDATE ON " + DATABASE_TABLE + " BEGIN " //
+						+ "UPDATE " + DATABASE_TABLE_FTS + " SET " + KEY_ADDRESS + " = new." + KEY_ADDRESS + ", " + KEY_LABEL + " = new."
+						+ KEY_LABEL + " WHERE docid = old." + KEY_ROWID + "; END;",
+				"CREATE TRIGGER " + DATABASE_TABLE_FTS + "_delete AFTER DELETE ON " + DATABASE_TABLE + " BEGIN " //
+						+ "DELETE FROM " + DATABASE_TABLE_FTS + " WHERE docid = old." + KEY_ROWID + "; END;" };
+
 		public Helper(final Context context)
 		{
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -214,6 +335,8 @@ public class AddressBookProvider extends ContentProvider
 		public void onCreate(final SQLiteDatabase db)
 		{
 			db.execSQL(DATABASE_CREATE);
+			db.execSQL(DATABASE_CREATE_INDEX);
+			createFts(db);
 		}
 
 		@Override
@@ -237,12 +360,36 @@ public class AddressBookProvider extends ContentProvider
 		{
 			if (oldVersion == 1)
 			{
-				// future
+				// keep the most recent entry of duplicate addresses, so the unique index can be created
+				final String duplicates = " FROM " + DATABASE_TABLE + " WHERE " + KEY_ROWID + " NOT IN (SELECT MAX(" + KEY_ROWID + ") FROM "
+						+ DATABASE_TABLE + " GROUP BY " + KEY_ADDRESS + ")";
+				final Cursor cursor = db.rawQuery("SELECT " + KEY_ADDRESS + ", " + KEY_LABEL + duplicates, null);
+				try
+				{
+					while (cursor.moveToNext())
+						log.warn("dropping duplicate address book entry: " + cursor.getString(0) + " labeled '" + cursor.getString(1) + "'");
+				}
+				finally
+				{
+					cursor.close();
+				}
+				db.execSQL("DELETE" + duplicates + ";");
+				db.execSQL(DATABASE_CREATE_INDEX);
+
+				createFts(db);
+				db.execSQL(DATABASE_POPULATE_FTS);
 			}
 			else
 			{
 				throw new UnsupportedOperationException("old=" + oldVersion);
 			}
 		}
+
+		private void createFts(final SQLiteDatabase db)
+		{
+			db.execSQL(DATABASE_CREATE_FTS);
+			for (final String trigger : DATABASE_CREATE_FTS_TRIGGERS)
+				db.execSQL(trigger);
+		}
 	}
 }
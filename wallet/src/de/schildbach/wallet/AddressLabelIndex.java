@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Process-wide copy of the address book labels, so labels can be resolved per list row without touching the database.
+ * It is loaded once in the background and kept up to date through the change notifications of
+ * {@link AddressBookProvider}: where the platform passes the changed uri, only that address is reloaded, otherwise the
+ * whole address book.
+ *
+ * Listeners are notified on the main thread, after the index has been updated.
+ *
+ * @author Andreas Schildbach
+ */
+public final class AddressLabelIndex
+{
+	public interface Listener
+	{
+		void onLabelsChanged();
+	}
+
+	private final ContentResolver contentResolver;
+	private final Uri contentUri;
+
+	// replaced as a whole on full reloads, guarded by itself for incremental updates
+	private volatile Map<String, String> labels = new HashMap<String, String>();
+	private final CountDownLatch loaded = new CountDownLatch(1);
+
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private static final Logger log = LoggerFactory.getLogger(AddressLabelIndex.class);
+
+	public AddressLabelIndex(@Nonnull final ContentResolver contentResolver, @Nonnull final String packageName)
+	{
+		this.contentResolver = contentResolver;
+		this.contentUri = AddressBookProvider.contentUri(packageName);
+
+		final HandlerThread thread = new HandlerThread("address label index", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		backgroundHandler = new Handler(thread.getLooper());
+
+		// register before loading, so nothing that happens in between is missed
+		contentResolver.registerContentObserver(contentUri, true, contentObserver);
+
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					reloadAll();
+				}
+				catch (final RuntimeException x)
+				{
+					log.warn("problem indexing address labels", x);
+				}
+				finally
+				{
+					// even if loading failed, resolving labels must not block forever
+					loaded.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return label of the given address, or null if it is not in the address book. Only waits for the initial load.
+	 */
+	@CheckForNull
+	public String resolveLabel(@Nonnull final String address)
+	{
+		awaitLoaded();
+
+		final Map<String, String> labels = this.labels;
+		synchronized (labels)
+		{
+			return labels.get(address);
+		}
+	}
+
+	public void addListener(@Nonnull final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(@Nonnull final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private void awaitLoaded()
+	{
+		try
+		{
+			loaded.await();
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void reloadAll()
+	{
+		final Map<String, String> newLabels = new HashMap<String, String>();
+
+		final Cursor cursor = contentResolver.query(contentUri, new String[] { AddressBookProvider.KEY_ADDRESS, AddressBookProvider.KEY_LABEL },
+				null, null, null);
+		if (cursor != null)
+		{
+			final int addressIndex = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_ADDRESS);
+			final int labelIndex = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL);
+
+			while (cursor.moveToNext())
+			{
+				final String label = cursor.getString(labelIndex);
+				if (label != null)
+					newLabels.put(cursor.getString(addressIndex), label);
+			}
+
+			cursor.close();
+		}
+
+		labels = newLabels;
+
+		log.info("indexed " + newLabels.size() + " address labels");
+	}
+
+	private void reload(@Nonnull final String address)
+	{
+		final String label = AddressBookProvider.resolveLabel(contentResolver, contentUri, address);
+
+		final Map<String, String> labels = this.labels;
+		synchronized (labels)
+		{
+			if (label != null)
+				labels.put(address, label);
+			else
+				labels.remove(address);
+		}
+	}
+
+	private void notifyListeners()
+	{
+		callbackHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onLabelsChanged();
+			}
+		});
+	}
+
+	private final ContentObserver contentObserver = new ContentObserver(null)
+	{
+		@Override
+		public void onChange(final boolean selfChange)
+		{
+			onChange(selfChange, null);
+		}
+
+		// only called with the uri from API level 16, so no @Override when compiling against older platforms
+		public void onChange(final boolean selfChange, final Uri uri)
+		{
+			backgroundHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					awaitLoaded();
+
+					// provider uris are content://authority/address, or content://authority/address/rowid for inserts
+					final List<String> pathSegments = uri != null ? uri.getPathSegments() : null;
+					if (pathSegments != null && !pathSegments.isEmpty())
+						reload(pathSegments.get(0));
+					else
+						reloadAll();
+
+					notifyListeners();
+				}
+			});
+		}
+	};
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Balance of the wallet as last written by the blockchain service, so the app widget can be drawn without loading
+ * the wallet.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BalanceSnapshot
+{
+	public final BigInteger balance;
+	public final int chainHeight;
+	public final long time;
+
+	private static final Logger log = LoggerFactory.getLogger(BalanceSnapshot.class);
+
+	public BalanceSnapshot(@Nonnull final BigInteger balance, final int chainHeight, final long time)
+	{
+		this.balance = balance;
+		this.chainHeight = chainHeight;
+		this.time = time;
+	}
+
+	/**
+	 * @return the snapshot, or null if none has been written yet or it cannot be read
+	 */
+	@CheckForNull
+	public static BalanceSnapshot load(@Nonnull final File file)
+	{
+		if (!file.exists())
+			return null;
+
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			final BigInteger balance = BigInteger.valueOf(is.readLong());
+			final int chainHeight = is.readInt();
+			final long time = is.readLong();
+
+			return new BalanceSnapshot(balance, chainHeight, time);
+		}
+		catch (final IOException x)
+		{
+			log.info("problem loading balance snapshot, ignoring", x);
+
+			return null;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the file atomically, so readers never see a partial snapshot.
+	 */
+	public void save(@Nonnull final File file) throws IOException
+	{
+		final File tmpFile = new File(file.getPath() + ".tmp");
+
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+		try
+		{
+			os.writeLong(balance.longValue());
+			os.writeInt(chainHeight);
+			os.writeLong(time);
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tmpFile.renameTo(file))
+			throw new IOException("cannot rename " + tmpFile + " to " + file);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "balance: " + balance + ", chain height: " + chainHeight + ", time: " + time;
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.TransactionInput;
+import com.google.zetacoin.core.TransactionOutput;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.wallet.DefaultCoinSelector;
+
+import de.schildbach.wallet.WalletChangeDispatcher.ChangeSet;
+
+/**
+ * Keeps the balance of the wallet up to date, so it can be read without walking all unspent outputs like
+ * {@link Wallet#getBalance(Wallet.BalanceType)} does. The tracker remembers what each transaction contributes to the
+ * balance and on a change set of the {@link WalletChangeDispatcher} only re-evaluates the transactions concerned and the
+ * wallet transactions they spend from.
+ *
+ * The contributions follow the wallet: estimated counts the unspent outputs of all unspent and pending transactions,
+ * available only those of mature transactions the default coin selector would spend.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BalanceTracker
+{
+	/**
+	 * Immutable balance at one point in time.
+	 */
+	public static final class Balance
+	{
+		public final BigInteger estimated;
+		public final BigInteger available;
+
+		/**
+		 * Part of the estimated balance that is not available yet, e.g. unconfirmed received coins.
+		 */
+		public final BigInteger pending;
+
+		private Balance(final BigInteger estimated, final BigInteger available)
+		{
+			this.estimated = estimated;
+			this.available = available;
+			this.pending = estimated.subtract(available);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "estimated: " + estimated + ", available: " + available;
+		}
+	}
+
+	private static final class Contribution
+	{
+		public static final Contribution NONE = new Contribution(BigInteger.ZERO, BigInteger.ZERO, false);
+		public static final Contribution NONE_SETTLED = new Contribution(BigInteger.ZERO, BigInteger.ZERO, true);
+
+		public final BigInteger estimated;
+		public final BigInteger available;
+
+		// building and mature, so further blocks only increase its depth
+		public final boolean settled;
+
+		public Contribution(final BigInteger estimated, final BigInteger available, final boolean settled)
+		{
+			this.estimated = estimated;
+			this.available = available;
+			this.settled = settled;
+		}
+	}
+
+	private final Wallet wallet;
+
+	// contributions of all wallet transactions, guarded by this
+	private final Map<Sha256Hash, Contribution> contributions = new HashMap<Sha256Hash, Contribution>();
+	private BigInteger estimated = BigInteger.ZERO;
+	private BigInteger available = BigInteger.ZERO;
+
+	// the latest rebuild and the updates that race with its scan of the wallet, guarded by this
+	private int numRebuilds = 0;
+	@CheckForNull
+	private Map<Sha256Hash, Contribution> racingUpdates = null;
+
+	private volatile Balance balance = new Balance(BigInteger.ZERO, BigInteger.ZERO);
+
+	private static final Logger log = LoggerFactory.getLogger(BalanceTracker.class);
+
+	public BalanceTracker(@Nonnull final Wallet wallet, @Nonnull final WalletChangeDispatcher walletChangeDispatcher)
+	{
+		this.wallet = wallet;
+
+		// listen before building, so nothing that happens in between is missed
+		walletChangeDispatcher.addImmediateListener(walletChangeListener);
+
+		rebuild();
+	}
+
+	/**
+	 * @return the current balance, without touching the wallet
+	 */
+	public Balance getBalance()
+	{
+		return balance;
+	}
+
+	private Contribution contribution(final Transaction tx)
+	{
+		final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+		if (confidenceType == ConfidenceType.DEAD)
+			return Contribution.NONE;
+
+		final boolean mature = tx.isMature();
+		final boolean settled = confidenceType == ConfidenceType.BUILDING && mature;
+
+		BigInteger estimated = BigInteger.ZERO;
+		for (final TransactionOutput output : tx.getOutputs())
+			if (output.isAvailableForSpending() && output.isMine(wallet))
+				estimated = estimated.add(output.getValue());
+
+		if (estimated.signum() == 0)
+			return settled ? Contribution.NONE_SETTLED : Contribution.NONE;
+
+		final boolean available = mature && DefaultCoinSelector.isSelectable(tx);
+
+		return new Contribution(estimated, available ? estimated : BigInteger.ZERO, settled);
+	}
+
+	private synchronized boolean isSettled(final Sha256Hash hash)
+	{
+		final Contribution contribution = contributions.get(hash);
+
+		return contribution != null && contribution.settled;
+	}
+
+	// the transaction itself and the wallet transactions it spends from, whose outputs it may have spent or released
+	private void update(final Transaction tx)
+	{
+		final List<Transaction> affected = new ArrayList<Transaction>(1 + tx.getInputs().size());
+		affected.add(tx);
+		for (final TransactionInput input : tx.getInputs())
+		{
+			if (input.isCoinBase())
+				continue;
+
+			final Transaction parent = wallet.getTransaction(input.getOutpoint().getHash());
+			if (parent != null)
+				affected.add(parent);
+		}
+
+		final List<Contribution> newContributions = new ArrayList<Contribution>(affected.size());
+		for (final Transaction affectedTx : affected)
+			newContributions.add(contribution(affectedTx));
+
+		synchronized (this)
+		{
+			for (int i = 0; i < affected.size(); i++)
+			{
+				put(affected.get(i).getHash(), newContributions.get(i));
+				if (racingUpdates != null)
+					racingUpdates.put(affected.get(i).getHash(), newContributions.get(i));
+			}
+
+			publish();
+		}
+	}
+
+	// the wallet lock isn't available from outside, so updates that race with the scan are applied on top of it
+	private void rebuild()
+	{
+		final int rebuild;
+		final Map<Sha256Hash, Contribution> racingUpdates = new HashMap<Sha256Hash, Contribution>();
+		synchronized (this)
+		{
+			rebuild = ++numRebuilds;
+			this.racingUpdates = racingUpdates;
+		}
+
+		final Set<Transaction> transactions = wallet.getTransactions(true);
+		final Map<Sha256Hash, Contribution> newContributions = new HashMap<Sha256Hash, Contribution>();
+		for (final Transaction tx : transactions)
+			newContributions.put(tx.getHash(), contribution(tx));
+
+		synchronized (this)
+		{
+			// a later rebuild has seen a newer wallet
+			if (rebuild != numRebuilds)
+				return;
+
+			contributions.clear();
+			estimated = BigInteger.ZERO;
+			available = BigInteger.ZERO;
+
+			for (final Map.Entry<Sha256Hash, Contribution> entry : newContributions.entrySet())
+				put(entry.getKey(), entry.getValue());
+			for (final Map.Entry<Sha256Hash, Contribution> entry : racingUpdates.entrySet())
+				put(entry.getKey(), entry.getValue());
+			this.racingUpdates = null;
+
+			publish();
+		}
+
+		log.info("tracked balance of " + transactions.size() + " transactions, " + balance);
+	}
+
+	private void put(final Sha256Hash hash, final Contribution contribution)
+	{
+		final Contribution oldContribution = contributions.put(hash, contribution);
+
+		if (oldContribution != null)
+		{
+			estimated = estimated.subtract(oldContribution.estimated);
+			available = available.subtract(oldContribution.available);
+		}
+
+		estimated = estimated.add(contribution.estimated);
+		available = available.add(contribution.available);
+	}
+
+	private void publish()
+	{
+		balance = new Balance(estimated, available);
+	}
+
+	private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
+	{
+		@Override
+		public void onWalletChanged(final ChangeSet changes)
+		{
+			// reorganize or new keys, which can make existing outputs ours; the parents of removed transactions aren't
+			// known anymore, but removals without a reorganize are rare
+			if (changes.isFull() || !changes.getRemoved().isEmpty())
+			{
+				rebuild();
+				return;
+			}
+
+			for (final Sha256Hash hash : changes.getAdded())
+			{
+				final Transaction tx = wallet.getTransaction(hash);
+				if (tx != null)
+					update(tx);
+			}
+
+			for (final Sha256Hash hash : changes.getConfidenceChanged())
+			{
+				final Transaction tx = wallet.getTransaction(hash);
+
+				// depth makes coinbases mature, broadcast peers make own pending transactions selectable, and dead
+				// transactions release what they spent; most changes are just depth increments of settled transactions
+				if (tx != null && (!isSettled(hash) || tx.getConfidence().getConfidenceType() != ConfidenceType.BUILDING))
+					update(tx);
+			}
+		}
+	};
+}
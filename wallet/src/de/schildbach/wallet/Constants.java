@@ -43,15 +43,26 @@ public class Constants
 
 	public static final String WALLET_FILENAME_PROTOBUF = "wallet-protobuf" + FILENAME_NETWORK_SUFFIX;
 
+	public static final String WALLET_JOURNAL_FILENAME = "wallet-journal" + FILENAME_NETWORK_SUFFIX;
+
 	public static final String WALLET_KEY_BACKUP_BASE58 = "key-backup-base58" + FILENAME_NETWORK_SUFFIX;
 
 	public static final File EXTERNAL_WALLET_BACKUP_DIR = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
 	public static final String EXTERNAL_WALLET_KEY_BACKUP = "mazacoin-wallet-keys" + FILENAME_NETWORK_SUFFIX;
 
-	public static final String BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
+	public static final String BLOCKCHAIN_FILENAME = "blockchain-indexed" + FILENAME_NETWORK_SUFFIX;
+	public static final String BLOCKCHAIN_FILENAME_LEGACY = "blockchain" + FILENAME_NETWORK_SUFFIX;
+	public static final int BLOCKCHAIN_STORE_CAPACITY = 10000;
 
 	public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX;
 
+	public static final String PEER_ADDRESSES_FILENAME = "peers" + FILENAME_NETWORK_SUFFIX;
+	public static final int PEER_ADDRESSES_MAX = 1000;
+
+	public static final String EXCHANGE_RATES_FILENAME = "exchange-rates";
+
+	public static final String BALANCE_SNAPSHOT_FILENAME = "balance-snapshot" + FILENAME_NETWORK_SUFFIX;
+
 	private static final String EXPLORE_BASE_URL_PROD = "https://mazacha.in/";
 	private static final String EXPLORE_BASE_URL_TEST = "https://www.biteasy.com/testnet/";
 	public static final String EXPLORE_BASE_URL = NETWORK_PARAMETERS.getId().equals(NetworkParameters.ID_MAINNET) ? EXPLORE_BASE_URL_PROD
@@ -18,6 +18,12 @@
 package de.schildbach.wallet;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -26,21 +32,27 @@ import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Currency;
 import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,7 +68,8 @@ import android.provider.BaseColumns;
 import android.text.format.DateUtils;
 import cc.mazacoin.wallet.R;
 import de.schildbach.wallet.util.GenericUtils;
-import de.schildbach.wallet.util.Io;
+import de.schildbach.wallet.util.JsonPullParser;
+import de.schildbach.wallet.util.TickerParser;
 
 /**
  * @author Andreas Schildbach
@@ -96,6 +109,9 @@ public class ExchangeRatesProvider extends ContentProvider
 	private long lastUpdated = 0;
     private long lastUpdatedZET = 0;
     private SharedPreferences prefs;
+	private boolean cacheLoaded = false;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	private final ExecutorService executor = Executors.newCachedThreadPool();
 
 	private static final URL BITCOINAVERAGE_URL;
 	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg" };
@@ -103,6 +119,8 @@ public class ExchangeRatesProvider extends ContentProvider
 	private static final String[] BITCOINCHARTS_FIELDS = new String[] { "24h", "7d", "30d" };
 	private static final URL BLOCKCHAININFO_URL;
 	private static final String[] BLOCKCHAININFO_FIELDS = new String[] { "15m" };
+	private static final URL CRYPTOPIA_URL;
+	private static final String[] CRYPTOPIA_FIELDS = new String[] { "AskPrice" };
 
 	// https://bitmarket.eu/api/ticker
 
@@ -113,6 +131,7 @@ public class ExchangeRatesProvider extends ContentProvider
 			BITCOINAVERAGE_URL = new URL("https://api.bitcoinaverage.com/ticker/all");
 			BITCOINCHARTS_URL = new URL("http://api.bitcoincharts.com/v1/weighted_prices.json");
 			BLOCKCHAININFO_URL = new URL("https://blockchain.info/ticker");
+			CRYPTOPIA_URL = new URL("https://www.cryptopia.co.nz/api/GetMarket/MZC_BTC");
 		}
 		catch (final MalformedURLException x)
 		{
@@ -120,7 +139,11 @@ public class ExchangeRatesProvider extends ContentProvider
 		}
 	}
 
+	private static final URL[] TICKER_URLS = new URL[] { BITCOINAVERAGE_URL, BITCOINCHARTS_URL, BLOCKCHAININFO_URL };
+	private static final String[][] TICKER_FIELDS = new String[][] { BITCOINAVERAGE_FIELDS, BITCOINCHARTS_FIELDS, BLOCKCHAININFO_FIELDS };
+
 	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long REFRESH_DEADLINE_MS = 20 * DateUtils.SECOND_IN_MILLIS;
 
 	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
 
@@ -140,34 +163,29 @@ public class ExchangeRatesProvider extends ContentProvider
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
 		final long now = System.currentTimeMillis();
+		final Map<String, ExchangeRate> exchangeRates;
 
-		if (exchangeRates == null || now - lastUpdated > UPDATE_FREQ_MS)
+		synchronized (this)
 		{
-			Map<String, ExchangeRate> newExchangeRates = null;
-
-                        BigDecimal newZetacoinRate = BigDecimal.valueOf(coinGetBTCValue());//getZetacoinRate();
-
-                        if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(newZetacoinRate, zetacoinRateMethodSourceName,
-                        BITCOINAVERAGE_URL, BITCOINAVERAGE_FIELDS);
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(newZetacoinRate, zetacoinRateMethodSourceName,
-                        BITCOINCHARTS_URL, BITCOINCHARTS_FIELDS);
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(newZetacoinRate, zetacoinRateMethodSourceName,
-                        BLOCKCHAININFO_URL, BLOCKCHAININFO_FIELDS);
-
-			if (newExchangeRates != null)
+			if (!cacheLoaded)
 			{
-				exchangeRates = newExchangeRates;
-				lastUpdated = now;
+				loadCache();
+				cacheLoaded = true;
 			}
-		}
 
-		if (exchangeRates == null)
-			return null;
+			// never wait for the network, answer with what we have and let observers know when fresh rates arrive
+			if (this.exchangeRates == null || now - lastUpdated > UPDATE_FREQ_MS)
+				refreshInBackground();
+
+			exchangeRates = this.exchangeRates;
+		}
 
 		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE, KEY_SOURCE });
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+		// empty until the first refresh completes
+		if (exchangeRates == null)
+			return cursor;
 
 		if (selection == null)
 		{
@@ -188,15 +206,11 @@ public class ExchangeRatesProvider extends ContentProvider
 				rate = defaultCode != null ? exchangeRates.get(defaultCode) : null;
 
 				if (rate == null)
-				{
 					rate = exchangeRates.get(Constants.DEFAULT_EXCHANGE_CURRENCY);
-
-					if (rate == null)
-						return null;
-				}
 			}
 
-			cursor.newRow().add(rate.currencyCode.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
+			if (rate != null)
+				cursor.newRow().add(rate.currencyCode.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
 		}
 
 		return cursor;
@@ -247,13 +261,226 @@ public class ExchangeRatesProvider extends ContentProvider
 		throw new UnsupportedOperationException();
 	}
 
-	private static Map<String, ExchangeRate> requestExchangeRates(BigDecimal zet, String zetRateSource, final URL url, final String... fields)
+	private void refreshInBackground()
+	{
+		if (!refreshing.compareAndSet(false, true))
+			return;
+
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					refresh();
+				}
+				finally
+				{
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	private void refresh()
+	{
+		final long start = System.currentTimeMillis();
+		final long deadline = start + REFRESH_DEADLINE_MS;
+
+		// all sources are asked at once, the slowest one no longer delays the others
+		final Future<BigDecimal> zetacoinRateFuture = executor.submit(new Callable<BigDecimal>()
+		{
+			@Override
+			public BigDecimal call()
+			{
+				return coinGetBTCValue();
+			}
+		});
+		final List<Future<Map<String, BigDecimal>>> tickerFutures = new ArrayList<Future<Map<String, BigDecimal>>>(TICKER_URLS.length);
+		for (int i = 0; i < TICKER_URLS.length; i++)
+		{
+			final URL url = TICKER_URLS[i];
+			final String[] fields = TICKER_FIELDS[i];
+			tickerFutures.add(executor.submit(new Callable<Map<String, BigDecimal>>()
+			{
+				@Override
+				public Map<String, BigDecimal> call()
+				{
+					return requestExchangeRates(url, fields);
+				}
+			}));
+		}
+
+		final BigDecimal zet;
+		Map<String, BigDecimal> btcRates = null;
+		URL btcRatesUrl = null;
+
+		try
+		{
+			zet = await(zetacoinRateFuture, deadline);
+
+			// tickers in order of preference, the first one that answered within the deadline wins
+			for (int i = 0; i < tickerFutures.size() && btcRates == null; i++)
+			{
+				btcRates = await(tickerFutures.get(i), deadline);
+				btcRatesUrl = TICKER_URLS[i];
+			}
+		}
+		finally
+		{
+			zetacoinRateFuture.cancel(true);
+			for (final Future<Map<String, BigDecimal>> future : tickerFutures)
+				future.cancel(true);
+		}
+
+		if (zet == null || btcRates == null)
+		{
+			log.info("refreshing exchange rates failed, took " + (System.currentTimeMillis() - start) + " ms");
+			return;
+		}
+
+		final Map<String, ExchangeRate> newExchangeRates = new TreeMap<String, ExchangeRate>();
+		newExchangeRates.put("#BTC", new ExchangeRate("#BTC", zet.movePointRight(8).toBigInteger(), zetacoinRateMethodSourceName));
+		for (final Map.Entry<String, BigDecimal> entry : btcRates.entrySet())
+		{
+			final String currencyCode = entry.getKey();
+			final BigDecimal result = entry.getValue().multiply(zet);
+			if (result.signum() > 0)
+				newExchangeRates.put(currencyCode, new ExchangeRate(currencyCode, result.movePointRight(8).toBigInteger(), btcRatesUrl.getHost()));
+		}
+
+		final long now = System.currentTimeMillis();
+
+		synchronized (this)
+		{
+			exchangeRates = newExchangeRates;
+			lastUpdated = now;
+		}
+
+		saveCache(newExchangeRates, now);
+
+		log.info("refreshed " + newExchangeRates.size() + " exchange rates, took " + (now - start) + " ms");
+
+		getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+	}
+
+	@CheckForNull
+	private static <T> T await(final Future<T> future, final long deadline)
+	{
+		try
+		{
+			return future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		}
+		catch (final TimeoutException x)
+		{
+			log.info("exchange rate source missed the deadline");
+		}
+		catch (final ExecutionException x)
+		{
+			log.warn("problem fetching exchange rates", x.getCause());
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		return null;
+	}
+
+	private void loadCache()
+	{
+		final File file = new File(getContext().getCacheDir(), Constants.EXCHANGE_RATES_FILENAME);
+		if (!file.exists())
+			return;
+
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			final long cachedLastUpdated = is.readLong();
+			final int count = is.readInt();
+			final Map<String, ExchangeRate> cachedExchangeRates = new TreeMap<String, ExchangeRate>();
+			for (int i = 0; i < count; i++)
+			{
+				final String currencyCode = is.readUTF();
+				final BigInteger rate = BigInteger.valueOf(is.readLong());
+				final String source = is.readUTF();
+				cachedExchangeRates.put(currencyCode, new ExchangeRate(currencyCode, rate, source));
+			}
+
+			exchangeRates = cachedExchangeRates;
+			lastUpdated = cachedLastUpdated;
+
+			log.info("loaded " + count + " cached exchange rates from " + String.format(Locale.US, "%tF %<tT", cachedLastUpdated));
+		}
+		catch (final IOException x)
+		{
+			log.info("problem loading cached exchange rates, ignoring", x);
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	private void saveCache(final Map<String, ExchangeRate> exchangeRates, final long lastUpdated)
+	{
+		final File file = new File(getContext().getCacheDir(), Constants.EXCHANGE_RATES_FILENAME);
+		final File tmpFile = new File(file.getPath() + ".tmp");
+
+		try
+		{
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+			try
+			{
+				os.writeLong(lastUpdated);
+				os.writeInt(exchangeRates.size());
+				for (final ExchangeRate rate : exchangeRates.values())
+				{
+					os.writeUTF(rate.currencyCode);
+					os.writeLong(rate.rate.longValue());
+					os.writeUTF(rate.source);
+				}
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot rename " + tmpFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.info("problem saving exchange rates", x);
+		}
+	}
+
+	/**
+	 * @return rates in BTC per currency code, or null if the source couldn't be read
+	 */
+	@CheckForNull
+	private static Map<String, BigDecimal> requestExchangeRates(final URL url, final String... fields)
 	{
 		final long start = System.currentTimeMillis();
 
 		HttpURLConnection connection = null;
 		Reader reader = null;
-                
+
 		try
 		{
 			connection = (HttpURLConnection) url.openConnection();
@@ -265,50 +492,7 @@ public class ExchangeRatesProvider extends ContentProvider
 			if (responseCode == HttpURLConnection.HTTP_OK)
 			{
 				reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				Io.copy(reader, content);
-
-				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-				rates.put("#BTC", new ExchangeRate("#BTC", zet.movePointRight(8).toBigIntegerExact(), zetRateSource));
-				
-				final JSONObject head = new JSONObject(content.toString());
-				for (final Iterator<String> i = head.keys(); i.hasNext();)
-				{
-					final String currencyCode = i.next();
-					if (!"timestamp".equals(currencyCode))
-					{
-						final JSONObject o = head.getJSONObject(currencyCode);
-						
-						for (final String field : fields)
-						{
-							final String rateStr = o.optString(field, null);
-
-							if (rateStr != null)
-							{
-								try
-								{	
-									BigDecimal rate = new BigDecimal(rateStr);
-									BigDecimal result = rate.multiply(zet);
-									
-									if (result.signum() > 0)
-									{
-										rates.put(currencyCode, new ExchangeRate(currencyCode, result.movePointRight(8).toBigInteger(), url.getHost()));
-										break;
-									}
-								}
-								catch (final ArithmeticException x)
-								{
-									log.warn("problem fetching exchange rate: " + currencyCode, x);
-								}
-								catch (Exception x)
-								{
-									log.warn("problem fetching ZET", x);
-								}
-							}
-						}
-					}
-				}
+				final Map<String, BigDecimal> rates = TickerParser.parseTickers(reader, fields);
 
 				log.info("fetched exchange rates from " + url + ", took " + (System.currentTimeMillis() - start) + " ms");
 
@@ -344,49 +528,60 @@ public class ExchangeRatesProvider extends ContentProvider
 		return null;
 	}
 
-       private static Double coinGetBTCValue() {
-
-        //final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-        Double btcRate = 0.0;
-        String url = "https://www.cryptopia.co.nz/api/GetMarket/MZC_BTC";
-
-        try {
-            // final String currencyCode = currencies[i];
-            final URL URLC = new URL(url);
-            final HttpURLConnection conn = (HttpURLConnection)URLC.openConnection();
-            conn.setConnectTimeout(Constants.HTTP_TIMEOUT_MS * 2);
-            conn.setReadTimeout(Constants.HTTP_TIMEOUT_MS * 2);
-            conn.connect();
-
-            final StringBuilder content = new StringBuilder();
-
-            Reader reader = null;
-            try
-            {
-                reader = new InputStreamReader(new BufferedInputStream(conn.getInputStream(), 1024));
-                Io.copy(reader, content);
-                final JSONObject obj = new JSONObject(content.toString());
-                JSONObject result = obj.getJSONObject("Data");
-                btcRate = result.getDouble("AskPrice");
-            }
-            finally
-            {
-                if (reader != null)
-                    reader.close();
-            }
-            return btcRate;
-        }
-        catch (final IOException x)
-        {
-            x.printStackTrace();
-        }
-        catch (final JSONException x)
-        {
-            x.printStackTrace();
-        }
+	@CheckForNull
+	private static BigDecimal coinGetBTCValue()
+	{
+		final long start = System.currentTimeMillis();
 
-        return null;
-    }
+		HttpURLConnection connection = null;
+		Reader reader = null;
+
+		try
+		{
+			connection = (HttpURLConnection) CRYPTOPIA_URL.openConnection();
+			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS * 2);
+			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS * 2);
+			connection.connect();
+
+			reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
+			final JsonPullParser parser = new JsonPullParser(reader);
+			final String[] values = new String[CRYPTOPIA_FIELDS.length];
+			if (!TickerParser.enterMember(parser, "Data"))
+				return null;
+			TickerParser.readFields(parser, CRYPTOPIA_FIELDS, values);
+
+			log.info("fetched zetacoin rate from " + CRYPTOPIA_URL + ", took " + (System.currentTimeMillis() - start) + " ms");
+
+			return TickerParser.parseRate(values[0]);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem fetching zetacoin rate", x);
+		}
+		catch (final IllegalStateException x)
+		{
+			log.warn("problem parsing zetacoin rate", x);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+
+			if (connection != null)
+				connection.disconnect();
+		}
+
+		return null;
+	}
 
     private BigDecimal getZetacoinRate() {
         final long now = System.currentTimeMillis();
@@ -460,31 +655,20 @@ public class ExchangeRatesProvider extends ContentProvider
 			if (responseCode == HttpURLConnection.HTTP_OK)
 			{
 				reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				Io.copy(reader, content);
+				final String[] values = method.readRateFields(new JsonPullParser(reader), fields);
+				if (values == null)
+					return null;
 
 				BigDecimal rate = null;
 
-				final JSONObject o = method.getRateStringJSONObject(content.toString());
-                if (o == null)
-                    return null;
-				
-				for (final String field : fields)
+				// the last field that holds a rate wins
+				for (final String value : values)
 				{
-					final String rateStr = o.optString(field, null);
-
-					if (rateStr != null)
-					{
-						try
-						{
-							rate = new BigDecimal(rateStr);
-						}
-						catch (final ArithmeticException x)
-						{
-							log.warn("problem fetching exchange rate: ZET", x);
-						}
-					}
+					final BigDecimal fieldRate = TickerParser.parseRate(value);
+					if (fieldRate != null)
+						rate = fieldRate;
 				}
+
 				log.info("fetched exchange rates from " + url + ", took " + (System.currentTimeMillis() - start) + " ms");
 
 				return rate;
@@ -573,17 +757,23 @@ public class ExchangeRatesProvider extends ContentProvider
             return resources.getStringArray(fieldsArrayResId);
         }
 
-        public JSONObject getRateStringJSONObject(String json) throws JSONException {
+        public String[] readRateFields(JsonPullParser parser, String[] fields) throws IOException {
+            final String[] values = new String[fields.length];
             switch (this) {
                 case BTER:
-                    return new JSONObject(json);
+                    TickerParser.readFields(parser, fields, values);
+                    return values;
                 case MINTPAL:
-                    JSONArray arr = new JSONArray(json);
-                    return arr.length() > 0 ? arr.getJSONObject(0) : null;
+                    parser.beginArray();
+                    if (!parser.hasNext())
+                        return null;
+                    TickerParser.readFields(parser, fields, values);
+                    return values;
                 case CRYPTSY:
-                    JSONObject obj = new JSONObject(json);
-                    JSONObject markets = obj.getJSONObject("markets");
-                    return markets.getJSONObject("MZC");
+                    if (!TickerParser.enterMember(parser, "markets") || !TickerParser.enterMember(parser, "MZC"))
+                        return null;
+                    TickerParser.readFields(parser, fields, values);
+                    return values;
                 default:
                     return null;
             }
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zetacoin.core.ScriptException;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionConfidence;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.Wallet;
+
+import de.schildbach.wallet.WalletChangeDispatcher.ChangeSet;
+import de.schildbach.wallet.ui.TransactionsListFragment.Direction;
+
+/**
+ * Keeps the wallet transactions sorted for display, pending first and then newest first, one sorted set per
+ * {@link Direction}. Value and sort key of each transaction are computed once when it enters the index and only
+ * recomputed when a change set of the {@link WalletChangeDispatcher} touches it, so the transaction lists don't need to
+ * evaluate and sort the whole wallet on every change.
+ *
+ * Transactions are also indexed by the blocks they appear in, so the block list can look up the transactions of each
+ * block directly.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionIndex
+{
+	private final Wallet wallet;
+
+	private final Map<Sha256Hash, Entry> entries = new HashMap<Sha256Hash, Entry>();
+	private final TreeSet<Entry> all = new TreeSet<Entry>(ENTRY_COMPARATOR);
+	private final TreeSet<Entry> received = new TreeSet<Entry>(ENTRY_COMPARATOR);
+	private final TreeSet<Entry> sent = new TreeSet<Entry>(ENTRY_COMPARATOR);
+	private final Map<Sha256Hash, List<Entry>> blocks = new HashMap<Sha256Hash, List<Entry>>();
+
+	// snapshots handed out to loaders, dropped when the respective set changes
+	private List<Transaction> allSnapshot, receivedSnapshot, sentSnapshot;
+
+	// the latest rebuild and the updates that race with its scan of the wallet, null for removals; guarded by this
+	private int numRebuilds = 0;
+	@CheckForNull
+	private Map<Sha256Hash, Entry> racingUpdates = null;
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionIndex.class);
+
+	private static final class Entry
+	{
+		public final Transaction tx;
+		public final Sha256Hash hash;
+		public final BigInteger value;
+		public final boolean sent;
+		public final boolean pending;
+		public final long time;
+		public final int appearedAtHeight;
+		public final Set<Sha256Hash> blocks;
+
+		public Entry(final Transaction tx, final BigInteger value)
+		{
+			this.tx = tx;
+			this.hash = tx.getHash();
+			this.value = value;
+			this.sent = value.signum() < 0;
+			this.pending = tx.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+			final Date updateTime = tx.getUpdateTime();
+			this.time = updateTime != null ? updateTime.getTime() : 0;
+			this.appearedAtHeight = appearedAtHeight(tx);
+
+			final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+			if (appearsIn == null || appearsIn.isEmpty())
+				this.blocks = Collections.emptySet();
+			else if (appearsIn.size() == 1)
+				this.blocks = Collections.singleton(appearsIn.keySet().iterator().next());
+			else
+				this.blocks = new HashSet<Sha256Hash>(appearsIn.keySet());
+		}
+
+		// the appeared at height changes whenever the best chain block of the transaction does, so the blocks don't
+		// need to be compared
+		public boolean sameKeys(final Transaction tx)
+		{
+			final boolean pending = tx.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+			final Date updateTime = tx.getUpdateTime();
+			final long time = updateTime != null ? updateTime.getTime() : 0;
+
+			return pending == this.pending && time == this.time && appearedAtHeight(tx) == this.appearedAtHeight;
+		}
+
+		private static int appearedAtHeight(final Transaction tx)
+		{
+			final TransactionConfidence confidence = tx.getConfidence();
+
+			return confidence.getConfidenceType() == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1;
+		}
+	}
+
+	// pending first, then newest first; the hash makes the order total, as required by the sorted sets
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(final Entry entry1, final Entry entry2)
+		{
+			if (entry1.pending != entry2.pending)
+				return entry1.pending ? -1 : 1;
+
+			if (entry1.time != entry2.time)
+				return entry1.time > entry2.time ? -1 : 1;
+
+			return entry1.hash.toBigInteger().compareTo(entry2.hash.toBigInteger());
+		}
+	};
+
+	public TransactionIndex(@Nonnull final Wallet wallet, @Nonnull final WalletChangeDispatcher walletChangeDispatcher)
+	{
+		this.wallet = wallet;
+
+		// listen before building, so nothing that happens in between is missed
+		walletChangeDispatcher.addImmediateListener(walletChangeListener);
+
+		rebuild();
+	}
+
+	/**
+	 * @return transactions of the given direction, or all transactions if direction is null, in display order. The
+	 *         returned list is immutable and shared between callers until the index changes, so windows can be taken
+	 *         from it cheaply, and consistently with its size.
+	 */
+	public synchronized List<Transaction> getTransactions(@Nullable final Direction direction)
+	{
+		if (direction == Direction.RECEIVED)
+		{
+			if (receivedSnapshot == null)
+				receivedSnapshot = snapshot(received);
+			return receivedSnapshot;
+		}
+		else if (direction == Direction.SENT)
+		{
+			if (sentSnapshot == null)
+				sentSnapshot = snapshot(sent);
+			return sentSnapshot;
+		}
+		else
+		{
+			if (allSnapshot == null)
+				allSnapshot = snapshot(all);
+			return allSnapshot;
+		}
+	}
+
+	/**
+	 * @return transactions that appear in the given block, in display order
+	 */
+	public synchronized List<Transaction> getTransactionsInBlock(@Nonnull final Sha256Hash blockHash)
+	{
+		final List<Entry> blockEntries = blocks.get(blockHash);
+		if (blockEntries == null)
+			return Collections.emptyList();
+
+		final List<Entry> sortedEntries = new ArrayList<Entry>(blockEntries);
+		Collections.sort(sortedEntries, ENTRY_COMPARATOR);
+
+		final List<Transaction> transactions = new ArrayList<Transaction>(sortedEntries.size());
+		for (final Entry entry : sortedEntries)
+			transactions.add(entry.tx);
+
+		return transactions;
+	}
+
+	/**
+	 * @return the value of the given transaction to the wallet, as cached by the index
+	 */
+	@CheckForNull
+	public synchronized BigInteger getValue(@Nonnull final Sha256Hash hash)
+	{
+		final Entry entry = entries.get(hash);
+
+		return entry != null ? entry.value : null;
+	}
+
+	private static List<Transaction> snapshot(final Set<Entry> set)
+	{
+		final List<Transaction> transactions = new ArrayList<Transaction>(set.size());
+		for (final Entry entry : set)
+			transactions.add(entry.tx);
+
+		return Collections.unmodifiableList(transactions);
+	}
+
+	private Entry newEntry(final Transaction tx)
+	{
+		try
+		{
+			return new Entry(tx, tx.getValue(wallet));
+		}
+		catch (final ScriptException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	// values depend on wallet keys and connected outputs, so they are computed before taking the index lock
+	private void update(final Transaction tx)
+	{
+		final Entry entry = newEntry(tx);
+
+		synchronized (this)
+		{
+			put(entry);
+			if (racingUpdates != null)
+				racingUpdates.put(entry.hash, entry);
+		}
+	}
+
+	// the wallet lock isn't available from outside, so updates that race with the scan are applied on top of it
+	private void rebuild()
+	{
+		final int rebuild;
+		final Map<Sha256Hash, Entry> racingUpdates = new HashMap<Sha256Hash, Entry>();
+		synchronized (this)
+		{
+			rebuild = ++numRebuilds;
+			this.racingUpdates = racingUpdates;
+		}
+
+		final Set<Transaction> transactions = wallet.getTransactions(true);
+		final List<Entry> newEntries = new ArrayList<Entry>(transactions.size());
+		for (final Transaction tx : transactions)
+			newEntries.add(newEntry(tx));
+
+		synchronized (this)
+		{
+			// a later rebuild has seen a newer wallet
+			if (rebuild != numRebuilds)
+				return;
+
+			entries.clear();
+			all.clear();
+			received.clear();
+			sent.clear();
+			blocks.clear();
+			allSnapshot = receivedSnapshot = sentSnapshot = null;
+
+			for (final Entry entry : newEntries)
+				put(entry);
+
+			for (final Map.Entry<Sha256Hash, Entry> racingUpdate : racingUpdates.entrySet())
+			{
+				if (racingUpdate.getValue() != null)
+					put(racingUpdate.getValue());
+				else
+					remove(entries.remove(racingUpdate.getKey()));
+			}
+			this.racingUpdates = null;
+		}
+
+		log.info("indexed " + newEntries.size() + " transactions");
+	}
+
+	private void put(final Entry entry)
+	{
+		remove(entries.put(entry.hash, entry));
+		add(entry);
+	}
+
+	private void add(final Entry entry)
+	{
+		all.add(entry);
+		allSnapshot = null;
+
+		if (entry.sent)
+		{
+			sent.add(entry);
+			sentSnapshot = null;
+		}
+		else
+		{
+			received.add(entry);
+			receivedSnapshot = null;
+		}
+
+		for (final Sha256Hash blockHash : entry.blocks)
+		{
+			List<Entry> blockEntries = blocks.get(blockHash);
+			if (blockEntries == null)
+			{
+				blockEntries = new ArrayList<Entry>(1);
+				blocks.put(blockHash, blockEntries);
+			}
+			blockEntries.add(entry);
+		}
+	}
+
+	private void remove(@Nullable final Entry entry)
+	{
+		if (entry == null)
+			return;
+
+		all.remove(entry);
+		allSnapshot = null;
+
+		if (entry.sent)
+		{
+			sent.remove(entry);
+			sentSnapshot = null;
+		}
+		else
+		{
+			received.remove(entry);
+			receivedSnapshot = null;
+		}
+
+		for (final Sha256Hash blockHash : entry.blocks)
+		{
+			final List<Entry> blockEntries = blocks.get(blockHash);
+			if (blockEntries != null)
+			{
+				blockEntries.remove(entry);
+				if (blockEntries.isEmpty())
+					blocks.remove(blockHash);
+			}
+		}
+	}
+
+	private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
+	{
+		@Override
+		public void onWalletChanged(final ChangeSet changes)
+		{
+			// reorganize or new keys, which can change the value of existing transactions
+			if (changes.isFull())
+			{
+				rebuild();
+				return;
+			}
+
+			for (final Sha256Hash hash : changes.getAdded())
+			{
+				final Transaction tx = wallet.getTransaction(hash);
+				if (tx != null)
+					update(tx);
+			}
+
+			for (final Sha256Hash hash : changes.getConfidenceChanged())
+			{
+				final Transaction tx = wallet.getTransaction(hash);
+				if (tx == null)
+					continue;
+
+				// most confidence changes are just depth increments, which neither move the transaction nor change its
+				// blocks
+				final Entry entry;
+				synchronized (TransactionIndex.this)
+				{
+					entry = entries.get(hash);
+				}
+
+				if (entry == null || !entry.sameKeys(tx))
+					update(tx);
+			}
+
+			if (!changes.getRemoved().isEmpty())
+			{
+				synchronized (TransactionIndex.this)
+				{
+					for (final Sha256Hash hash : changes.getRemoved())
+					{
+						remove(entries.remove(hash));
+						if (racingUpdates != null)
+							racingUpdates.put(hash, null);
+					}
+				}
+			}
+		}
+	};
+}
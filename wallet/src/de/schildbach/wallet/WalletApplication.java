@@ -30,7 +30,9 @@ import java.io.Writer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nonnull;
 
@@ -49,6 +51,8 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
@@ -68,13 +72,13 @@ import com.google.zetacoin.core.Wallet;
 import com.google.zetacoin.store.UnreadableWalletException;
 import com.google.zetacoin.store.WalletProtobufSerializer;
 import com.google.zetacoin.utils.Threading;
-import com.google.zetacoin.wallet.WalletFiles;
 
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainServiceImpl;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.Io;
 import de.schildbach.wallet.util.LinuxSecureRandom;
+import de.schildbach.wallet.util.QrRenderer;
 import de.schildbach.wallet.util.WalletUtils;
 import cc.mazacoin.wallet.R;
 
@@ -91,9 +95,24 @@ public class WalletApplication extends Application
 	private Intent blockchainServiceResetBlockchainIntent;
 
 	private File walletFile;
-	private Wallet wallet;
+	private File walletJournalFile;
 	private PackageInfo packageInfo;
 
+	// written by the wallet loader, read through walletFuture
+	private Wallet wallet;
+	private WalletJournal walletJournal;
+	private TransactionIndex transactionIndex;
+	private WalletChangeDispatcher walletChangeDispatcher;
+	private BalanceTracker balanceTracker;
+	// guarded by walletFuture
+	private boolean walletLoaderStarted = false;
+
+	private final Handler handler = new Handler();
+	// created on first use, guarded by this
+	private QrRenderer qrRenderer;
+	private AddressLabelIndex addressLabelIndex;
+	private final List<Runnable> walletLoadedCallbacks = new LinkedList<Runnable>();
+
 	private static final int KEY_ROTATION_VERSION_CODE = 135;
 
 	private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
@@ -143,14 +162,73 @@ public class WalletApplication extends Application
 		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
 
 		walletFile = getFileStreamPath(Constants.WALLET_FILENAME_PROTOBUF);
+		walletJournalFile = getFileStreamPath(Constants.WALLET_JOURNAL_FILENAME);
+
+		// nothing heavy here: the process may only have been started to draw the app widget
+	}
+
+	/**
+	 * Starts loading the wallet in the background, unless it is already loading. Happens implicitly on first use of
+	 * the wallet, but activities call this early so the wallet is ready sooner.
+	 */
+	public void loadWalletInBackground()
+	{
+		synchronized (walletFuture)
+		{
+			if (walletLoaderStarted)
+				return;
+
+			walletLoaderStarted = true;
+		}
+
+		new Thread(walletFuture, "wallet loader").start();
+	}
+
+	private final FutureTask<Wallet> walletFuture = new FutureTask<Wallet>(new Callable<Wallet>()
+	{
+		@Override
+		public Wallet call() throws IOException
+		{
+			final long start = System.currentTimeMillis();
+
+			loadWallet();
+
+			log.info("wallet ready, took " + (System.currentTimeMillis() - start) + "ms");
+
+			return wallet;
+		}
+	})
+	{
+		@Override
+		protected void done()
+		{
+			synchronized (walletLoadedCallbacks)
+			{
+				for (final Runnable callback : walletLoadedCallbacks)
+					handler.post(callback);
 
+				walletLoadedCallbacks.clear();
+			}
+		}
+	};
+
+	private void loadWallet() throws IOException
+	{
 		migrateWalletToProtobuf();
 
 		loadWalletFromProtobuf();
-		wallet.autosaveToFile(walletFile, 1, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+		walletChangeDispatcher = new WalletChangeDispatcher(wallet);
+		walletJournal = new WalletJournal(wallet, walletChangeDispatcher, walletJournalFile, new WalletJournal.Snapshotter()
+		{
+			@Override
+			public void saveSnapshot() throws IOException
+			{
+				protobufSerializeWallet(wallet);
+			}
+		});
+		boolean needsSnapshot = walletJournalFile.length() > 0;
 
 		final int lastVersionCode = prefs.getInt(Constants.PREFS_KEY_LAST_VERSION, 0);
-		prefs.edit().putInt(Constants.PREFS_KEY_LAST_VERSION, packageInfo.versionCode).commit();
 
 		if (packageInfo.versionCode > lastVersionCode)
 			log.info("detected app upgrade: " + lastVersionCode + " -> " + packageInfo.versionCode);
@@ -161,9 +239,19 @@ public class WalletApplication extends Application
 		{
 			log.info("detected version jump crossing key rotation");
 			wallet.setKeyRotationTime(System.currentTimeMillis() / 1000);
+			needsSnapshot = true; // not journaled
 		}
 
+		if (needsSnapshot)
+			walletJournal.compact();
+
+		// only remember the version once the changes it caused are on disk
+		prefs.edit().putInt(Constants.PREFS_KEY_LAST_VERSION, packageInfo.versionCode).commit();
+
 		ensureKey();
+
+		transactionIndex = new TransactionIndex(wallet, walletChangeDispatcher);
+		balanceTracker = new BalanceTracker(wallet, walletChangeDispatcher);
 	}
 
 	private void initLogging()
@@ -215,25 +303,115 @@ public class WalletApplication extends Application
 		log.setLevel(Level.INFO);
 	}
 
-	private static final class WalletAutosaveEventListener implements WalletFiles.Listener
+	/**
+	 * Blocks until the wallet is loaded. On the main thread, check {@link #isWalletLoaded()} first or use
+	 * {@link #runWhenWalletLoaded(Runnable)}.
+	 */
+	public Wallet getWallet()
 	{
-		@Override
-		public void onBeforeAutoSave(final File file)
+		loadWalletInBackground();
+
+		try
 		{
+			return walletFuture.get();
 		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(x);
+		}
+		catch (final ExecutionException x)
+		{
+			final Throwable cause = x.getCause();
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
 
-		@Override
-		public void onAfterAutoSave(final File file)
+	/**
+	 * Blocks until the wallet is loaded, like {@link #getWallet()}.
+	 */
+	public TransactionIndex getTransactionIndex()
+	{
+		getWallet();
+
+		return transactionIndex;
+	}
+
+	/**
+	 * Blocks until the wallet is loaded, like {@link #getWallet()}.
+	 */
+	public WalletChangeDispatcher getWalletChangeDispatcher()
+	{
+		getWallet();
+
+		return walletChangeDispatcher;
+	}
+
+	/**
+	 * Blocks until the wallet is loaded, like {@link #getWallet()}.
+	 */
+	public BalanceTracker getBalanceTracker()
+	{
+		getWallet();
+
+		return balanceTracker;
+	}
+
+	public synchronized QrRenderer getQrRenderer()
+	{
+		if (qrRenderer == null)
+			qrRenderer = new QrRenderer();
+
+		return qrRenderer;
+	}
+
+	public synchronized AddressLabelIndex getAddressLabelIndex()
+	{
+		if (addressLabelIndex == null)
+			addressLabelIndex = new AddressLabelIndex(getContentResolver(), getPackageName());
+
+		return addressLabelIndex;
+	}
+
+	public boolean isWalletLoaded()
+	{
+		return walletFuture.isDone();
+	}
+
+	/**
+	 * Runs the callback on the main thread once the wallet is loaded, or right away if it already is.
+	 */
+	public void runWhenWalletLoaded(@Nonnull final Runnable callback)
+	{
+		loadWalletInBackground();
+
+		synchronized (walletLoadedCallbacks)
 		{
-			// make wallets world accessible in test mode
-			if (Constants.TEST)
-				Io.chmod(file, 0777);
+			if (!walletFuture.isDone())
+			{
+				walletLoadedCallbacks.add(callback);
+				return;
+			}
 		}
+
+		if (Looper.myLooper() == Looper.getMainLooper())
+			callback.run();
+		else
+			handler.post(callback);
 	}
 
-	public Wallet getWallet()
+	private void toastOnMainThread(@Nonnull final String text)
 	{
-		return wallet;
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Toast.makeText(WalletApplication.this, text, Toast.LENGTH_LONG).show();
+			}
+		});
 	}
 
 	private void migrateWalletToProtobuf()
@@ -281,12 +459,14 @@ public class WalletApplication extends Application
 				wallet = new WalletProtobufSerializer().readWallet(walletStream);
 
 				log.info("wallet loaded from: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
+
+				replayWalletJournal();
 			}
 			catch (final FileNotFoundException x)
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				toastOnMainThread(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -294,7 +474,7 @@ public class WalletApplication extends Application
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				toastOnMainThread(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -315,7 +495,7 @@ public class WalletApplication extends Application
 
 			if (!wallet.isConsistent())
 			{
-				Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
+				toastOnMainThread("inconsistent wallet: " + walletFile);
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -336,15 +516,32 @@ public class WalletApplication extends Application
 				throw new Error("found read-only key, but wallet is likely an encrypted wallet from the future");
 	}
 
+	private void replayWalletJournal()
+	{
+		try
+		{
+			WalletJournal.replay(wallet, walletJournalFile);
+		}
+		catch (final IOException x)
+		{
+			log.error("problem replaying wallet journal, ignoring", x);
+
+			walletJournalFile.delete();
+		}
+	}
+
 	private Wallet restoreWalletFromBackup()
 	{
+		// journal belongs to the wallet that is being replaced
+		walletJournalFile.delete();
+
 		try
 		{
 			final Wallet wallet = readKeys(openFileInput(Constants.WALLET_KEY_BACKUP_BASE58));
 
 			resetBlockchain();
 
-			Toast.makeText(this, R.string.toast_wallet_reset, Toast.LENGTH_LONG).show();
+			toastOnMainThread(getString(R.string.toast_wallet_reset));
 
 			log.info("wallet restored from backup: '" + Constants.WALLET_KEY_BACKUP_BASE58 + "'");
 
@@ -390,9 +587,11 @@ public class WalletApplication extends Application
 
 	public void saveWallet()
 	{
+		getWallet();
+
 		try
 		{
-			protobufSerializeWallet(wallet);
+			walletJournal.compact();
 		}
 		catch (final IOException x)
 		{
@@ -450,6 +649,7 @@ public class WalletApplication extends Application
 
 	public Address determineSelectedAddress()
 	{
+		final Wallet wallet = getWallet();
 		final String selectedAddress = prefs.getString(Constants.PREFS_KEY_SELECTED_ADDRESS, null);
 
 		Address firstAddress = null;
@@ -472,10 +672,18 @@ public class WalletApplication extends Application
 
 	public void startBlockchainService(final boolean cancelCoinsReceived)
 	{
-		if (cancelCoinsReceived)
-			startService(blockchainServiceCancelCoinsReceivedIntent);
-		else
-			startService(blockchainServiceIntent);
+		// the service needs the wallet in onCreate()
+		runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (cancelCoinsReceived)
+					startService(blockchainServiceCancelCoinsReceivedIntent);
+				else
+					startService(blockchainServiceIntent);
+			}
+		});
 	}
 
 	public void stopBlockchainService()
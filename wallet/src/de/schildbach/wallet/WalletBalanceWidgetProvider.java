@@ -32,9 +32,6 @@ import android.text.Editable;
 import android.text.SpannableStringBuilder;
 import android.widget.RemoteViews;
 
-import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.core.Wallet.BalanceType;
-
 import de.schildbach.wallet.ui.RequestCoinsActivity;
 import de.schildbach.wallet.ui.SendCoinsActivity;
 import de.schildbach.wallet.ui.SendCoinsQrActivity;
@@ -51,11 +48,28 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 	@Override
 	public void onUpdate(final Context context, final AppWidgetManager appWidgetManager, final int[] appWidgetIds)
 	{
+		// the snapshot is tiny, so reading it doesn't need the wallet or a background thread
+		final BalanceSnapshot snapshot = BalanceSnapshot.load(context.getFileStreamPath(Constants.BALANCE_SNAPSHOT_FILENAME));
+		if (snapshot != null)
+		{
+			updateWidgets(context, appWidgetManager, appWidgetIds, snapshot.balance);
+			return;
+		}
+
+		// no snapshot written yet, e.g. right after upgrading
 		final WalletApplication application = (WalletApplication) context.getApplicationContext();
-		final Wallet wallet = application.getWallet();
-		final BigInteger balance = wallet.getBalance(BalanceType.ESTIMATED);
 
-		updateWidgets(context, appWidgetManager, appWidgetIds, balance);
+		// don't block the main thread while the wallet is still loading
+		application.runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final BigInteger balance = application.getBalanceTracker().getBalance().estimated;
+
+				updateWidgets(context, appWidgetManager, appWidgetIds, balance);
+			}
+		});
 	}
 
 	public static void updateWidgets(final Context context, @Nonnull final AppWidgetManager appWidgetManager, @Nonnull final int[] appWidgetIds,
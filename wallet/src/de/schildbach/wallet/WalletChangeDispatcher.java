@@ -0,0 +1,420 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.zetacoin.core.AbstractWalletEventListener;
+import com.google.zetacoin.core.ECKey;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.script.Script;
+import com.google.zetacoin.utils.Threading;
+import com.google.zetacoin.wallet.WalletTransaction.Pool;
+
+/**
+ * Single wallet listener that fans out wallet changes to the UI. Changes are accumulated per listener into a
+ * {@link ChangeSet} of the transactions that were added, had their confidence changed or were removed, and delivered
+ * on the main thread at most once per throttle interval of the listener.
+ *
+ * It is also the only place that finds out about transactions that entered or left the wallet without a more specific
+ * event, by comparing the pool sizes to the transactions it knows of. State derived from the wallet, like the
+ * transaction index, is kept up to date by immediate listeners, which get the change set on the thread that changed
+ * the wallet, before any listener on the main thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletChangeDispatcher
+{
+	public interface Listener
+	{
+		void onWalletChanged(@Nonnull ChangeSet changes);
+	}
+
+	/**
+	 * Transactions that changed since the last delivery. A transaction is in at most one of the sets. Added transactions
+	 * may already be known to the listener, e.g. if they were removed and added back within one interval.
+	 */
+	public static final class ChangeSet
+	{
+		private final Set<Sha256Hash> added;
+		private final Set<Sha256Hash> confidenceChanged;
+		private final Set<Sha256Hash> removed;
+		private final boolean full;
+
+		private ChangeSet(final Set<Sha256Hash> added, final Set<Sha256Hash> confidenceChanged, final Set<Sha256Hash> removed, final boolean full)
+		{
+			this.added = Collections.unmodifiableSet(added);
+			this.confidenceChanged = Collections.unmodifiableSet(confidenceChanged);
+			this.removed = Collections.unmodifiableSet(removed);
+			this.full = full;
+		}
+
+		public Set<Sha256Hash> getAdded()
+		{
+			return added;
+		}
+
+		public Set<Sha256Hash> getConfidenceChanged()
+		{
+			return confidenceChanged;
+		}
+
+		public Set<Sha256Hash> getRemoved()
+		{
+			return removed;
+		}
+
+		/**
+		 * @return true if changes to the wallet as a whole, like a reorganize or new keys, may have affected any
+		 *         transaction. Listeners should then recompute everything.
+		 */
+		public boolean isFull()
+		{
+			return full;
+		}
+
+		public boolean isAddedOrRemoved()
+		{
+			return full || !added.isEmpty() || !removed.isEmpty();
+		}
+
+		@Override
+		public String toString()
+		{
+			return "added: " + added.size() + ", confidence changed: " + confidenceChanged.size() + ", removed: " + removed.size()
+					+ (full ? ", full" : "");
+		}
+	}
+
+	private static final ChangeSet EMPTY = new ChangeSet(Collections.<Sha256Hash> emptySet(), Collections.<Sha256Hash> emptySet(),
+			Collections.<Sha256Hash> emptySet(), false);
+
+	private final Wallet wallet;
+
+	// hashes of all wallet transactions, for finding out what was removed; guarded by itself
+	private final Set<Sha256Hash> known = new HashSet<Sha256Hash>();
+	private int numReconciles = 0;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	private static final Logger log = LoggerFactory.getLogger(WalletChangeDispatcher.class);
+
+	public WalletChangeDispatcher(@Nonnull final Wallet wallet)
+	{
+		this.wallet = wallet;
+
+		// listen before scanning, so nothing that happens in between is missed
+		wallet.addEventListener(walletEventListener, Threading.SAME_THREAD);
+
+		final int numReconcilesBeforeScan;
+		synchronized (known)
+		{
+			numReconcilesBeforeScan = numReconciles;
+		}
+
+		final Set<Transaction> transactions = wallet.getTransactions(true);
+		synchronized (known)
+		{
+			// the scan isn't done with the wallet locked; a reconcile meanwhile was, so it is newer and complete
+			if (numReconciles == numReconcilesBeforeScan)
+				for (final Transaction tx : transactions)
+					known.add(tx.getHash());
+		}
+	}
+
+	/**
+	 * Adds a listener that is called back on the main thread, at most once per the given interval.
+	 */
+	public void addListener(@Nonnull final Listener listener, final long throttleMs)
+	{
+		subscriptions.add(new Subscription(listener, new Handler(Looper.getMainLooper()), throttleMs));
+	}
+
+	/**
+	 * Adds a listener that is called back on the thread that changed the wallet, with the wallet locked, as part of every
+	 * change. The change set may be empty, e.g. if only the last block seen changed.
+	 */
+	public void addImmediateListener(@Nonnull final Listener listener)
+	{
+		subscriptions.add(new Subscription(listener, null, 0));
+	}
+
+	/**
+	 * Removes the listener, dropping any changes that haven't been delivered yet.
+	 */
+	public void removeListener(@Nonnull final Listener listener)
+	{
+		for (final Subscription subscription : subscriptions)
+		{
+			if (subscription.listener == listener)
+			{
+				subscriptions.remove(subscription);
+				if (subscription.handler != null)
+					subscription.handler.removeCallbacks(subscription);
+			}
+		}
+	}
+
+	private void added(final Sha256Hash hash)
+	{
+		synchronized (known)
+		{
+			known.add(hash);
+		}
+
+		for (final Subscription subscription : subscriptions)
+			subscription.added(hash);
+	}
+
+	private void confidenceChanged(final Sha256Hash hash)
+	{
+		for (final Subscription subscription : subscriptions)
+			subscription.confidenceChanged(hash);
+	}
+
+	private void full()
+	{
+		for (final Subscription subscription : subscriptions)
+			subscription.full();
+	}
+
+	private void reconcile()
+	{
+		final int numTransactions = wallet.getPoolSize(Pool.UNSPENT) + wallet.getPoolSize(Pool.SPENT) + wallet.getPoolSize(Pool.PENDING)
+				+ wallet.getPoolSize(Pool.DEAD);
+
+		final Set<Sha256Hash> added = new HashSet<Sha256Hash>();
+		final Set<Sha256Hash> removed;
+
+		synchronized (known)
+		{
+			numReconciles++;
+
+			if (numTransactions == known.size())
+				return;
+
+			removed = new HashSet<Sha256Hash>(known);
+			for (final Transaction tx : wallet.getTransactions(true))
+			{
+				final Sha256Hash hash = tx.getHash();
+				if (!removed.remove(hash))
+					added.add(hash);
+			}
+
+			known.addAll(added);
+			known.removeAll(removed);
+		}
+
+		log.info("reconciled wallet transactions, " + added.size() + " added, " + removed.size() + " removed");
+
+		for (final Subscription subscription : subscriptions)
+		{
+			for (final Sha256Hash hash : added)
+				subscription.added(hash);
+			for (final Sha256Hash hash : removed)
+				subscription.removed(hash);
+		}
+	}
+
+	private final AbstractWalletEventListener walletEventListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			added(tx.getHash());
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			added(tx.getHash());
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			confidenceChanged(tx.getHash());
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			full();
+		}
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			// new keys can change the value of existing transactions
+			full();
+		}
+
+		@Override
+		public void onScriptsAdded(final Wallet wallet, final List<Script> scripts)
+		{
+			full();
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			reconcile();
+
+			for (final Subscription subscription : subscriptions)
+				subscription.schedule();
+		}
+	};
+
+	private final class Subscription implements Runnable
+	{
+		public final Listener listener;
+
+		// null for immediate delivery
+		public final Handler handler;
+		private final long throttleMs;
+
+		// guarded by this
+		private Set<Sha256Hash> added = new HashSet<Sha256Hash>();
+		private Set<Sha256Hash> confidenceChanged = new HashSet<Sha256Hash>();
+		private Set<Sha256Hash> removed = new HashSet<Sha256Hash>();
+		private boolean full = false;
+		private boolean scheduled = false;
+		private long lastDeliveryTime = 0;
+
+		public Subscription(final Listener listener, @Nullable final Handler handler, final long throttleMs)
+		{
+			this.listener = listener;
+			this.handler = handler;
+			this.throttleMs = throttleMs;
+		}
+
+		public synchronized void added(final Sha256Hash hash)
+		{
+			removed.remove(hash);
+			confidenceChanged.remove(hash);
+			added.add(hash);
+		}
+
+		public synchronized void confidenceChanged(final Sha256Hash hash)
+		{
+			if (!added.contains(hash))
+				confidenceChanged.add(hash);
+		}
+
+		public synchronized void removed(final Sha256Hash hash)
+		{
+			confidenceChanged.remove(hash);
+
+			// never delivered, so the listener doesn't know about it
+			if (!added.remove(hash))
+				removed.add(hash);
+		}
+
+		public synchronized void full()
+		{
+			full = true;
+		}
+
+		public void schedule()
+		{
+			if (handler == null)
+			{
+				deliver();
+				return;
+			}
+
+			// unlike rescheduling on every change, this also delivers during a steady stream of changes
+			synchronized (this)
+			{
+				if (scheduled || isEmpty())
+					return;
+
+				scheduled = true;
+
+				final long delay = lastDeliveryTime + throttleMs - SystemClock.uptimeMillis();
+				if (delay > 0)
+					handler.postDelayed(this, delay);
+				else
+					handler.post(this);
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			final ChangeSet changes;
+
+			synchronized (this)
+			{
+				scheduled = false;
+				if (isEmpty() || !subscriptions.contains(this))
+					return;
+
+				changes = takeChanges();
+				lastDeliveryTime = SystemClock.uptimeMillis();
+			}
+
+			listener.onWalletChanged(changes);
+		}
+
+		private void deliver()
+		{
+			final ChangeSet changes;
+
+			synchronized (this)
+			{
+				changes = isEmpty() ? EMPTY : takeChanges();
+			}
+
+			listener.onWalletChanged(changes);
+		}
+
+		private ChangeSet takeChanges()
+		{
+			final ChangeSet changes = new ChangeSet(added, confidenceChanged, removed, full);
+			added = new HashSet<Sha256Hash>();
+			confidenceChanged = new HashSet<Sha256Hash>();
+			removed = new HashSet<Sha256Hash>();
+			full = false;
+
+			return changes;
+		}
+
+		private boolean isEmpty()
+		{
+			return !full && added.isEmpty() && confidenceChanged.isEmpty() && removed.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,739 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.format.DateUtils;
+
+import com.google.zetacoin.core.PeerAddress;
+import com.google.zetacoin.core.ProtocolException;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionConfidence;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.TransactionInput;
+import com.google.zetacoin.core.TransactionOutput;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.wallet.WalletTransaction;
+import com.google.zetacoin.wallet.WalletTransaction.Pool;
+
+import de.schildbach.wallet.WalletChangeDispatcher.ChangeSet;
+
+/**
+ * Append-only journal of wallet changes, so the full protobuf snapshot doesn't need to be rewritten on every change.
+ * Changed transactions are appended (with pool and confidence) about once per second; mere depth changes are not
+ * journaled, as depth follows from the last block seen. Changes are taken from the change sets of the
+ * {@link WalletChangeDispatcher}. The journal is compacted into the snapshot on a background thread once it grows large
+ * or old, when keys are added, after reorganizes and removals, and on {@link #compact()}. Other changes to the wallet are
+ * not journaled, so whoever makes them must call {@link #compact()} afterwards.
+ *
+ * <pre>
+ * record   length (4 bytes), CRC32 of payload (8 bytes), payload
+ * payload  type (1 byte) followed by a transaction or last block seen record
+ * </pre>
+ *
+ * A torn record at the end, as left by a crash during append, ends the replay and is truncated away. Pools, sources and
+ * purposes are written as fixed codes rather than enum ordinals, so the format survives changes to those enums.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletJournal
+{
+	public interface Snapshotter
+	{
+		void saveSnapshot() throws IOException;
+	}
+
+	private static final byte RECORD_TRANSACTION = 1;
+	private static final byte RECORD_LAST_BLOCK_SEEN = 2;
+
+	private static final byte POOL_UNSPENT = 1;
+	private static final byte POOL_SPENT = 2;
+	private static final byte POOL_PENDING = 3;
+	private static final byte POOL_DEAD = 4;
+
+	private static final byte SOURCE_UNKNOWN = 0;
+	private static final byte SOURCE_NETWORK = 1;
+	private static final byte SOURCE_SELF = 2;
+
+	private static final byte PURPOSE_UNKNOWN = 0;
+	private static final byte PURPOSE_USER_PAYMENT = 1;
+	private static final byte PURPOSE_KEY_ROTATION = 2;
+
+	private static final long FLUSH_DELAY_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final long COMPACT_SIZE_THRESHOLD = 512 * 1024;
+	private static final long COMPACT_AGE_THRESHOLD_MS = DateUtils.HOUR_IN_MILLIS;
+
+	private final Wallet wallet;
+	private final File file;
+	private final Snapshotter snapshotter;
+	@CheckForNull
+	private final Handler handler;
+
+	private final Set<Sha256Hash> dirty = Collections.newSetFromMap(new ConcurrentHashMap<Sha256Hash, Boolean>());
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+	// guarded by this
+	private final Map<Sha256Hash, String> journaledStates = new HashMap<Sha256Hash, String>();
+	private Sha256Hash journaledLastBlockSeen;
+	private long lastCompactionAt = System.currentTimeMillis();
+
+	private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+	public WalletJournal(@Nonnull final Wallet wallet, @Nonnull final WalletChangeDispatcher walletChangeDispatcher, @Nonnull final File file,
+			@Nonnull final Snapshotter snapshotter)
+	{
+		this(wallet, walletChangeDispatcher, file, snapshotter, backgroundHandler());
+	}
+
+	/**
+	 * Without a handler, nothing is flushed or compacted in the background; the caller does it via {@link #flush()} and
+	 * {@link #compact()}.
+	 */
+	WalletJournal(@Nonnull final Wallet wallet, @Nonnull final WalletChangeDispatcher walletChangeDispatcher, @Nonnull final File file,
+			@Nonnull final Snapshotter snapshotter, @Nullable final Handler handler)
+	{
+		this.wallet = wallet;
+		this.file = file;
+		this.snapshotter = snapshotter;
+		this.handler = handler;
+
+		walletChangeDispatcher.addImmediateListener(walletChangeListener);
+	}
+
+	private static Handler backgroundHandler()
+	{
+		final HandlerThread thread = new HandlerThread("wallet journal", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		return new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Writes a fresh snapshot and empties the journal. Blocks until done.
+	 */
+	public synchronized void compact() throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		// changes racing with the snapshot stay in the dirty set; replaying them again later is harmless
+		snapshotter.saveSnapshot();
+		new FileOutputStream(file).close();
+		lastCompactionAt = System.currentTimeMillis();
+
+		log.info("wallet journal compacted, took " + (lastCompactionAt - start) + "ms");
+	}
+
+	private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
+	{
+		@Override
+		public void onWalletChanged(final ChangeSet changes)
+		{
+			// new keys and removed transactions can't be journaled; a reorganize touches too many transactions
+			if (changes.isFull() || !changes.getRemoved().isEmpty())
+				scheduleCompaction();
+
+			markDirty(changes.getAdded());
+			markDirty(changes.getConfidenceChanged());
+
+			// also for the last block seen
+			scheduleFlush();
+		}
+	};
+
+	private void markDirty(final Set<Sha256Hash> hashes)
+	{
+		for (final Sha256Hash hash : hashes)
+		{
+			dirty.add(hash);
+
+			// the wallet moves spent (or, if the spend dies, unspent again) parents between pools without an event of their own
+			final Transaction tx = wallet.getTransaction(hash);
+			if (tx != null)
+				for (final TransactionInput input : tx.getInputs())
+					dirty.add(input.getOutpoint().getHash());
+		}
+	}
+
+	private void scheduleFlush()
+	{
+		if (handler != null && flushScheduled.compareAndSet(false, true))
+			handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+	}
+
+	private void scheduleCompaction()
+	{
+		if (handler == null)
+			return;
+
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					compact();
+				}
+				catch (final IOException x)
+				{
+					log.error("problem compacting wallet journal", x);
+				}
+			}
+		});
+	}
+
+	private final Runnable flushRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flushScheduled.set(false);
+
+			try
+			{
+				flush();
+			}
+			catch (final IOException x)
+			{
+				log.error("problem writing wallet journal", x);
+			}
+		}
+	};
+
+	/**
+	 * Appends records for all changes not yet journaled.
+	 */
+	synchronized void flush() throws IOException
+	{
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		int numRecords = 0;
+
+		for (final Sha256Hash hash : dirty)
+		{
+			dirty.remove(hash);
+
+			// hashes of foreign parents are dirty as well, they are not in the wallet
+			final Transaction tx = wallet.getTransaction(hash);
+			if (tx == null)
+				continue;
+
+			final WalletTransaction wtx = new WalletTransaction(pool(tx, wallet), tx);
+			final String state = state(wtx);
+			if (state.equals(journaledStates.get(hash)))
+				continue;
+
+			writeRecord(records, transactionPayload(wtx));
+			journaledStates.put(hash, state);
+			numRecords++;
+		}
+
+		final Sha256Hash lastBlockSeen = wallet.getLastBlockSeenHash();
+		if (lastBlockSeen != null && !lastBlockSeen.equals(journaledLastBlockSeen))
+		{
+			writeRecord(records, lastBlockSeenPayload(lastBlockSeen, wallet.getLastBlockSeenHeight(), wallet.getLastBlockSeenTimeSecs()));
+			journaledLastBlockSeen = lastBlockSeen;
+			numRecords++;
+		}
+
+		if (numRecords > 0)
+		{
+			final FileOutputStream fos = new FileOutputStream(file, true);
+			try
+			{
+				records.writeTo(fos);
+				fos.getFD().sync();
+			}
+			finally
+			{
+				fos.close();
+			}
+
+			log.debug("appended " + numRecords + " records to wallet journal");
+		}
+
+		if (file.length() > COMPACT_SIZE_THRESHOLD
+				|| (file.length() > 0 && System.currentTimeMillis() - lastCompactionAt > COMPACT_AGE_THRESHOLD_MS))
+			compact();
+	}
+
+	// same rules the wallet keeps its pools by, and checks in isConsistent()
+	private static Pool pool(final Transaction tx, final Wallet wallet)
+	{
+		final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+		if (confidenceType == ConfidenceType.DEAD)
+			return Pool.DEAD;
+		else if (confidenceType == ConfidenceType.BUILDING)
+			return tx.isEveryOwnedOutputSpent(wallet) ? Pool.SPENT : Pool.UNSPENT;
+		else
+			return Pool.PENDING;
+	}
+
+	// everything journaled except depth
+	private static String state(final WalletTransaction wtx)
+	{
+		final Transaction tx = wtx.getTransaction();
+		final TransactionConfidence confidence = tx.getConfidence();
+		final ConfidenceType confidenceType = confidence.getConfidenceType();
+		final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+		final Transaction overridingTx = confidence.getOverridingTransaction();
+
+		return wtx.getPool() + "/" + confidenceType + "/" + (confidenceType == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1)
+				+ "/" + (appearsIn != null ? appearsIn.size() : 0) + "/" + tx.getPurpose() + "/" + confidence.getSource() + "/"
+				+ confidence.numBroadcastPeers() + "/" + (overridingTx != null ? overridingTx.getHash() : null);
+	}
+
+	static byte[] transactionPayload(@Nonnull final WalletTransaction wtx) throws IOException
+	{
+		final Transaction tx = wtx.getTransaction();
+		final TransactionConfidence confidence = tx.getConfidence();
+		final ConfidenceType confidenceType = confidence.getConfidenceType();
+		final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+		final Transaction overridingTx = confidence.getOverridingTransaction();
+
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final DataOutputStream os = new DataOutputStream(payload);
+		os.writeByte(RECORD_TRANSACTION);
+		os.writeByte(poolCode(wtx.getPool()));
+		os.writeInt(confidenceType.getValue());
+		os.writeInt(confidenceType == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1);
+		os.writeInt(confidenceType == ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0);
+		os.writeByte(sourceCode(confidence.getSource()));
+		os.writeBoolean(overridingTx != null);
+		if (overridingTx != null)
+			os.write(overridingTx.getHash().getBytes());
+		final List<PeerAddress> broadcastBy = new ArrayList<PeerAddress>();
+		for (final ListIterator<PeerAddress> i = confidence.getBroadcastBy(); i.hasNext();)
+			broadcastBy.add(i.next());
+		os.writeInt(broadcastBy.size());
+		for (final PeerAddress address : broadcastBy)
+		{
+			final byte[] ip = address.getAddr().getAddress();
+			os.writeByte(ip.length);
+			os.write(ip);
+			os.writeInt(address.getPort());
+			os.writeLong(address.getServices().longValue());
+		}
+		os.writeLong(tx.getUpdateTime().getTime());
+		os.writeByte(purposeCode(tx.getPurpose()));
+		os.writeInt(appearsIn != null ? appearsIn.size() : 0);
+		if (appearsIn != null)
+		{
+			for (final Map.Entry<Sha256Hash, Integer> entry : appearsIn.entrySet())
+			{
+				os.write(entry.getKey().getBytes());
+				os.writeInt(entry.getValue());
+			}
+		}
+		final byte[] txBytes = tx.bitcoinSerialize();
+		os.writeInt(txBytes.length);
+		os.write(txBytes);
+		os.close();
+
+		return payload.toByteArray();
+	}
+
+	static byte[] lastBlockSeenPayload(@Nonnull final Sha256Hash hash, final int height, final long timeSecs) throws IOException
+	{
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final DataOutputStream os = new DataOutputStream(payload);
+		os.writeByte(RECORD_LAST_BLOCK_SEEN);
+		os.write(hash.getBytes());
+		os.writeInt(height);
+		os.writeLong(timeSecs);
+		os.close();
+
+		return payload.toByteArray();
+	}
+
+	private static byte poolCode(final Pool pool)
+	{
+		switch (pool)
+		{
+			case UNSPENT:
+				return POOL_UNSPENT;
+			case SPENT:
+				return POOL_SPENT;
+			case PENDING:
+				return POOL_PENDING;
+			case DEAD:
+				return POOL_DEAD;
+			default:
+				throw new IllegalArgumentException("cannot journal pool: " + pool);
+		}
+	}
+
+	private static Pool pool(final byte code)
+	{
+		switch (code)
+		{
+			case POOL_UNSPENT:
+				return Pool.UNSPENT;
+			case POOL_SPENT:
+				return Pool.SPENT;
+			case POOL_PENDING:
+				return Pool.PENDING;
+			case POOL_DEAD:
+				return Pool.DEAD;
+			default:
+				throw new IllegalArgumentException("unknown pool code: " + code);
+		}
+	}
+
+	private static byte sourceCode(final TransactionConfidence.Source source)
+	{
+		switch (source)
+		{
+			case NETWORK:
+				return SOURCE_NETWORK;
+			case SELF:
+				return SOURCE_SELF;
+			default:
+				return SOURCE_UNKNOWN;
+		}
+	}
+
+	private static TransactionConfidence.Source source(final byte code)
+	{
+		switch (code)
+		{
+			case SOURCE_UNKNOWN:
+				return TransactionConfidence.Source.UNKNOWN;
+			case SOURCE_NETWORK:
+				return TransactionConfidence.Source.NETWORK;
+			case SOURCE_SELF:
+				return TransactionConfidence.Source.SELF;
+			default:
+				throw new IllegalArgumentException("unknown source code: " + code);
+		}
+	}
+
+	private static byte purposeCode(final Transaction.Purpose purpose)
+	{
+		switch (purpose)
+		{
+			case USER_PAYMENT:
+				return PURPOSE_USER_PAYMENT;
+			case KEY_ROTATION:
+				return PURPOSE_KEY_ROTATION;
+			default:
+				return PURPOSE_UNKNOWN;
+		}
+	}
+
+	private static Transaction.Purpose purpose(final byte code)
+	{
+		switch (code)
+		{
+			case PURPOSE_UNKNOWN:
+				return Transaction.Purpose.UNKNOWN;
+			case PURPOSE_USER_PAYMENT:
+				return Transaction.Purpose.USER_PAYMENT;
+			case PURPOSE_KEY_ROTATION:
+				return Transaction.Purpose.KEY_ROTATION;
+			default:
+				throw new IllegalArgumentException("unknown purpose code: " + code);
+		}
+	}
+
+	static void writeRecord(@Nonnull final ByteArrayOutputStream records, @Nonnull final byte[] payload) throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		final DataOutputStream os = new DataOutputStream(records);
+		os.writeInt(payload.length);
+		os.writeLong(crc.getValue());
+		os.write(payload);
+		os.flush();
+	}
+
+	private static final class TransactionRecord
+	{
+		public final Pool pool;
+		public final Transaction tx;
+		public final int depth;
+		@CheckForNull
+		public final Sha256Hash overridingTxHash;
+
+		public TransactionRecord(final Pool pool, final Transaction tx, final int depth, @Nullable final Sha256Hash overridingTxHash)
+		{
+			this.pool = pool;
+			this.tx = tx;
+			this.depth = depth;
+			this.overridingTxHash = overridingTxHash;
+		}
+	}
+
+	/**
+	 * Applies the journal on top of a freshly loaded snapshot. Journaled transactions replace their snapshot version,
+	 * then all spends are reconnected.
+	 *
+	 * @return number of transactions replayed
+	 */
+	public static int replay(@Nonnull final Wallet wallet, @Nonnull final File file) throws IOException
+	{
+		if (!file.exists() || file.length() == 0)
+			return 0;
+
+		final long start = System.currentTimeMillis();
+
+		final Map<Sha256Hash, TransactionRecord> records = new LinkedHashMap<Sha256Hash, TransactionRecord>();
+		Sha256Hash lastBlockSeenHash = null;
+		int lastBlockSeenHeight = -1;
+		long lastBlockSeenTimeSecs = 0;
+
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long validLength = 0;
+
+		try
+		{
+			while (true)
+			{
+				final byte[] payload;
+				try
+				{
+					final int length = is.readInt();
+					final long checksum = is.readLong();
+					if (length <= 0 || length > file.length())
+						break;
+					payload = new byte[length];
+					is.readFully(payload);
+
+					final CRC32 crc = new CRC32();
+					crc.update(payload);
+					if (crc.getValue() != checksum)
+						break;
+				}
+				catch (final EOFException x)
+				{
+					break;
+				}
+
+				try
+				{
+					final DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+					final byte type = record.readByte();
+
+					if (type == RECORD_TRANSACTION)
+					{
+						final Pool pool = pool(record.readByte());
+						final ConfidenceType confidenceType = ConfidenceType.valueOf(record.readInt());
+						final int appearedAtHeight = record.readInt();
+						final int depth = record.readInt();
+						final TransactionConfidence.Source source = source(record.readByte());
+						Sha256Hash overridingTxHash = null;
+						if (record.readBoolean())
+						{
+							final byte[] overridingTxHashBytes = new byte[32];
+							record.readFully(overridingTxHashBytes);
+							overridingTxHash = new Sha256Hash(overridingTxHashBytes);
+						}
+						final int numBroadcastBy = record.readInt();
+						final List<PeerAddress> broadcastBy = new ArrayList<PeerAddress>(numBroadcastBy);
+						for (int i = 0; i < numBroadcastBy; i++)
+						{
+							final byte[] ip = new byte[record.readUnsignedByte()];
+							record.readFully(ip);
+							final PeerAddress address = new PeerAddress(InetAddress.getByAddress(ip), record.readInt());
+							address.setServices(BigInteger.valueOf(record.readLong()));
+							broadcastBy.add(address);
+						}
+						final long updateTime = record.readLong();
+						final Transaction.Purpose purpose = purpose(record.readByte());
+						final int numAppearsIn = record.readInt();
+						final Map<Sha256Hash, Integer> appearsIn = new LinkedHashMap<Sha256Hash, Integer>();
+						for (int i = 0; i < numAppearsIn; i++)
+						{
+							final byte[] blockHash = new byte[32];
+							record.readFully(blockHash);
+							appearsIn.put(new Sha256Hash(blockHash), record.readInt());
+						}
+						final byte[] txBytes = new byte[record.readInt()];
+						record.readFully(txBytes);
+
+						final Transaction tx = new Transaction(wallet.getParams(), txBytes);
+						tx.setUpdateTime(new Date(updateTime));
+						tx.setPurpose(purpose);
+						for (final Map.Entry<Sha256Hash, Integer> entry : appearsIn.entrySet())
+							tx.addBlockAppearance(entry.getKey(), entry.getValue());
+
+						final TransactionConfidence confidence = tx.getConfidence();
+						if (confidenceType == ConfidenceType.BUILDING)
+							confidence.setAppearedAtChainHeight(appearedAtHeight);
+						else
+							confidence.setConfidenceType(confidenceType);
+						confidence.setSource(source);
+						for (final PeerAddress address : broadcastBy)
+							confidence.markBroadcastBy(address);
+
+						records.put(tx.getHash(), new TransactionRecord(pool, tx, depth, overridingTxHash));
+					}
+					else if (type == RECORD_LAST_BLOCK_SEEN)
+					{
+						final byte[] blockHash = new byte[32];
+						record.readFully(blockHash);
+						lastBlockSeenHash = new Sha256Hash(blockHash);
+						lastBlockSeenHeight = record.readInt();
+						lastBlockSeenTimeSecs = record.readLong();
+					}
+					else
+					{
+						break;
+					}
+				}
+				catch (final ProtocolException x)
+				{
+					log.warn("unparseable record in wallet journal", x);
+					break;
+				}
+				catch (final RuntimeException x)
+				{
+					log.warn("unparseable record in wallet journal", x);
+					break;
+				}
+
+				validLength += 12 + payload.length;
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+
+		if (validLength < file.length())
+		{
+			log.warn("wallet journal has " + (file.length() - validLength) + " bytes of torn records at the end, truncating");
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(validLength);
+			raf.close();
+		}
+
+		if (records.isEmpty() && lastBlockSeenHash == null)
+			return 0;
+
+		final int bestHeight = lastBlockSeenHash != null ? lastBlockSeenHeight : wallet.getLastBlockSeenHeight();
+
+		// merge: journaled transactions replace their snapshot version
+		final Map<Sha256Hash, WalletTransaction> merged = new LinkedHashMap<Sha256Hash, WalletTransaction>();
+		for (final WalletTransaction wtx : wallet.getWalletTransactions())
+			merged.put(wtx.getTransaction().getHash(), wtx);
+		for (final TransactionRecord record : records.values())
+		{
+			final TransactionConfidence confidence = record.tx.getConfidence();
+			if (confidence.getConfidenceType() == ConfidenceType.BUILDING)
+				confidence.setDepthInBlocks(bestHeight >= 0 ? Math.max(1, bestHeight - confidence.getAppearedAtChainHeight() + 1)
+						: record.depth);
+
+			merged.put(record.tx.getHash(), new WalletTransaction(record.pool, record.tx));
+		}
+
+		// overriding transactions are only known once everything has been read
+		for (final TransactionRecord record : records.values())
+		{
+			if (record.overridingTxHash == null)
+				continue;
+
+			final WalletTransaction overridingWtx = merged.get(record.overridingTxHash);
+			if (overridingWtx != null)
+				record.tx.getConfidence().setOverridingTransaction(overridingWtx.getTransaction());
+			else
+				log.warn("overriding transaction " + record.overridingTxHash + " of " + record.tx.getHash() + " not in wallet");
+		}
+
+		// depth of snapshot transactions
+		if (lastBlockSeenHash != null)
+		{
+			for (final WalletTransaction wtx : merged.values())
+			{
+				final TransactionConfidence confidence = wtx.getTransaction().getConfidence();
+				if (confidence.getConfidenceType() == ConfidenceType.BUILDING)
+					confidence.setDepthInBlocks(Math.max(1, bestHeight - confidence.getAppearedAtChainHeight() + 1));
+			}
+		}
+
+		wallet.clearTransactions(0);
+
+		for (final WalletTransaction wtx : merged.values())
+			for (final TransactionOutput output : wtx.getTransaction().getOutputs())
+				if (output.getSpentBy() != null)
+					output.markAsUnspent();
+
+		for (final WalletTransaction wtx : merged.values())
+			wallet.addWalletTransaction(wtx);
+
+		// reconnect spends, dead transactions don't spend anything
+		for (final WalletTransaction wtx : merged.values())
+		{
+			if (wtx.getPool() == Pool.DEAD)
+				continue;
+
+			for (final TransactionInput input : wtx.getTransaction().getInputs())
+			{
+				final WalletTransaction from = merged.get(input.getOutpoint().getHash());
+				if (from != null && from.getPool() != Pool.DEAD)
+					input.connect(from.getTransaction(), TransactionInput.ConnectMode.ABORT_ON_CONFLICT);
+			}
+		}
+
+		if (lastBlockSeenHash != null)
+		{
+			wallet.setLastBlockSeenHash(lastBlockSeenHash);
+			wallet.setLastBlockSeenHeight(lastBlockSeenHeight);
+			wallet.setLastBlockSeenTimeSecs(lastBlockSeenTimeSecs);
+		}
+
+		log.info("replayed " + records.size() + " transactions from wallet journal, took " + (System.currentTimeMillis() - start) + "ms");
+
+		return records.size();
+	}
+}
@@ -83,7 +83,6 @@ public final class AcceptBluetoothService extends Service
 		application = (WalletApplication) getApplication();
 
 		final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-		final Wallet wallet = application.getWallet();
 
 		final PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
 		wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, getPackageName() + " bluetooth transaction submission");
@@ -101,6 +100,9 @@ public final class AcceptBluetoothService extends Service
 					final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS, msg);
 					log.info("tx " + tx.getHashAsString() + " arrived via blueooth");
 
+					// on the accept thread, so waiting for the wallet to load is fine
+					final Wallet wallet = application.getWallet();
+
 					try
 					{
 						if (wallet.isTransactionRelevant(tx))
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zetacoin.core.Block;
+import com.google.zetacoin.core.NetworkParameters;
+import com.google.zetacoin.core.ProtocolException;
+import com.google.zetacoin.core.StoredBlock;
+import com.google.zetacoin.core.VerificationException;
+import com.google.zetacoin.store.BlockStore;
+import com.google.zetacoin.store.BlockStoreException;
+
+/**
+ * Reads checkpoints in the binary format written by the checkpoint-generator module.
+ *
+ * <pre>
+ * magic    8 bytes  "MZC-CKP1"
+ * count    4 bytes  number of records, big endian
+ * records  count * 96 bytes, each a compact serialized StoredBlock, in ascending order of block time
+ * </pre>
+ *
+ * The records have a fixed size, so the file can be memory-mapped and binary searched by block time without parsing.
+ * The checkpoint-generator module compiles this class too, so it must not depend on Android.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BinaryCheckpoints
+{
+	public static final byte[] MAGIC = "MZC-CKP1".getBytes(Charset.forName("US-ASCII"));
+	public static final int HEADER_SIZE = MAGIC.length + 4;
+	public static final int RECORD_SIZE = StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+	// chain work (12 bytes) precedes the height, the height precedes the header, the time field is at offset 68 within
+	// the header
+	public static final int HEIGHT_OFFSET = 12;
+	public static final int TIME_OFFSET = HEIGHT_OFFSET + 4 + 4 + 32 + 32;
+
+	private final NetworkParameters params;
+	private final ByteBuffer buffer;
+	private final int count;
+
+	private static final Logger log = LoggerFactory.getLogger(BinaryCheckpoints.class);
+
+	private BinaryCheckpoints(@Nonnull final NetworkParameters params, @Nonnull final ByteBuffer buffer) throws IOException
+	{
+		this.params = params;
+		this.buffer = buffer;
+
+		if (buffer.limit() < HEADER_SIZE)
+			throw new IOException("checkpoints truncated");
+
+		final byte[] magic = new byte[MAGIC.length];
+		buffer.position(0);
+		buffer.get(magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("not a binary checkpoints file");
+
+		count = buffer.order(ByteOrder.BIG_ENDIAN).getInt(MAGIC.length);
+		if (count < 0 || buffer.limit() < HEADER_SIZE + (long) count * RECORD_SIZE)
+			throw new IOException("checkpoints truncated, expected " + count + " records");
+	}
+
+	public static BinaryCheckpoints map(@Nonnull final NetworkParameters params, @Nonnull final FileChannel channel, final long offset,
+			final long length) throws IOException
+	{
+		return new BinaryCheckpoints(params, channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+	}
+
+	public static BinaryCheckpoints read(@Nonnull final NetworkParameters params, @Nonnull final InputStream is) throws IOException
+	{
+		final byte[] header = new byte[HEADER_SIZE];
+		readFully(is, header, 0, header.length);
+		final int count = ByteBuffer.wrap(header).getInt(MAGIC.length);
+		if (count < 0 || count > Integer.MAX_VALUE / RECORD_SIZE - 1)
+			throw new IOException("bad checkpoints count: " + count);
+
+		final byte[] bytes = new byte[HEADER_SIZE + count * RECORD_SIZE];
+		System.arraycopy(header, 0, bytes, 0, HEADER_SIZE);
+		readFully(is, bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+
+		return new BinaryCheckpoints(params, ByteBuffer.wrap(bytes));
+	}
+
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * @return the last checkpoint with a block time before the given time, or the genesis block if there is none
+	 */
+	public StoredBlock getCheckpointBefore(final long timeSecs) throws IOException
+	{
+		int low = 0;
+		int high = count - 1;
+		int found = -1;
+
+		while (low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+
+			if (timeAt(mid) < timeSecs)
+			{
+				found = mid;
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+
+		if (found == -1)
+		{
+			try
+			{
+				final Block genesis = params.getGenesisBlock().cloneAsHeader();
+				return new StoredBlock(genesis, genesis.getWork(), 0);
+			}
+			catch (final VerificationException x)
+			{
+				throw new RuntimeException(x); // cannot happen
+			}
+		}
+
+		return recordAt(found);
+	}
+
+	private long timeAt(final int index)
+	{
+		final int offset = HEADER_SIZE + index * RECORD_SIZE + TIME_OFFSET;
+
+		// block header fields are little endian
+		return (buffer.get(offset) & 0xffl) | (buffer.get(offset + 1) & 0xffl) << 8 | (buffer.get(offset + 2) & 0xffl) << 16
+				| (buffer.get(offset + 3) & 0xffl) << 24;
+	}
+
+	private StoredBlock recordAt(final int index) throws IOException
+	{
+		final ByteBuffer record = buffer.duplicate();
+		record.order(ByteOrder.BIG_ENDIAN);
+		record.position(HEADER_SIZE + index * RECORD_SIZE);
+
+		try
+		{
+			return StoredBlock.deserializeCompact(params, record);
+		}
+		catch (final ProtocolException x)
+		{
+			throw new IOException("corrupt checkpoint at index " + index + ": " + x.getMessage());
+		}
+	}
+
+	/**
+	 * Puts the checkpoint best suited for a wallet created at the given time into the block store and makes it the chain
+	 * head. Like {@link com.google.zetacoin.core.CheckpointManager#checkpoint}, it backs off a week to allow for clock
+	 * drift.
+	 */
+	public static void checkpoint(@Nonnull final BinaryCheckpoints checkpoints, @Nonnull final BlockStore store, final long timeSecs)
+			throws IOException, BlockStoreException
+	{
+		final long time = timeSecs - 60 * 60 * 24 * 7;
+
+		final StoredBlock checkpoint = checkpoints.getCheckpointBefore(time);
+		store.put(checkpoint);
+		store.setChainHead(checkpoint);
+
+		log.info("checkpointed block store at height " + checkpoint.getHeight() + " out of " + checkpoints.size() + " checkpoints");
+	}
+
+	private static void readFully(final InputStream is, final byte[] bytes, int offset, int length) throws IOException
+	{
+		while (length > 0)
+		{
+			final int read = is.read(bytes, offset, length);
+			if (read == -1)
+				throw new IOException("checkpoints truncated");
+
+			offset += read;
+			length -= read;
+		}
+	}
+}
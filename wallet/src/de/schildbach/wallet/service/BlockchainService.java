@@ -20,6 +20,7 @@ package de.schildbach.wallet.service;
 import java.util.List;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 
 import com.google.zetacoin.core.Peer;
 import com.google.zetacoin.core.StoredBlock;
@@ -52,4 +53,26 @@ public interface BlockchainService
 	List<Peer> getConnectedPeers();
 
 	List<StoredBlock> getRecentBlocks(int maxBlocks);
+
+	/**
+	 * @return consecutive blocks of the best chain, starting at the given height and going backwards
+	 */
+	List<StoredBlock> getBlocks(int fromHeight, int maxBlocks);
+
+	/**
+	 * @return stats of the queue that applies downloaded blocks to the wallet, or null if the blockchain is not set up yet
+	 */
+	@CheckForNull
+	WalletQueueStats getWalletQueueStats();
+
+	/**
+	 * @return score of a connected peer, or null if the peer is unknown
+	 */
+	@CheckForNull
+	PeerScore getPeerScore(@Nonnull Peer peer);
+
+	/**
+	 * @return per second sync metrics of the last minutes
+	 */
+	SyncStats getSyncStats();
 }
@@ -28,6 +28,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.content.res.AssetFileDescriptor;
 import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Binder;
@@ -40,11 +41,16 @@ import android.support.v4.app.NotificationCompat;
 import android.text.format.DateUtils;
 
 import com.google.zetacoin.core.AbstractPeerEventListener;
+import com.google.zetacoin.core.AbstractWalletEventListener;
 import com.google.zetacoin.core.Address;
+import com.google.zetacoin.core.AddressMessage;
 import com.google.zetacoin.core.Block;
 import com.google.zetacoin.core.BlockChain;
-import com.google.zetacoin.core.CheckpointManager;
+import com.google.zetacoin.core.FilteredBlock;
+import com.google.zetacoin.core.GetAddrMessage;
+import com.google.zetacoin.core.Message;
 import com.google.zetacoin.core.Peer;
+import com.google.zetacoin.core.PeerAddress;
 import com.google.zetacoin.core.PeerEventListener;
 import com.google.zetacoin.core.PeerGroup;
 import com.google.zetacoin.core.ScriptException;
@@ -52,21 +58,23 @@ import com.google.zetacoin.core.Sha256Hash;
 import com.google.zetacoin.core.StoredBlock;
 import com.google.zetacoin.core.Transaction;
 import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.VerificationException;
 import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.core.Wallet.BalanceType;
 import com.google.zetacoin.core.WalletEventListener;
 import com.google.zetacoin.net.discovery.DnsDiscovery;
 import com.google.zetacoin.net.discovery.PeerDiscovery;
 import com.google.zetacoin.net.discovery.PeerDiscoveryException;
-import com.google.zetacoin.script.Script;
 import com.google.zetacoin.store.BlockStore;
 import com.google.zetacoin.store.BlockStoreException;
 import com.google.zetacoin.store.SPVBlockStore;
+import com.google.zetacoin.utils.Threading;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
@@ -77,21 +85,21 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.BalanceSnapshot;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.WalletBalanceWidgetProvider;
+import de.schildbach.wallet.WalletChangeDispatcher;
+import de.schildbach.wallet.service.SyncTelemetry.Metric;
 import de.schildbach.wallet.ui.WalletActivity;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.GenericUtils;
-import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
 import de.schildbach.wallet.util.WalletUtils;
 import cc.mazacoin.wallet.R;
 
@@ -103,11 +111,17 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private WalletApplication application;
 	private SharedPreferences prefs;
 
-	private BlockStore blockStore;
+	private PeerAddressStore peerAddressStore;
+	// set up once the wallet is loaded
+	private HeightIndexedBlockStore blockStore;
 	private File blockChainFile;
 	private BlockChain blockChain;
+	private WalletBlockPipeline walletBlockPipeline;
+	private final SyncTelemetry telemetry = new SyncTelemetry(TELEMETRY_CAPACITY_SECS);
+	private PeerScorer peerScorer;
 	@CheckForNull
 	private PeerGroup peerGroup;
+	private boolean destroyed = false;
 
 	private final Handler handler = new Handler();
 	private final Handler delayHandler = new Handler();
@@ -121,31 +135,36 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private int notificationCount = 0;
 	private BigInteger notificationAccumulatedAmount = BigInteger.ZERO;
 	private final List<Address> notificationAddresses = new LinkedList<Address>();
-	private AtomicInteger transactionsReceived = new AtomicInteger();
 	private int bestChainHeightEver;
 	private long serviceCreatedAt;
 	private boolean resetBlockchainOnShutdown = false;
 
-	private static final int MIN_COLLECT_HISTORY = 2;
+	private static final int MIN_COLLECT_HISTORY_MIN = 2;
 	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
 	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
-	private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
+	private static final int TELEMETRY_CAPACITY_SECS = 10 * 60;
 	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int WALLET_PIPELINE_CAPACITY = 500;
+	private static final int MESSAGE_HEADER_SIZE = 24;
+	private static final long PEER_SCORING_INTERVAL_MS = 10 * DateUtils.SECOND_IN_MILLIS;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
-	private final WalletEventListener walletEventListener = new ThrottlingWalletChangeListener(APPWIDGET_THROTTLE_MS)
+	private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
 	{
 		@Override
-		public void onThrottledWalletChanged()
+		public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
 		{
 			notifyWidgets();
 		}
+	};
 
+	private final WalletEventListener walletEventListener = new AbstractWalletEventListener()
+	{
 		@Override
 		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
 		{
-			transactionsReceived.incrementAndGet();
+			telemetry.add(Metric.WALLET_TRANSACTIONS, 1);
 
 			final int bestChainHeight = blockChain.getBestChainHeight();
 
@@ -178,14 +197,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
 		{
-			transactionsReceived.incrementAndGet();
+			telemetry.add(Metric.WALLET_TRANSACTIONS, 1);
 		}
-
-        @Override
-        public void onScriptsAdded(Wallet wallet, List<Script> scripts) {
-
-        }
-    };
+	};
 
 	private void notifyCoinsReceived(@Nullable final Address from, @Nonnull final BigInteger amount)
 	{
@@ -220,7 +234,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				text.append(", ");
 
 			final String addressStr = address.toString();
-			final String label = AddressBookProvider.resolveLabel(getApplicationContext(), addressStr);
+			final String label = application.getAddressLabelIndex().resolveLabel(addressStr);
 			text.append(label != null ? label : addressStr);
 		}
 
@@ -344,6 +358,93 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		};
 	};
 
+	private final PeerEventListener telemetryListener = new AbstractPeerEventListener()
+	{
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			if (m instanceof FilteredBlock)
+			{
+				telemetry.add(Metric.BLOCKS_RECEIVED, 1);
+
+				try
+				{
+					telemetry.add(Metric.FILTERED_TRANSACTIONS, ((FilteredBlock) m).getTransactionHashes().size());
+				}
+				catch (final VerificationException x)
+				{
+					// swallow, the chain will reject the block
+				}
+			}
+			else if (m instanceof Block)
+			{
+				telemetry.add(Metric.BLOCKS_RECEIVED, 1);
+			}
+
+			try
+			{
+				telemetry.addPeerBytesIn(peer.getAddress().getAddr().getHostAddress(), MESSAGE_HEADER_SIZE + m.getMessageSize());
+			}
+			catch (final IllegalStateException x)
+			{
+				// swallow, length unknown
+			}
+
+			return m;
+		}
+
+		@Override
+		public void onPeerDisconnected(final Peer peer, final int peerCount)
+		{
+			telemetry.removePeer(peer.getAddress().getAddr().getHostAddress());
+		}
+	};
+
+	private final PeerEventListener peerAddressListener = new AbstractPeerEventListener()
+	{
+		@Override
+		public void onPeerConnected(final Peer peer, final int peerCount)
+		{
+			peerAddressStore.connected(peer.getAddress().toSocketAddress());
+
+			// ask for more addresses while the store is still filling up
+			if (peerAddressStore.size() < Constants.PEER_ADDRESSES_MAX / 2)
+				peer.sendMessage(new GetAddrMessage(Constants.NETWORK_PARAMETERS));
+		}
+
+		@Override
+		public void onPeerDisconnected(final Peer peer, final int peerCount)
+		{
+			// no version message means the connection attempt failed before the handshake
+			if (peer.getPeerVersionMessage() == null)
+				peerAddressStore.failed(peer.getAddress().toSocketAddress());
+		}
+
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			if (m instanceof AddressMessage)
+				for (final PeerAddress address : ((AddressMessage) m).getAddresses())
+					peerAddressStore.seen(address.toSocketAddress(), address.getTime());
+
+			return m;
+		}
+	};
+
+	private final Runnable peerScoringRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			if (peerGroup == null)
+				return;
+
+			peerScorer.evaluate(peerGroup, blockChain.getBestChainHeight());
+
+			handler.postDelayed(this, PEER_SCORING_INTERVAL_MS);
+		}
+	};
+
 	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
 	{
 		private boolean hasConnectivity;
@@ -383,26 +484,38 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			final Wallet wallet = application.getWallet();
 			final boolean hasEverything = hasConnectivity && hasStorage;
 
-			if (hasEverything && peerGroup == null)
+			if (hasEverything && peerGroup == null && !walletBlockPipeline.isFailed())
 			{
 				log.debug("acquiring wakelock");
 				wakeLock.acquire();
 
-				// consistency check
+				// consistency check, only meaningful once the wallet has caught up with the blockchain
 				final int walletLastBlockSeenHeight = wallet.getLastBlockSeenHeight();
 				final int bestChainHeight = blockChain.getBestChainHeight();
-				/*if (walletLastBlockSeenHeight != -1 && walletLastBlockSeenHeight != bestChainHeight)
+				if (walletBlockPipeline.isIdle() && walletLastBlockSeenHeight != -1 && walletLastBlockSeenHeight != bestChainHeight)
 				{
 					final String message = "wallet/blockchain out of sync: " + walletLastBlockSeenHeight + "/" + bestChainHeight;
 					log.error(message);
 					CrashReporter.saveBackgroundTrace(new RuntimeException(message), application.packageInfo());
-				}*/
+				}
 
 				log.info("starting peergroup");
-				peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain);
+				peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain)
+				{
+					@Override
+					protected Peer selectDownloadPeer(final List<Peer> peers)
+					{
+						final Peer peer = peerScorer.selectDownloadPeer(peers, getMostCommonChainHeight());
+
+						return peer != null ? peer : super.selectDownloadPeer(peers);
+					}
+				};
 				peerGroup.addWallet(wallet);
 				peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
 				peerGroup.addEventListener(peerConnectivityListener);
+				peerGroup.addEventListener(telemetryListener);
+				peerGroup.addEventListener(peerAddressListener);
+				peerGroup.addEventListener(peerScorer);
 
 				final int maxConnectedPeers = application.maxConnectedPeers();
 
@@ -412,6 +525,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				final boolean connectTrustedPeerOnly = hasTrustedPeer && prefs.getBoolean(Constants.PREFS_KEY_TRUSTED_PEER_ONLY, false);
 				peerGroup.setMaxConnections(connectTrustedPeerOnly ? 1 : maxConnectedPeers);
 
+				peerAddressStore.reset();
+
 				peerGroup.addPeerDiscovery(new PeerDiscovery()
 				{
 					private final PeerDiscovery normalPeerDiscovery = new DnsDiscovery(Constants.NETWORK_PARAMETERS);
@@ -436,7 +551,35 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 						}
 
 						if (!connectTrustedPeerOnly)
-							peers.addAll(Arrays.asList(normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit)));
+						{
+							// peergroup asks again when all peers handed out so far failed, so DNS is only hit when the
+							// proven peers are exhausted
+							final List<InetSocketAddress> cachedPeers = peerAddressStore.next(maxConnectedPeers * 2, true);
+							if (!cachedPeers.isEmpty())
+							{
+								log.info("using " + cachedPeers.size() + " cached peer addresses");
+								peers.addAll(cachedPeers);
+							}
+							else
+							{
+								// learned addresses may all be stale, so they never replace the seeds
+								final List<InetSocketAddress> learnedPeers = peerAddressStore.next(maxConnectedPeers, false);
+
+								try
+								{
+									peers.addAll(Arrays.asList(normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit)));
+								}
+								catch (final PeerDiscoveryException x)
+								{
+									if (learnedPeers.isEmpty())
+										throw x;
+
+									log.info("problem querying seeds, using " + learnedPeers.size() + " learned peer addresses only", x);
+								}
+
+								peers.addAll(learnedPeers);
+							}
+						}
 
 						// workaround because PeerGroup will shuffle peers
 						if (needsTrimPeersWorkaround)
@@ -456,17 +599,12 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				// start peergroup
 				peerGroup.start();
 				peerGroup.startBlockChainDownload(blockchainDownloadListener);
+
+				handler.postDelayed(peerScoringRunnable, PEER_SCORING_INTERVAL_MS);
 			}
 			else if (!hasEverything && peerGroup != null)
 			{
-				log.info("stopping peergroup");
-				peerGroup.removeEventListener(peerConnectivityListener);
-				peerGroup.removeWallet(wallet);
-				peerGroup.stop();
-				peerGroup = null;
-
-				log.debug("releasing wakelock");
-				wakeLock.release();
+				stopPeerGroup();
 			}
 
 			final int download = (hasConnectivity ? 0 : ACTION_BLOCKCHAIN_STATE_DOWNLOAD_NETWORK_PROBLEM)
@@ -476,84 +614,75 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		}
 	};
 
-	private final static class ActivityHistoryEntry
+	@SuppressLint("Wakelock")
+	private void stopPeerGroup()
 	{
-		public final int numTransactionsReceived;
-		public final int numBlocksDownloaded;
-
-		public ActivityHistoryEntry(final int numTransactionsReceived, final int numBlocksDownloaded)
-		{
-			this.numTransactionsReceived = numTransactionsReceived;
-			this.numBlocksDownloaded = numBlocksDownloaded;
-		}
-
-		@Override
-		public String toString()
-		{
-			return numTransactionsReceived + "/" + numBlocksDownloaded;
-		}
+		log.info("stopping peergroup");
+		peerGroup.removeEventListener(peerConnectivityListener);
+		peerGroup.removeEventListener(telemetryListener);
+		peerGroup.removeEventListener(peerAddressListener);
+		peerGroup.removeEventListener(peerScorer);
+		peerGroup.removeWallet(application.getWallet());
+		peerGroup.stop();
+		peerGroup = null;
+
+		handler.removeCallbacks(peerScoringRunnable);
+		peerAddressStore.save();
+
+		log.debug("releasing wakelock");
+		wakeLock.release();
 	}
 
-	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
+	private final WalletBlockPipeline.FailureListener walletFailureListener = new WalletBlockPipeline.FailureListener()
 	{
-		private int lastChainHeight = 0;
-		private final List<ActivityHistoryEntry> activityHistory = new LinkedList<ActivityHistoryEntry>();
-
 		@Override
-		public void onReceive(final Context context, final Intent intent)
+		public void onWalletFailure(final Exception x)
 		{
-			final int chainHeight = blockChain.getBestChainHeight();
+			CrashReporter.saveBackgroundTrace(x, application.packageInfo());
 
-			if (lastChainHeight > 0)
+			handler.post(new Runnable()
 			{
-				final int numBlocksDownloaded = chainHeight - lastChainHeight;
-				final int numTransactionsReceived = transactionsReceived.getAndSet(0);
-
-				// push history
-				activityHistory.add(0, new ActivityHistoryEntry(numTransactionsReceived, numBlocksDownloaded));
+				@Override
+				public void run()
+				{
+					// the blockchain is ahead of the wallet now, it is rolled back on the next service start
+					log.info("wallet failed to apply block, stopping service");
 
-				// trim
-				while (activityHistory.size() > MAX_HISTORY_SIZE)
-					activityHistory.remove(activityHistory.size() - 1);
+					if (peerGroup != null)
+						stopPeerGroup();
 
-				// print
-				final StringBuilder builder = new StringBuilder();
-				for (final ActivityHistoryEntry entry : activityHistory)
-				{
-					if (builder.length() > 0)
-						builder.append(", ");
-					builder.append(entry);
+					stopSelf();
 				}
-				log.info("History of transactions/blocks: " + builder);
+			});
+		}
+	};
 
-				// determine if block and transaction activity is idling
-				boolean isIdle = false;
-				if (activityHistory.size() >= MIN_COLLECT_HISTORY)
-				{
-					isIdle = true;
-					for (int i = 0; i < activityHistory.size(); i++)
-					{
-						final ActivityHistoryEntry entry = activityHistory.get(i);
-						final boolean blocksActive = entry.numBlocksDownloaded > 0 && i <= IDLE_BLOCK_TIMEOUT_MIN;
-						final boolean transactionsActive = entry.numTransactionsReceived > 0 && i <= IDLE_TRANSACTION_TIMEOUT_MIN;
+	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			final long now = System.currentTimeMillis();
+			final SyncStats stats = telemetry.snapshot(now);
 
-						if (blocksActive || transactionsActive)
-						{
-							isIdle = false;
-							break;
-						}
-					}
-				}
+			log.info("sync stats for last minute: " + stats.sum(Metric.BLOCKS_CONNECTED, 60) + " blocks, "
+					+ stats.sum(Metric.FILTERED_TRANSACTIONS, 60) + " filtered transactions, " + stats.sum(Metric.FALSE_POSITIVES, 60)
+					+ " false positives, " + stats.sum(Metric.WALLET_TRANSACTIONS, 60) + " wallet transactions, "
+					+ stats.sum(Metric.BYTES_IN, 60) + " bytes in");
+
+			// determine if block and transaction activity is idling
+			if (stats.collectedSeconds >= MIN_COLLECT_HISTORY_MIN * 60)
+			{
+				final boolean blocksActive = stats.sum(Metric.BLOCKS_CONNECTED, IDLE_BLOCK_TIMEOUT_MIN * 60) > 0;
+				final boolean transactionsActive = stats.sum(Metric.WALLET_TRANSACTIONS, IDLE_TRANSACTION_TIMEOUT_MIN * 60) > 0;
 
 				// if idling, shutdown service
-				if (isIdle)
+				if (!blocksActive && !transactionsActive)
 				{
 					log.info("idling detected, stopping service");
 					stopSelf();
 				}
 			}
-
-			lastChainHeight = chainHeight;
 		}
 	};
 
@@ -600,7 +729,6 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		application = (WalletApplication) getApplication();
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
-		final Wallet wallet = application.getWallet();
 
 		bestChainHeightEver = prefs.getInt(Constants.PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, 0);
 
@@ -608,37 +736,77 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		sendBroadcastPeerState(0);
 
-		final IntentFilter intentFilter = new IntentFilter();
-		intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
-		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_LOW);
-		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
-		registerReceiver(connectivityReceiver, intentFilter);
+		peerAddressStore = new PeerAddressStore(getFileStreamPath(Constants.PEER_ADDRESSES_FILENAME), Constants.PEER_ADDRESSES_MAX);
+		peerScorer = new PeerScorer(peerAddressStore);
 
 		blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.BLOCKCHAIN_FILENAME);
-		final boolean blockChainFileExists = blockChainFile.exists();
 
-		if (!blockChainFileExists)
+		// when started by the alarm into a cold process, the wallet is still loading
+		application.runWhenWalletLoaded(new Runnable()
 		{
-			log.info("blockchain does not exist, resetting wallet");
+			@Override
+			public void run()
+			{
+				if (!destroyed)
+					onWalletLoaded();
+			}
+		});
+	}
+
+	private void onWalletLoaded()
+	{
+		final Wallet wallet = application.getWallet();
+
+		final File blockStoreDir = blockChainFile.getParentFile();
+		boolean blockChainFileExists = blockChainFile.exists();
 
-			wallet.clearTransactions(0);
-			wallet.setLastBlockSeenHeight(-1); // magic value
-			wallet.setLastBlockSeenHash(null);
+		final File legacyBlockChainFile = new File(blockStoreDir, Constants.BLOCKCHAIN_FILENAME_LEGACY);
+		if (legacyBlockChainFile.exists())
+		{
+			if (!blockChainFileExists)
+			{
+				blockChainFileExists = migrateLegacyBlockChain(legacyBlockChainFile, blockChainFile);
+			}
+			else
+			{
+				log.info("removing legacy blockchain");
+				legacyBlockChainFile.delete();
+			}
 		}
 
 		try
 		{
-			blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile);
+			blockStore = new HeightIndexedBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile, Constants.BLOCKCHAIN_STORE_CAPACITY);
 			blockStore.getChainHead(); // detect corruptions as early as possible
 
+			if (blockChainFileExists && !rollBackToWallet(wallet))
+			{
+				log.info("last block seen by wallet not in blockchain, recreating blockchain");
+
+				blockStore.close();
+				blockChainFile.delete();
+				blockChainFileExists = false;
+
+				blockStore = new HeightIndexedBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile, Constants.BLOCKCHAIN_STORE_CAPACITY);
+			}
+
+			if (!blockChainFileExists)
+			{
+				log.info("blockchain does not exist, resetting wallet");
+
+				wallet.clearTransactions(0);
+				wallet.setLastBlockSeenHeight(-1); // magic value
+				wallet.setLastBlockSeenHash(null);
+			}
+
 			final long earliestKeyCreationTime = wallet.getEarliestKeyCreationTime();
 
 			if (!blockChainFileExists && earliestKeyCreationTime > 0)
 			{
 				try
 				{
-					final InputStream checkpointsInputStream = getAssets().open(Constants.CHECKPOINTS_FILENAME);
-					CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore, earliestKeyCreationTime);
+					final BinaryCheckpoints checkpoints = openCheckpoints();
+					BinaryCheckpoints.checkpoint(checkpoints, blockStore, earliestKeyCreationTime);
 				}
 				catch (final IOException x)
 				{
@@ -659,20 +827,159 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		try
 		{
-			blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, wallet, blockStore);
+			// the wallet is connected through the pipeline, so it does not hold up the download
+			walletBlockPipeline = new WalletBlockPipeline(wallet, WALLET_PIPELINE_CAPACITY, telemetry, walletFailureListener);
+			blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, blockStore);
+			blockChain.addListener(walletBlockPipeline, Threading.SAME_THREAD);
 		}
 		catch (final BlockStoreException x)
 		{
 			throw new Error("blockchain cannot be created", x);
 		}
 
-		application.getWallet().addEventListener(walletEventListener);
+		wallet.addEventListener(walletEventListener);
+		application.getWalletChangeDispatcher().addListener(walletChangeListener, APPWIDGET_THROTTLE_MS);
+		notifyWidgets();
+
+		final IntentFilter intentFilter = new IntentFilter();
+		intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_LOW);
+		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
+		registerReceiver(connectivityReceiver, intentFilter);
 
 		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
 
 		maybeRotateKeys();
 	}
 
+	/**
+	 * Copies the headers of the legacy block store, walking back from its chain head, so upgrading does not reset the
+	 * wallet. The legacy block store is only removed once the headers have been copied.
+	 *
+	 * @return true if the block store has been created from the legacy block store
+	 */
+	private static boolean migrateLegacyBlockChain(final File legacyFile, final File file)
+	{
+		SPVBlockStore legacyStore = null;
+		HeightIndexedBlockStore store = null;
+
+		try
+		{
+			legacyStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, legacyFile);
+
+			final LinkedList<StoredBlock> blocks = new LinkedList<StoredBlock>();
+			StoredBlock block = legacyStore.getChainHead();
+			while (block != null && blocks.size() < Constants.BLOCKCHAIN_STORE_CAPACITY)
+			{
+				blocks.addFirst(block);
+				block = block.getPrev(legacyStore);
+			}
+
+			// oldest first, so the ring evicts them first
+			store = new HeightIndexedBlockStore(Constants.NETWORK_PARAMETERS, file, Constants.BLOCKCHAIN_STORE_CAPACITY);
+			for (final StoredBlock migratedBlock : blocks)
+				store.put(migratedBlock);
+			store.setChainHead(blocks.getLast());
+			store.close();
+			store = null;
+
+			log.info("migrated " + blocks.size() + " headers from legacy blockchain, chain head at height " + blocks.getLast().getHeight());
+
+			legacyStore.close();
+			legacyStore = null;
+			legacyFile.delete();
+
+			return true;
+		}
+		catch (final BlockStoreException x)
+		{
+			log.warn("problem migrating legacy blockchain, starting over", x);
+
+			if (store != null)
+				closeQuietly(store);
+			file.delete();
+
+			return false;
+		}
+		finally
+		{
+			if (legacyStore != null)
+				closeQuietly(legacyStore);
+		}
+	}
+
+	private static void closeQuietly(final BlockStore store)
+	{
+		try
+		{
+			store.close();
+		}
+		catch (final BlockStoreException x)
+		{
+			// swallow
+		}
+	}
+
+	/**
+	 * The block store is ahead of the wallet by the blocks that were still queued in the wallet block pipeline when the
+	 * service was stopped or the process died. Roll it back to the last block seen by the wallet, so these blocks are
+	 * downloaded again.
+	 *
+	 * @return false if the last block seen by the wallet is not in the block store, so the blockchain cannot be resumed
+	 */
+	private boolean rollBackToWallet(final Wallet wallet) throws BlockStoreException
+	{
+		final Sha256Hash walletLastBlockSeenHash = wallet.getLastBlockSeenHash();
+		if (wallet.getLastBlockSeenHeight() == -1 || walletLastBlockSeenHash == null)
+			return true; // wallet has not seen any block yet
+
+		final StoredBlock chainHead = blockStore.getChainHead();
+		if (chainHead.getHeader().getHash().equals(walletLastBlockSeenHash))
+			return true;
+
+		final StoredBlock walletLastBlockSeen = blockStore.get(walletLastBlockSeenHash);
+		if (walletLastBlockSeen == null)
+			return false;
+
+		log.info("rolling back blockchain from " + chainHead.getHeight() + " to " + walletLastBlockSeen.getHeight() + ", last seen by wallet");
+		blockStore.setChainHead(walletLastBlockSeen);
+
+		return true;
+	}
+
+	private BinaryCheckpoints openCheckpoints() throws IOException
+	{
+		try
+		{
+			// uncompressed assets can be mapped directly from the apk
+			final AssetFileDescriptor fd = getAssets().openFd(Constants.CHECKPOINTS_FILENAME);
+			final FileInputStream is = fd.createInputStream();
+
+			try
+			{
+				return BinaryCheckpoints.map(Constants.NETWORK_PARAMETERS, is.getChannel(), fd.getStartOffset(), fd.getLength());
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (final FileNotFoundException x)
+		{
+			// asset is compressed, fall back to reading it into memory
+			final InputStream is = getAssets().open(Constants.CHECKPOINTS_FILENAME);
+
+			try
+			{
+				return BinaryCheckpoints.read(Constants.NETWORK_PARAMETERS, is);
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+	}
+
 	@Override
 	public int onStartCommand(final Intent intent, final int flags, final int startId)
 	{
@@ -700,16 +1007,18 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		else if (BlockchainService.ACTION_BROADCAST_TRANSACTION.equals(action))
 		{
 			final Sha256Hash hash = new Sha256Hash(intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH));
-			final Transaction tx = application.getWallet().getTransaction(hash);
 
+			// the peergroup is only started once the wallet is loaded
 			if (peerGroup != null)
 			{
+				final Transaction tx = application.getWallet().getTransaction(hash);
+
 				log.info("broadcasting transaction " + tx.getHashAsString());
 				peerGroup.broadcastTransaction(tx);
 			}
 			else
 			{
-				log.info("peergroup not available, not broadcasting transaction " + tx.getHashAsString());
+				log.info("peergroup not available, not broadcasting transaction " + hash);
 			}
 		}
 
@@ -721,55 +1030,76 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	{
 		log.debug(".onDestroy()");
 
+		destroyed = true;
+
 		WalletApplication.scheduleStartBlockchainService(this);
 
-		unregisterReceiver(tickReceiver);
+		// nothing to tear down if the wallet did not finish loading while the service was up
+		if (blockChain != null)
+		{
+			unregisterReceiver(tickReceiver);
 
-		application.getWallet().removeEventListener(walletEventListener);
+			application.getWalletChangeDispatcher().removeListener(walletChangeListener);
+			application.getWallet().removeEventListener(walletEventListener);
 
-		if (peerGroup != null)
-		{
-			peerGroup.removeEventListener(peerConnectivityListener);
-			peerGroup.removeWallet(application.getWallet());
-			peerGroup.stopAndWait();
+			if (peerGroup != null)
+			{
+				peerGroup.removeEventListener(peerConnectivityListener);
+				peerGroup.removeEventListener(telemetryListener);
+				peerGroup.removeEventListener(peerAddressListener);
+				peerGroup.removeEventListener(peerScorer);
+				peerGroup.removeWallet(application.getWallet());
+				peerGroup.stopAndWait();
+
+				log.info("peergroup stopped");
+			}
+
+			blockChain.removeListener(walletBlockPipeline);
+			walletBlockPipeline.stop();
 
-			log.info("peergroup stopped");
+			unregisterReceiver(connectivityReceiver);
+
+			removeBroadcastBlockchainState();
 		}
 
 		peerConnectivityListener.stop();
 
-		unregisterReceiver(connectivityReceiver);
-
 		removeBroadcastPeerState();
-		removeBroadcastBlockchainState();
 
 		prefs.edit().putInt(Constants.PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 
 		delayHandler.removeCallbacksAndMessages(null);
+		handler.removeCallbacks(peerScoringRunnable);
 
-		try
+		peerAddressStore.save();
+
+		if (blockChain != null)
 		{
-			blockStore.close();
+			try
+			{
+				blockStore.close();
+			}
+			catch (final BlockStoreException x)
+			{
+				throw new RuntimeException(x);
+			}
+
+			application.saveWallet();
 		}
-		catch (final BlockStoreException x)
+
+		// also if the reset was requested before the wallet finished loading
+		if (resetBlockchainOnShutdown)
 		{
-			throw new RuntimeException(x);
+			log.info("removing blockchain");
+			blockChainFile.delete();
 		}
 
-		application.saveWallet();
-
 		if (wakeLock.isHeld())
 		{
 			log.debug("wakelock still held, releasing");
 			wakeLock.release();
 		}
 
-		if (resetBlockchainOnShutdown)
-		{
-			log.info("removing blockchain");
-			blockChainFile.delete();
-		}
-
 		super.onDestroy();
 
 		log.info("service was up for " + ((System.currentTimeMillis() - serviceCreatedAt) / 1000 / 60) + " minutes");
@@ -794,28 +1124,48 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	@Override
 	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
 	{
-		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
-
-		try
-		{
-			StoredBlock block = blockChain.getChainHead();
+		if (blockChain == null)
+			return new ArrayList<StoredBlock>(0);
 
-			while (block != null)
-			{
-				blocks.add(block);
+		return getBlocks(blockChain.getBestChainHeight(), maxBlocks);
+	}
 
-				if (blocks.size() >= maxBlocks)
-					break;
+	@Override
+	public List<StoredBlock> getBlocks(final int fromHeight, final int maxBlocks)
+	{
+		if (blockStore == null)
+			return new ArrayList<StoredBlock>(0);
 
-				block = block.getPrev(blockStore);
-			}
+		try
+		{
+			return blockStore.getByHeightDescending(fromHeight, maxBlocks);
 		}
 		catch (final BlockStoreException x)
 		{
 			// swallow
+			return new ArrayList<StoredBlock>(0);
 		}
+	}
+
+	@Override
+	public WalletQueueStats getWalletQueueStats()
+	{
+		if (walletBlockPipeline == null)
+			return null;
+
+		return walletBlockPipeline.getStats();
+	}
+
+	@Override
+	public PeerScore getPeerScore(final Peer peer)
+	{
+		return peerScorer.getScore(peer);
+	}
 
-		return blocks;
+	@Override
+	public SyncStats getSyncStats()
+	{
+		return telemetry.snapshot(System.currentTimeMillis());
 	}
 
 	private void sendBroadcastPeerState(final int numPeers)
@@ -852,6 +1202,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 	public void notifyWidgets()
 	{
+		final BalanceSnapshot snapshot = saveBalanceSnapshot();
+
 		final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
 
 		final ComponentName providerName = new ComponentName(this, WalletBalanceWidgetProvider.class);
@@ -861,12 +1213,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			final int[] appWidgetIds = appWidgetManager.getAppWidgetIds(providerName);
 
 			if (appWidgetIds.length > 0)
-			{
-				final Wallet wallet = application.getWallet();
-				final BigInteger balance = wallet.getBalance(BalanceType.ESTIMATED);
-
-				WalletBalanceWidgetProvider.updateWidgets(this, appWidgetManager, appWidgetIds, balance);
-			}
+				WalletBalanceWidgetProvider.updateWidgets(this, appWidgetManager, appWidgetIds, snapshot.balance);
 		}
 		catch (final RuntimeException x) // system server dead?
 		{
@@ -874,6 +1221,25 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		}
 	}
 
+	// written even without widgets, so a widget added later doesn't need the wallet either
+	private BalanceSnapshot saveBalanceSnapshot()
+	{
+		final BigInteger balance = application.getBalanceTracker().getBalance().estimated;
+		final int chainHeight = application.getWallet().getLastBlockSeenHeight();
+		final BalanceSnapshot snapshot = new BalanceSnapshot(balance, chainHeight, System.currentTimeMillis());
+
+		try
+		{
+			snapshot.save(getFileStreamPath(Constants.BALANCE_SNAPSHOT_FILENAME));
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving balance snapshot", x);
+		}
+
+		return snapshot;
+	}
+
 	private void maybeRotateKeys()
 	{
 		final Wallet wallet = application.getWallet();
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zetacoin.core.Block;
+import com.google.zetacoin.core.NetworkParameters;
+import com.google.zetacoin.core.ProtocolException;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.StoredBlock;
+import com.google.zetacoin.core.VerificationException;
+import com.google.zetacoin.store.BlockStore;
+import com.google.zetacoin.store.BlockStoreException;
+
+/**
+ * Block store backed by a memory-mapped ring of headers, like SPVBlockStore, but with a configurable capacity and a
+ * secondary index from height to ring slot for the best chain. Lookups by hash and by height are O(1).
+ *
+ * <pre>
+ * header   64 bytes  magic "MZCBLKS1", capacity, ring cursor, chain head hash
+ * ring     capacity * 128 bytes  block hash followed by the compact serialized StoredBlock
+ * index    capacity * 4 bytes  ring slot + 1 of the best chain block at height % capacity, 0 if none
+ * </pre>
+ *
+ * The height index is maintained in {@link #setChainHead(StoredBlock)} by walking back from the new head until it
+ * meets an index entry that already agrees, so a reorganize only costs its depth.
+ *
+ * The checkpoint-generator module compiles this class too, so it must not depend on Android.
+ *
+ * @author Andreas Schildbach
+ */
+public final class HeightIndexedBlockStore implements BlockStore
+{
+	public static final byte[] MAGIC = "MZCBLKS1".getBytes(Charset.forName("US-ASCII"));
+	public static final int HEADER_SIZE = 64;
+	public static final int RECORD_SIZE = 32 + StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+	private static final int CAPACITY_OFFSET = MAGIC.length;
+	private static final int CURSOR_OFFSET = CAPACITY_OFFSET + 4;
+	private static final int CHAIN_HEAD_OFFSET = CURSOR_OFFSET + 4;
+	private static final byte[] EMPTY_HASH = new byte[32];
+
+	private final NetworkParameters params;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final int indexOffset;
+	private final Map<Sha256Hash, Integer> slots;
+
+	private int cursor;
+	private StoredBlock chainHead;
+
+	private static final Logger log = LoggerFactory.getLogger(HeightIndexedBlockStore.class);
+
+	public HeightIndexedBlockStore(@Nonnull final NetworkParameters params, @Nonnull final File file, final int capacity)
+			throws BlockStoreException
+	{
+		this.params = params;
+
+		try
+		{
+			final boolean exists = file.exists() && file.length() > 0;
+			this.file = new RandomAccessFile(file, "rw");
+
+			int fileCapacity = capacity;
+			if (exists)
+			{
+				final byte[] magic = new byte[MAGIC.length];
+				this.file.seek(0);
+				this.file.readFully(magic);
+				if (!Arrays.equals(magic, MAGIC))
+					throw new BlockStoreException("not a height indexed block store: " + file);
+
+				fileCapacity = this.file.readInt();
+				if (fileCapacity != capacity)
+					log.info("block store has capacity " + fileCapacity + ", ignoring configured capacity " + capacity);
+			}
+
+			this.capacity = fileCapacity;
+			this.indexOffset = HEADER_SIZE + fileCapacity * RECORD_SIZE;
+			final long fileSize = indexOffset + fileCapacity * 4l;
+
+			if (exists && this.file.length() != fileSize)
+				throw new BlockStoreException("block store size " + this.file.length() + " does not match expected size " + fileSize);
+
+			this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+			this.slots = new HashMap<Sha256Hash, Integer>(fileCapacity * 2);
+
+			if (exists)
+				load();
+			else
+				initialize();
+		}
+		catch (final IOException x)
+		{
+			throw new BlockStoreException(x);
+		}
+	}
+
+	private void initialize() throws BlockStoreException
+	{
+		buffer.position(0);
+		buffer.put(MAGIC);
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+		buffer.putInt(CURSOR_OFFSET, 0);
+		cursor = 0;
+
+		try
+		{
+			final Block genesis = params.getGenesisBlock().cloneAsHeader();
+			final StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
+			put(storedGenesis);
+			setChainHead(storedGenesis);
+		}
+		catch (final VerificationException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+
+	private void load() throws BlockStoreException
+	{
+		cursor = buffer.getInt(CURSOR_OFFSET);
+		if (cursor < 0 || cursor >= capacity)
+			throw new BlockStoreException("corrupt ring cursor: " + cursor);
+
+		final byte[] hashBytes = new byte[32];
+		for (int slot = 0; slot < capacity; slot++)
+		{
+			buffer.position(HEADER_SIZE + slot * RECORD_SIZE);
+			buffer.get(hashBytes);
+			if (!Arrays.equals(hashBytes, EMPTY_HASH))
+				slots.put(new Sha256Hash(hashBytes.clone()), slot);
+		}
+
+		buffer.position(CHAIN_HEAD_OFFSET);
+		buffer.get(hashBytes);
+		chainHead = get(new Sha256Hash(hashBytes.clone()));
+		if (chainHead == null)
+			throw new BlockStoreException("corrupt block store, chain head not found");
+
+		log.info("loaded " + slots.size() + " headers, chain head at height " + chainHead.getHeight());
+	}
+
+	@Override
+	public synchronized void put(@Nonnull final StoredBlock block) throws BlockStoreException
+	{
+		final Sha256Hash hash = block.getHeader().getHash();
+		if (slots.containsKey(hash))
+			return;
+
+		final int slot = cursor;
+		final int offset = HEADER_SIZE + slot * RECORD_SIZE;
+
+		// evict the oldest header
+		final byte[] evictedHash = new byte[32];
+		buffer.position(offset);
+		buffer.get(evictedHash);
+		if (!Arrays.equals(evictedHash, EMPTY_HASH))
+			slots.remove(new Sha256Hash(evictedHash));
+
+		buffer.position(offset);
+		buffer.put(hash.getBytes());
+		block.serializeCompact(buffer);
+		slots.put(hash, slot);
+
+		cursor = (cursor + 1) % capacity;
+		buffer.putInt(CURSOR_OFFSET, cursor);
+	}
+
+	@Override
+	@CheckForNull
+	public synchronized StoredBlock get(@Nonnull final Sha256Hash hash) throws BlockStoreException
+	{
+		final Integer slot = slots.get(hash);
+		if (slot == null)
+			return null;
+
+		return read(slot);
+	}
+
+	/**
+	 * @return the block of the best chain at the given height, or null if it is not (or no longer) in the store
+	 */
+	@CheckForNull
+	public synchronized StoredBlock getByHeight(final int height) throws BlockStoreException
+	{
+		if (height < 0 || chainHead == null || height > chainHead.getHeight())
+			return null;
+
+		final int slot = buffer.getInt(indexOffset + (height % capacity) * 4) - 1;
+		if (slot < 0)
+			return null;
+
+		final StoredBlock block = read(slot);
+
+		// slot might have been overwritten by the ring in the meantime
+		return block.getHeight() == height ? block : null;
+	}
+
+	/**
+	 * @return consecutive blocks of the best chain, starting at the given height and going backwards, stopping early at
+	 *         the first height that is not in the store
+	 */
+	public synchronized List<StoredBlock> getByHeightDescending(final int fromHeight, final int maxBlocks) throws BlockStoreException
+	{
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(Math.max(0, Math.min(maxBlocks, fromHeight + 1)));
+
+		for (int height = fromHeight; height >= 0 && blocks.size() < maxBlocks; height--)
+		{
+			final StoredBlock block = getByHeight(height);
+			if (block == null)
+				break;
+
+			blocks.add(block);
+		}
+
+		return blocks;
+	}
+
+	@Override
+	public synchronized StoredBlock getChainHead() throws BlockStoreException
+	{
+		return chainHead;
+	}
+
+	@Override
+	public synchronized void setChainHead(@Nonnull final StoredBlock chainHead) throws BlockStoreException
+	{
+		this.chainHead = chainHead;
+
+		buffer.position(CHAIN_HEAD_OFFSET);
+		buffer.put(chainHead.getHeader().getHash().getBytes());
+
+		// update height index back to the fork point
+		StoredBlock block = chainHead;
+		while (block != null)
+		{
+			final Sha256Hash hash = block.getHeader().getHash();
+			final Integer slot = slots.get(hash);
+			if (slot == null)
+				break;
+
+			final int indexEntry = indexOffset + (block.getHeight() % capacity) * 4;
+			if (buffer.getInt(indexEntry) == slot + 1 && block != chainHead)
+				break; // the rest of the chain is already indexed
+
+			buffer.putInt(indexEntry, slot + 1);
+
+			if (block.getHeight() == 0)
+				break;
+
+			block = get(block.getHeader().getPrevBlockHash());
+		}
+	}
+
+	@Override
+	public synchronized void close() throws BlockStoreException
+	{
+		try
+		{
+			buffer.force();
+			file.close();
+		}
+		catch (final IOException x)
+		{
+			throw new BlockStoreException(x);
+		}
+	}
+
+	public NetworkParameters getParams()
+	{
+		return params;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	private StoredBlock read(final int slot) throws BlockStoreException
+	{
+		final ByteBuffer record = buffer.duplicate();
+		record.position(HEADER_SIZE + slot * RECORD_SIZE + 32);
+
+		try
+		{
+			return StoredBlock.deserializeCompact(params, record);
+		}
+		catch (final ProtocolException x)
+		{
+			throw new BlockStoreException(x);
+		}
+	}
+}
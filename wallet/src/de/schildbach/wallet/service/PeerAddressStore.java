@@ -0,0 +1,368 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schildbach.wallet.Constants;
+
+/**
+ * Small on-disk cache of peer addresses, learned from addr messages and successful connections. Peers that connected
+ * successfully before are handed out instead of the DNS seeds, so the service doesn't have to wait for them on every
+ * start. Addresses learned from addr messages are kept in memory only and handed out next to the seeds, as they may
+ * well be stale. Addresses that failed to connect too often in a row are forgotten.
+ *
+ * <pre>
+ * magic    8 bytes  "MZCPEER2"
+ * count    4 bytes
+ * entries  address length (1 byte), address, port (2 bytes), last seen secs (8 bytes), successes (4 bytes),
+ *          failures (4 bytes)
+ * </pre>
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerAddressStore
+{
+	private static final byte[] MAGIC = "MZCPEER2".getBytes(Constants.US_ASCII);
+
+	private final File file;
+	private final int maxEntries;
+	private final Map<InetSocketAddress, Entry> entries = new HashMap<InetSocketAddress, Entry>();
+	private final Set<InetSocketAddress> handedOut = new HashSet<InetSocketAddress>();
+	private boolean dirty = false;
+
+	private static final long MAX_AGE_SECS = 60 * 60 * 24 * 14;
+	private static final int MAX_FAILURES = 3;
+
+	private static final Logger log = LoggerFactory.getLogger(PeerAddressStore.class);
+
+	private static final class Entry
+	{
+		public final InetSocketAddress address;
+		public long lastSeenSecs;
+		public int successes;
+
+		// consecutive failed connection attempts
+		public int failures;
+
+		public Entry(final InetSocketAddress address, final long lastSeenSecs, final int successes, final int failures)
+		{
+			this.address = address;
+			this.lastSeenSecs = lastSeenSecs;
+			this.successes = successes;
+			this.failures = failures;
+		}
+
+		public boolean isProven()
+		{
+			return successes > 0;
+		}
+	}
+
+	// best candidates first: proven peers, then most recently seen
+	private static final Comparator<Entry> CANDIDATE_COMPARATOR = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(final Entry entry1, final Entry entry2)
+		{
+			final boolean proven1 = entry1.isProven();
+			final boolean proven2 = entry2.isProven();
+			if (proven1 != proven2)
+				return proven1 ? -1 : 1;
+
+			if (entry1.failures != entry2.failures)
+				return entry1.failures - entry2.failures;
+
+			if (entry1.lastSeenSecs != entry2.lastSeenSecs)
+				return entry1.lastSeenSecs > entry2.lastSeenSecs ? -1 : 1;
+
+			return entry2.successes - entry1.successes;
+		}
+	};
+
+	public PeerAddressStore(@Nonnull final File file, final int maxEntries)
+	{
+		this.file = file;
+		this.maxEntries = maxEntries;
+
+		if (file.exists())
+		{
+			try
+			{
+				load();
+			}
+			catch (final IOException x)
+			{
+				log.info("problem loading peer addresses, starting from scratch", x);
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * Remembers an address announced by a peer.
+	 */
+	public synchronized void seen(@Nonnull final InetSocketAddress address, final long timeSecs)
+	{
+		final long nowSecs = System.currentTimeMillis() / 1000;
+		if (timeSecs < nowSecs - MAX_AGE_SECS)
+			return;
+
+		final Entry entry = entries.get(address);
+		if (entry != null)
+		{
+			entry.lastSeenSecs = Math.max(entry.lastSeenSecs, Math.min(timeSecs, nowSecs));
+		}
+		else
+		{
+			entries.put(address, new Entry(address, Math.min(timeSecs, nowSecs), 0, 0));
+			trim();
+		}
+	}
+
+	/**
+	 * Remembers an address we just successfully connected to.
+	 */
+	public synchronized void connected(@Nonnull final InetSocketAddress address)
+	{
+		final long nowSecs = System.currentTimeMillis() / 1000;
+
+		final Entry entry = entries.get(address);
+		if (entry != null)
+		{
+			entry.lastSeenSecs = nowSecs;
+			entry.successes++;
+			entry.failures = 0;
+		}
+		else
+		{
+			entries.put(address, new Entry(address, nowSecs, 1, 0));
+			trim();
+		}
+
+		dirty = true;
+	}
+
+	/**
+	 * Remembers that connecting to an address failed. After too many failures in a row, the address is forgotten.
+	 */
+	public synchronized void failed(@Nonnull final InetSocketAddress address)
+	{
+		final Entry entry = entries.get(address);
+		if (entry == null)
+			return;
+
+		entry.failures++;
+
+		if (entry.failures >= MAX_FAILURES)
+		{
+			log.info("forgetting peer address " + address + " after " + entry.failures + " failures");
+			entries.remove(address);
+		}
+
+		if (entry.isProven())
+			dirty = true;
+	}
+
+	/**
+	 * Remembers that a connected peer was dropped for performing badly, so it is no longer preferred.
+	 */
+	public synchronized void evicted(@Nonnull final InetSocketAddress address)
+	{
+		final Entry entry = entries.get(address);
+		if (entry == null)
+			return;
+
+		if (entry.isProven())
+			dirty = true;
+
+		entry.successes = 0;
+		failed(address);
+	}
+
+	/**
+	 * @param proven
+	 *            true for addresses that have been connected to successfully before, false for addresses only learned
+	 *            from other peers
+	 * @return up to the given number of addresses that have not been handed out since the last {@link #reset()}, best
+	 *         first; empty if the store is exhausted
+	 */
+	public synchronized List<InetSocketAddress> next(final int maxAddresses, final boolean proven)
+	{
+		final List<Entry> candidates = new ArrayList<Entry>(entries.size());
+		for (final Entry entry : entries.values())
+			if (entry.isProven() == proven && !handedOut.contains(entry.address))
+				candidates.add(entry);
+
+		Collections.sort(candidates, CANDIDATE_COMPARATOR);
+
+		final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(Math.min(maxAddresses, candidates.size()));
+		for (final Entry entry : candidates)
+		{
+			if (addresses.size() >= maxAddresses)
+				break;
+
+			addresses.add(entry.address);
+			handedOut.add(entry.address);
+		}
+
+		return addresses;
+	}
+
+	/**
+	 * Makes all addresses available to {@link #next(int, boolean)} again.
+	 */
+	public synchronized void reset()
+	{
+		handedOut.clear();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized void save()
+	{
+		if (!dirty)
+			return;
+
+		final File tmpFile = new File(file.getPath() + ".tmp");
+
+		try
+		{
+			// only persist addresses that have been connected to
+			final List<Entry> proven = new ArrayList<Entry>(entries.size());
+			for (final Entry entry : entries.values())
+				if (entry.isProven())
+					proven.add(entry);
+
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+			try
+			{
+				os.write(MAGIC);
+				os.writeInt(proven.size());
+
+				for (final Entry entry : proven)
+				{
+					final byte[] address = entry.address.getAddress().getAddress();
+					os.writeByte(address.length);
+					os.write(address);
+					os.writeShort(entry.address.getPort());
+					os.writeLong(entry.lastSeenSecs);
+					os.writeInt(entry.successes);
+					os.writeInt(entry.failures);
+				}
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tmpFile.renameTo(file))
+			{
+				file.delete();
+				if (!tmpFile.renameTo(file))
+					throw new IOException("cannot rename " + tmpFile + " to " + file);
+			}
+
+			dirty = false;
+
+			log.info("saved " + proven.size() + " peer addresses");
+		}
+		catch (final IOException x)
+		{
+			log.info("problem saving peer addresses", x);
+		}
+	}
+
+	private void load() throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+			final byte[] magic = new byte[MAGIC.length];
+			is.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("not a peer address file: " + file);
+
+			final long minSecs = System.currentTimeMillis() / 1000 - MAX_AGE_SECS;
+
+			final int count = is.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				final byte[] address = new byte[is.readUnsignedByte()];
+				is.readFully(address);
+				final int port = is.readUnsignedShort();
+				final long lastSeenSecs = is.readLong();
+				final int successes = is.readInt();
+				final int failures = is.readInt();
+
+				if (lastSeenSecs >= minSecs)
+				{
+					final InetSocketAddress socketAddress = new InetSocketAddress(InetAddress.getByAddress(address), port);
+					entries.put(socketAddress, new Entry(socketAddress, lastSeenSecs, successes, failures));
+				}
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+
+		log.info("loaded " + entries.size() + " peer addresses");
+	}
+
+	private void trim()
+	{
+		if (entries.size() <= maxEntries)
+			return;
+
+		final List<Entry> sorted = new ArrayList<Entry>(entries.values());
+		Collections.sort(sorted, CANDIDATE_COMPARATOR);
+
+		// trim with some headroom, so a flood of addr messages doesn't sort on every insert
+		for (final Entry entry : sorted.subList(maxEntries * 3 / 4, sorted.size()))
+			entries.remove(entry.address);
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of how well a connected peer performs, as judged by {@link PeerScorer}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerScore
+{
+	public final long pingMs;
+	public final float blocksPerSecond;
+	public final int stalls;
+	public final float score;
+
+	public PeerScore(final long pingMs, final float blocksPerSecond, final int stalls, final float score)
+	{
+		this.pingMs = pingMs;
+		this.blocksPerSecond = blocksPerSecond;
+		this.stalls = stalls;
+		this.score = score;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format(Locale.US, "%.1f[%d ms, %.1f blocks/s, %d stalls]", score, pingMs, blocksPerSecond, stalls);
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zetacoin.core.AbstractPeerEventListener;
+import com.google.zetacoin.core.Block;
+import com.google.zetacoin.core.Peer;
+import com.google.zetacoin.core.PeerGroup;
+
+/**
+ * Scores connected peers by ping round trip time and stalls, which are known for every peer, and by block delivery
+ * rate. The rate is only known for peers that have been the download peer, so it raises their score but its absence
+ * doesn't lower anyone's. While the chain is behind, the download peer is dropped if it stalls or is clearly slower
+ * than another peer, which makes the peergroup pick a new one through {@link #selectDownloadPeer(List, int)}. Only a
+ * stall costs the peer its standing in the {@link PeerAddressStore}. Chronically slow peers are closed, one at a time,
+ * but keep their address record, as a slow link says little about the peer. Stalls are forgotten over time.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PeerScorer extends AbstractPeerEventListener
+{
+	private final PeerAddressStore peerAddressStore;
+	private final Map<Peer, Stats> stats = new HashMap<Peer, Stats>();
+	private final Map<InetSocketAddress, Stalls> stallsByAddress = new HashMap<InetSocketAddress, Stalls>();
+
+	private static final long UNKNOWN_PING_MS = 2000;
+	private static final long SLOW_PING_MS = 5000;
+	private static final long STALL_TIMEOUT_MS = 20 * 1000;
+	private static final long RATE_WINDOW_MS = 30 * 1000;
+	private static final long MIN_DOWNLOAD_PEER_AGE_MS = 60 * 1000;
+	private static final int MAX_STALLS = 3;
+	private static final long STALL_DECAY_MS = 10 * 60 * 1000;
+	private static final float SWITCH_FACTOR = 3;
+	private static final float REFERENCE_BLOCKS_PER_SECOND = 100;
+
+	private static final Logger log = LoggerFactory.getLogger(PeerScorer.class);
+
+	// one stall is forgotten per decay period since the last stall
+	private static final class Stalls
+	{
+		public static final Stalls NONE = new Stalls(0, 0);
+
+		public final int count;
+		public final long lastStallAt;
+
+		public Stalls(final int count, final long lastStallAt)
+		{
+			this.count = count;
+			this.lastStallAt = lastStallAt;
+		}
+
+		public int count(final long now)
+		{
+			return (int) Math.max(0, count - (now - lastStallAt) / STALL_DECAY_MS);
+		}
+
+		public Stalls add(final long now)
+		{
+			return new Stalls(count(now) + 1, now);
+		}
+	}
+
+	private static final class Stats
+	{
+		public long lastBlockAt;
+		public long windowStartedAt;
+		public int windowBlocks;
+		public float blocksPerSecond;
+		public Stalls stalls;
+		public long downloadingSince;
+
+		public Stats(final long now, final Stalls stalls)
+		{
+			this.windowStartedAt = now;
+			this.stalls = stalls;
+		}
+	}
+
+	public PeerScorer(@Nonnull final PeerAddressStore peerAddressStore)
+	{
+		this.peerAddressStore = peerAddressStore;
+	}
+
+	@Override
+	public synchronized void onPeerConnected(final Peer peer, final int peerCount)
+	{
+		// stalls are remembered across reconnects
+		final Stalls stalls = stallsByAddress.get(peer.getAddress().toSocketAddress());
+		stats.put(peer, new Stats(System.currentTimeMillis(), stalls != null ? stalls : Stalls.NONE));
+	}
+
+	@Override
+	public synchronized void onPeerDisconnected(final Peer peer, final int peerCount)
+	{
+		stats.remove(peer);
+	}
+
+	@Override
+	public synchronized void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
+	{
+		final Stats peerStats = stats.get(peer);
+		if (peerStats == null)
+			return;
+
+		final long now = System.currentTimeMillis();
+		peerStats.lastBlockAt = now;
+		peerStats.windowBlocks++;
+		rollWindow(peerStats, now);
+	}
+
+	@CheckForNull
+	public synchronized PeerScore getScore(@Nonnull final Peer peer)
+	{
+		final Stats peerStats = stats.get(peer);
+		if (peerStats == null)
+			return null;
+
+		final long now = System.currentTimeMillis();
+
+		return new PeerScore(pingMs(peer), peerStats.blocksPerSecond, peerStats.stalls.count(now), score(peer, peerStats, now));
+	}
+
+	/**
+	 * Picks the best scoring peer among those that are on the most common chain height.
+	 */
+	@CheckForNull
+	public synchronized Peer selectDownloadPeer(@Nonnull final List<Peer> peers, final int mostCommonChainHeight)
+	{
+		final long now = System.currentTimeMillis();
+
+		Peer best = null;
+		float bestScore = -1;
+
+		for (final Peer peer : peers)
+		{
+			if (peer.getBestHeight() < mostCommonChainHeight)
+				continue;
+
+			final Stats peerStats = stats.get(peer);
+			final float score = peerStats != null ? score(peer, peerStats, now) : 0;
+			if (score > bestScore)
+			{
+				best = peer;
+				bestScore = score;
+			}
+		}
+
+		if (best != null)
+			log.info("selected download peer " + best + " with score " + bestScore);
+
+		return best;
+	}
+
+	/**
+	 * Looks for stalled or slow peers and drops them. Meant to be called periodically while the peergroup is running.
+	 */
+	public void evaluate(@Nonnull final PeerGroup peerGroup, final int bestChainHeight)
+	{
+		final long now = System.currentTimeMillis();
+		final List<Peer> peers = peerGroup.getConnectedPeers();
+		final Peer downloadPeer = peerGroup.getDownloadPeer();
+		final boolean behind = peerGroup.getMostCommonChainHeight() > bestChainHeight;
+
+		Peer drop = null;
+		String reason = null;
+		boolean evict = false;
+
+		synchronized (this)
+		{
+			for (final Map.Entry<Peer, Stats> entry : stats.entrySet())
+				rollWindow(entry.getValue(), now);
+
+			for (final Iterator<Stalls> i = stallsByAddress.values().iterator(); i.hasNext();)
+				if (i.next().count(now) == 0)
+					i.remove();
+
+			if (downloadPeer != null && behind && peers.size() > 1)
+			{
+				final Stats downloadStats = stats.get(downloadPeer);
+				if (downloadStats != null)
+				{
+					if (downloadStats.downloadingSince == 0)
+						downloadStats.downloadingSince = now;
+
+					final long lastProgressAt = Math.max(downloadStats.lastBlockAt, downloadStats.downloadingSince);
+					if (now - lastProgressAt > STALL_TIMEOUT_MS)
+					{
+						downloadStats.stalls = downloadStats.stalls.add(now);
+						stallsByAddress.put(downloadPeer.getAddress().toSocketAddress(), downloadStats.stalls);
+						drop = downloadPeer;
+						reason = "stalled for " + (now - lastProgressAt) + " ms";
+						evict = true;
+					}
+					else if (now - downloadStats.downloadingSince > MIN_DOWNLOAD_PEER_AGE_MS)
+					{
+						final float downloadScore = score(downloadPeer, downloadStats, now);
+						for (final Peer peer : peers)
+						{
+							final Stats peerStats = stats.get(peer);
+							if (peer != downloadPeer && peerStats != null && score(peer, peerStats, now) > downloadScore * SWITCH_FACTOR)
+							{
+								drop = downloadPeer;
+								reason = "faster peer " + peer + " available";
+								break;
+							}
+						}
+					}
+				}
+			}
+
+			// progress is only expected while behind
+			if (!behind)
+				for (final Stats peerStats : stats.values())
+					peerStats.downloadingSince = 0;
+
+			if (drop == null && peers.size() > 1)
+			{
+				for (final Peer peer : peers)
+				{
+					final Stats peerStats = stats.get(peer);
+					if (peerStats != null && (pingMs(peer) > SLOW_PING_MS || peerStats.stalls.count(now) >= MAX_STALLS))
+					{
+						drop = peer;
+						reason = "chronically slow";
+						break;
+					}
+				}
+			}
+		}
+
+		if (drop != null)
+		{
+			log.info("dropping " + (drop == downloadPeer ? "download " : "") + "peer " + drop + ": " + reason);
+			if (evict)
+				peerAddressStore.evicted(drop.getAddress().toSocketAddress());
+			drop.close();
+		}
+	}
+
+	private static void rollWindow(final Stats peerStats, final long now)
+	{
+		final long elapsed = now - peerStats.windowStartedAt;
+		if (elapsed >= RATE_WINDOW_MS)
+		{
+			peerStats.blocksPerSecond = peerStats.windowBlocks * 1000f / elapsed;
+			peerStats.windowBlocks = 0;
+			peerStats.windowStartedAt = now;
+		}
+	}
+
+	private static long pingMs(final Peer peer)
+	{
+		final long pingTime = peer.getPingTime();
+
+		return pingTime < Long.MAX_VALUE ? pingTime : UNKNOWN_PING_MS;
+	}
+
+	// higher is better: inverse round trip time, raised by the block delivery rate if known, halved per stall
+	private static float score(final Peer peer, final Stats peerStats, final long now)
+	{
+		final float latencyScore = 1000f / (pingMs(peer) + 100);
+		final float rateFactor = 1 + peerStats.blocksPerSecond / REFERENCE_BLOCKS_PER_SECOND;
+
+		return latencyScore * rateFactor / (1 << Math.min(peerStats.stalls.count(now), 10));
+	}
+}
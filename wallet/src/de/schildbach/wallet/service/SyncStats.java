@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import de.schildbach.wallet.service.SyncTelemetry.Metric;
+
+/**
+ * Immutable snapshot of {@link SyncTelemetry}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncStats
+{
+	public final long timeMs;
+	public final int collectedSeconds;
+	public final Map<String, Long> peerBytesIn;
+
+	private final long[][] series;
+	private final long[] totals;
+
+	SyncStats(final long timeMs, final int collectedSeconds, @Nonnull final long[][] series, @Nonnull final long[] totals,
+			@Nonnull final Map<String, Long> peerBytesIn)
+	{
+		this.timeMs = timeMs;
+		this.collectedSeconds = collectedSeconds;
+		this.series = series;
+		this.totals = totals;
+		this.peerBytesIn = Collections.unmodifiableMap(peerBytesIn);
+	}
+
+	/**
+	 * @return per second values of the metric, oldest first, ending with the last complete second
+	 */
+	public long[] series(@Nonnull final Metric metric)
+	{
+		return series[metric.ordinal()].clone();
+	}
+
+	public long total(@Nonnull final Metric metric)
+	{
+		return totals[metric.ordinal()];
+	}
+
+	public long sum(@Nonnull final Metric metric, final int lastSeconds)
+	{
+		final long[] values = series[metric.ordinal()];
+
+		long sum = 0;
+		for (int i = Math.max(0, values.length - lastSeconds); i < values.length; i++)
+			sum += values[i];
+
+		return sum;
+	}
+
+	public float rate(@Nonnull final Metric metric, final int lastSeconds)
+	{
+		final int window = Math.min(lastSeconds, series[metric.ordinal()].length);
+
+		return window > 0 ? (float) sum(metric, window) / window : 0;
+	}
+
+	/**
+	 * @return average time in milliseconds it took to apply an operation to the wallet, or -1 if there was none
+	 */
+	public float averageWalletApplyMs(final int lastSeconds)
+	{
+		final long count = sum(Metric.WALLET_APPLY_COUNT, lastSeconds);
+
+		return count > 0 ? (float) sum(Metric.WALLET_APPLY_MS, lastSeconds) / count : -1;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * In-process ring buffer of sync metrics with a resolution of one second. All methods are thread safe.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncTelemetry
+{
+	public enum Metric
+	{
+		BLOCKS_RECEIVED, BLOCKS_CONNECTED, BLOCKS_APPLIED, FILTERED_TRANSACTIONS, FALSE_POSITIVES, WALLET_TRANSACTIONS, BYTES_IN, WALLET_APPLY_MS, WALLET_APPLY_COUNT
+	}
+
+	private static final int NUM_METRICS = Metric.values().length;
+
+	private final int capacitySeconds;
+	private final long[][] values;
+	private final long[] seconds;
+	private final long[] totals = new long[NUM_METRICS];
+	private final Map<String, Long> peerBytesIn = new HashMap<String, Long>();
+	private final long startedAtMs;
+
+	public SyncTelemetry(final int capacitySeconds)
+	{
+		this(capacitySeconds, System.currentTimeMillis());
+	}
+
+	public SyncTelemetry(final int capacitySeconds, final long nowMs)
+	{
+		this.capacitySeconds = capacitySeconds;
+
+		// one extra bucket for the current second
+		this.values = new long[capacitySeconds + 1][NUM_METRICS];
+		this.seconds = new long[capacitySeconds + 1];
+		this.startedAtMs = nowMs;
+	}
+
+	public void add(@Nonnull final Metric metric, final long n)
+	{
+		add(metric, n, System.currentTimeMillis());
+	}
+
+	public synchronized void add(@Nonnull final Metric metric, final long n, final long nowMs)
+	{
+		final long second = nowMs / 1000;
+		final int index = (int) (second % seconds.length);
+
+		if (seconds[index] != second)
+		{
+			seconds[index] = second;
+			for (int i = 0; i < NUM_METRICS; i++)
+				values[index][i] = 0;
+		}
+
+		values[index][metric.ordinal()] += n;
+		totals[metric.ordinal()] += n;
+	}
+
+	public void addPeerBytesIn(@Nonnull final String peer, final long bytes)
+	{
+		add(Metric.BYTES_IN, bytes);
+
+		synchronized (this)
+		{
+			final Long previous = peerBytesIn.get(peer);
+			peerBytesIn.put(peer, previous != null ? previous + bytes : bytes);
+		}
+	}
+
+	/**
+	 * Forgets the per peer counters of a disconnected peer. Totals are kept.
+	 */
+	public synchronized void removePeer(@Nonnull final String peer)
+	{
+		peerBytesIn.remove(peer);
+	}
+
+	/**
+	 * @return sum of the metric over the given number of complete seconds before now
+	 */
+	public synchronized long sum(@Nonnull final Metric metric, final int lastSeconds, final long nowMs)
+	{
+		final long second = nowMs / 1000;
+		final int window = Math.min(lastSeconds, capacitySeconds);
+
+		long sum = 0;
+		for (int i = 0; i < seconds.length; i++)
+			if (seconds[i] < second && seconds[i] >= second - window)
+				sum += values[i][metric.ordinal()];
+
+		return sum;
+	}
+
+	public float rate(@Nonnull final Metric metric, final int lastSeconds)
+	{
+		return (float) sum(metric, lastSeconds, System.currentTimeMillis()) / Math.min(lastSeconds, capacitySeconds);
+	}
+
+	public synchronized long total(@Nonnull final Metric metric)
+	{
+		return totals[metric.ordinal()];
+	}
+
+	/**
+	 * @return number of complete seconds of data collected so far, capped at the capacity
+	 */
+	public long collectedSeconds(final long nowMs)
+	{
+		return Math.min((nowMs - startedAtMs) / 1000, capacitySeconds);
+	}
+
+	public synchronized SyncStats snapshot(final long nowMs)
+	{
+		final long second = nowMs / 1000;
+		final long[][] series = new long[NUM_METRICS][capacitySeconds];
+
+		// oldest second first, current (incomplete) second excluded
+		for (int i = 0; i < seconds.length; i++)
+		{
+			final long age = second - seconds[i];
+			if (age >= 1 && age <= capacitySeconds)
+				for (int m = 0; m < NUM_METRICS; m++)
+					series[m][(int) (capacitySeconds - age)] = values[i][m];
+		}
+
+		return new SyncStats(nowMs, (int) collectedSeconds(nowMs), series, totals.clone(), new HashMap<String, Long>(peerBytesIn));
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zetacoin.core.AbstractBlockChain.NewBlockType;
+import com.google.zetacoin.core.BlockChainListener;
+import com.google.zetacoin.core.ScriptException;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.StoredBlock;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionInput;
+import com.google.zetacoin.core.VerificationException;
+import com.google.zetacoin.core.Wallet;
+
+import de.schildbach.wallet.service.SyncTelemetry.Metric;
+
+/**
+ * Decouples the wallet from the block chain. The chain hands blocks and transactions to this listener on the network
+ * thread; they are queued in a bounded queue and applied to the wallet in order on a dedicated thread. If the wallet
+ * falls behind, the queue fills up and the network thread blocks, which throttles the download.
+ *
+ * The block store is therefore ahead of the wallet by up to the queued blocks. Stopping the pipeline applies what is
+ * queued for a limited time and drops the rest. Dropped blocks, and queued blocks lost when the process dies, are why
+ * the block store must be rolled back to the last block seen by the wallet before the chain is used again. If the wallet fails to apply an operation, the pipeline drops everything after it and
+ * reports the failure, as the wallet would otherwise silently miss transactions.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletBlockPipeline implements BlockChainListener
+{
+	public interface FailureListener
+	{
+		/**
+		 * Called on the pipeline thread, once.
+		 */
+		void onWalletFailure(@Nonnull Exception x);
+	}
+
+	private final Wallet wallet;
+	private final BlockingQueue<Operation> queue;
+	private final int capacity;
+	private final Set<Sha256Hash> queuedTransactions = Collections.newSetFromMap(new ConcurrentHashMap<Sha256Hash, Boolean>());
+	private final SyncTelemetry telemetry;
+	private final FailureListener failureListener;
+	private final Thread thread;
+	private volatile boolean failed = false;
+	private volatile boolean dropping = false;
+	private int dropped = 0;
+
+	private static final int THROUGHPUT_WINDOW_SECONDS = 10;
+	private static final long STOP_TIMEOUT_MS = 2000;
+
+	private static final Operation STOP = new Operation()
+	{
+		@Override
+		public void apply()
+		{
+		}
+	};
+
+	private static final Logger log = LoggerFactory.getLogger(WalletBlockPipeline.class);
+
+	public WalletBlockPipeline(@Nonnull final Wallet wallet, final int capacity, @Nonnull final SyncTelemetry telemetry,
+			@Nonnull final FailureListener failureListener)
+	{
+		this.wallet = wallet;
+		this.telemetry = telemetry;
+		this.failureListener = failureListener;
+		this.capacity = capacity;
+		this.queue = new ArrayBlockingQueue<Operation>(capacity);
+
+		this.thread = new Thread("wallet block pipeline")
+		{
+			@Override
+			public void run()
+			{
+				while (true)
+				{
+					final Operation operation;
+					try
+					{
+						operation = queue.take();
+					}
+					catch (final InterruptedException x)
+					{
+						log.info("wallet block pipeline interrupted, " + queue.size() + " operations dropped");
+						return;
+					}
+
+					if (operation == STOP)
+					{
+						if (dropped > 0)
+							log.info("wallet block pipeline stopped, " + dropped + " operations dropped");
+						return;
+					}
+
+					if (failed || dropping)
+					{
+						dropped++;
+						continue;
+					}
+
+					final long start = System.currentTimeMillis();
+
+					try
+					{
+						operation.apply();
+					}
+					catch (final VerificationException x)
+					{
+						fail(x);
+					}
+					catch (final RuntimeException x)
+					{
+						fail(x);
+					}
+
+					final long now = System.currentTimeMillis();
+					telemetry.add(Metric.WALLET_APPLY_MS, now - start, now);
+					telemetry.add(Metric.WALLET_APPLY_COUNT, 1, now);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void fail(final Exception x)
+	{
+		log.error("problem applying block to wallet, dropping all further operations", x);
+
+		// leave the queue to the loop, as it may already contain the stop marker
+		failed = true;
+		queuedTransactions.clear();
+
+		failureListener.onWalletFailure(x);
+	}
+
+	/**
+	 * @return true if the wallet failed to apply an operation, so it is behind the block store for good
+	 */
+	public boolean isFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * @return true if the wallet has applied everything the chain has handed over so far
+	 */
+	public boolean isIdle()
+	{
+		return queue.isEmpty() && queuedTransactions.isEmpty();
+	}
+
+	/**
+	 * Applies the queued operations and stops the wallet thread, so the wallet can be saved afterwards. If that takes
+	 * too long, the remaining operations are dropped after the operation currently being applied. The chain must not
+	 * call this listener anymore. Dropped blocks are downloaded again after rolling back the block store.
+	 */
+	public void stop()
+	{
+		try
+		{
+			queue.put(STOP);
+			thread.join(STOP_TIMEOUT_MS);
+
+			if (thread.isAlive())
+			{
+				dropping = true;
+				queuedTransactions.clear();
+				thread.join();
+			}
+		}
+		catch (final InterruptedException x)
+		{
+			thread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getQueueDepth()
+	{
+		return queue.size();
+	}
+
+	public int getQueueCapacity()
+	{
+		return capacity;
+	}
+
+	public WalletQueueStats getStats()
+	{
+		return new WalletQueueStats(queue.size(), capacity, telemetry.total(Metric.BLOCKS_APPLIED), telemetry.rate(Metric.BLOCKS_APPLIED,
+				THROUGHPUT_WINDOW_SECONDS));
+	}
+
+	@Override
+	public void notifyNewBestBlock(final StoredBlock block) throws VerificationException
+	{
+		telemetry.add(Metric.BLOCKS_CONNECTED, 1);
+
+		enqueue(new Operation()
+		{
+			@Override
+			public void apply() throws VerificationException
+			{
+				wallet.notifyNewBestBlock(block);
+
+				telemetry.add(Metric.BLOCKS_APPLIED, 1);
+			}
+		});
+	}
+
+	@Override
+	public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+			throws VerificationException
+	{
+		enqueue(new Operation()
+		{
+			@Override
+			public void apply() throws VerificationException
+			{
+				wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+			}
+		});
+	}
+
+	@Override
+	public boolean isTransactionRelevant(final Transaction tx) throws ScriptException
+	{
+		if (wallet.isTransactionRelevant(tx))
+			return true;
+
+		// the wallet cannot know yet about spends of transactions that are still in the queue
+		if (!queuedTransactions.isEmpty())
+			for (final TransactionInput input : tx.getInputs())
+				if (queuedTransactions.contains(input.getOutpoint().getHash()))
+					return true;
+
+		// false positives are counted by notifyTransactionIsInBlock(), which the chain calls for every matched hash
+		return false;
+	}
+
+	@Override
+	public void receiveFromBlock(final Transaction tx, final StoredBlock block, final NewBlockType blockType, final int relativityOffset)
+			throws VerificationException
+	{
+		final Sha256Hash hash = tx.getHash();
+		queuedTransactions.add(hash);
+
+		enqueue(new Operation()
+		{
+			@Override
+			public void apply() throws VerificationException
+			{
+				try
+				{
+					wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+				}
+				finally
+				{
+					queuedTransactions.remove(hash);
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean notifyTransactionIsInBlock(final Sha256Hash txHash, final StoredBlock block, final NewBlockType blockType,
+			final int relativityOffset) throws VerificationException
+	{
+		final boolean known = queuedTransactions.contains(txHash) || wallet.getTransaction(txHash) != null;
+		if (!known)
+			telemetry.add(Metric.FALSE_POSITIVES, 1);
+
+		enqueue(new Operation()
+		{
+			@Override
+			public void apply() throws VerificationException
+			{
+				wallet.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+			}
+		});
+
+		return known;
+	}
+
+	private void enqueue(final Operation operation) throws VerificationException
+	{
+		if (failed)
+			throw new VerificationException("wallet failed to apply an earlier block");
+
+		try
+		{
+			queue.put(operation);
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(x);
+		}
+	}
+
+	private interface Operation
+	{
+		void apply() throws VerificationException;
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the queue between the block chain and the wallet.
+ *
+ * @author Andreas Schildbach
+ */
+public final class WalletQueueStats
+{
+	public final int queueDepth;
+	public final int queueCapacity;
+	public final long processed;
+	public final float throughput;
+
+	public WalletQueueStats(final int queueDepth, final int queueCapacity, final long processed, final float throughput)
+	{
+		this.queueDepth = queueDepth;
+		this.queueCapacity = queueCapacity;
+		this.processed = processed;
+		this.throughput = throughput;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "wallet queue[" + queueDepth + '/' + queueCapacity + ", " + processed + " total, " + String.format(Locale.US, "%.1f", throughput)
+				+ "/s]";
+	}
+}
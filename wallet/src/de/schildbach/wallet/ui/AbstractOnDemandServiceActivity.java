@@ -31,6 +31,18 @@ import de.schildbach.wallet.WalletApplication;
 public abstract class AbstractOnDemandServiceActivity extends AbstractWalletActivity
 {
 	protected void processDirectTransaction(@Nonnull final Transaction tx)
+	{
+		runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				receiveDirectTransaction(tx);
+			}
+		});
+	}
+
+	private void receiveDirectTransaction(final Transaction tx)
 	{
 		final Wallet wallet = getWalletApplication().getWallet();
 
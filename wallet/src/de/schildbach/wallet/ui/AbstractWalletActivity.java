@@ -17,7 +17,9 @@
 
 package de.schildbach.wallet.ui;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +44,7 @@ import cc.mazacoin.wallet.R;
 public abstract class AbstractWalletActivity extends SherlockFragmentActivity
 {
 	private WalletApplication application;
+	private boolean destroyed = false;
 
 	protected static final Logger log = LoggerFactory.getLogger(AbstractWalletActivity.class);
 
@@ -49,15 +52,77 @@ public abstract class AbstractWalletActivity extends SherlockFragmentActivity
 	protected void onCreate(final Bundle savedInstanceState)
 	{
 		application = (WalletApplication) getApplication();
+		application.loadWalletInBackground();
 
 		super.onCreate(savedInstanceState);
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		destroyed = true;
+
+		super.onDestroy();
+	}
+
 	protected WalletApplication getWalletApplication()
 	{
 		return application;
 	}
 
+	/**
+	 * Fragments and dialogs restored from the saved state would need the wallet right away, so activities that use the
+	 * wallet in them only restore them if the wallet is already loaded. Meant to be passed to super.onCreate().
+	 */
+	@CheckForNull
+	protected final Bundle savedStateIfWalletLoaded(@Nullable final Bundle savedInstanceState)
+	{
+		return ((WalletApplication) getApplication()).isWalletLoaded() ? savedInstanceState : null;
+	}
+
+	/**
+	 * Runs the callback on the main thread once the wallet is loaded, or right away if it already is. Skipped if the
+	 * activity is gone by then.
+	 */
+	protected final void runWhenWalletLoaded(@Nonnull final Runnable callback)
+	{
+		application.runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!destroyed && !isFinishing())
+					callback.run();
+			}
+		});
+	}
+
+	/**
+	 * Sets the given layout, which uses the wallet, once the wallet is loaded and shows a loading skeleton until then.
+	 * The callback continues the setup of the layout.
+	 */
+	protected final void setWalletContentView(final int layoutResId, @Nullable final Runnable onContentViewSet)
+	{
+		final boolean deferred = !application.isWalletLoaded();
+		if (deferred)
+			setContentView(R.layout.wallet_loading);
+
+		runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				setContentView(layoutResId);
+
+				if (deferred)
+					supportInvalidateOptionsMenu();
+
+				if (onContentViewSet != null)
+					onContentViewSet.run();
+			}
+		});
+	}
+
 	protected final void toast(@Nonnull final String text, final Object... formatArgs)
 	{
 		toast(text, 0, Toast.LENGTH_SHORT, formatArgs);
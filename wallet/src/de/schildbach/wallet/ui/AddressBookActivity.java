@@ -57,13 +57,23 @@ public final class AddressBookActivity extends AbstractWalletActivity
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
-
-		setContentView(R.layout.address_book_content);
+		super.onCreate(savedStateIfWalletLoaded(savedInstanceState));
 
 		final ActionBar actionBar = getSupportActionBar();
 		actionBar.setDisplayHomeAsUpEnabled(true);
 
+		setWalletContentView(R.layout.address_book_content, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				setupFragments();
+			}
+		});
+	}
+
+	private void setupFragments()
+	{
 		final ViewPager pager = (ViewPager) findViewById(R.id.address_book_pager);
 
 		final FragmentManager fm = getSupportFragmentManager();
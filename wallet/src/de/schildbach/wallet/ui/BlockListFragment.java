@@ -19,10 +19,7 @@ package de.schildbach.wallet.ui;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -55,13 +52,14 @@ import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.google.zetacoin.core.Block;
-import com.google.zetacoin.core.Sha256Hash;
 import com.google.zetacoin.core.StoredBlock;
 import com.google.zetacoin.core.Transaction;
 import com.google.zetacoin.core.Wallet;
 
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.TransactionIndex;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.WalletChangeDispatcher;
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainServiceImpl;
 import de.schildbach.wallet.util.WalletUtils;
@@ -75,18 +73,18 @@ public final class BlockListFragment extends SherlockListFragment
 	private AbstractWalletActivity activity;
 	private WalletApplication application;
 	private Wallet wallet;
+	private TransactionIndex transactionIndex;
 	private LoaderManager loaderManager;
 	private SharedPreferences prefs;
 
 	private BlockchainService service;
 
 	private BlockListAdapter adapter;
-	private Set<Transaction> transactions;
 
 	private static final int ID_BLOCK_LOADER = 0;
-	private static final int ID_TRANSACTION_LOADER = 1;
 
 	private static final int MAX_BLOCKS = 32;
+	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 
 	@Override
 	public void onAttach(final Activity activity)
@@ -96,6 +94,7 @@ public final class BlockListFragment extends SherlockListFragment
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = this.activity.getWalletApplication();
 		this.wallet = application.getWallet();
+		this.transactionIndex = application.getTransactionIndex();
 		this.loaderManager = getLoaderManager();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 	}
@@ -124,7 +123,7 @@ public final class BlockListFragment extends SherlockListFragment
 
 		activity.registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
 
-		loaderManager.initLoader(ID_TRANSACTION_LOADER, null, transactionLoaderCallbacks);
+		application.getWalletChangeDispatcher().addListener(walletChangeListener, THROTTLE_MS);
 
 		adapter.notifyDataSetChanged();
 	}
@@ -132,7 +131,7 @@ public final class BlockListFragment extends SherlockListFragment
 	@Override
 	public void onPause()
 	{
-		loaderManager.destroyLoader(ID_TRANSACTION_LOADER);
+		application.getWalletChangeDispatcher().removeListener(walletChangeListener);
 
 		activity.unregisterReceiver(tickReceiver);
 
@@ -214,6 +213,15 @@ public final class BlockListFragment extends SherlockListFragment
 		}
 	};
 
+	private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
+	{
+		@Override
+		public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
+		{
+			adapter.notifyDataSetChanged();
+		}
+	};
+
 	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
 	{
 		@Override
@@ -297,7 +305,8 @@ public final class BlockListFragment extends SherlockListFragment
 			final int transactionChildCount = row.getChildCount() - ROW_BASE_CHILD_COUNT;
 			int iTransactionView = 0;
 
-			if (transactions != null)
+			final List<Transaction> transactions = transactionIndex.getTransactionsInBlock(header.getHash());
+			if (!transactions.isEmpty())
 			{
 				final String precision = prefs.getString(Constants.PREFS_KEY_BTC_PRECISION, Constants.PREFS_DEFAULT_BTC_PRECISION);
 				final int btcPrecision = precision.charAt(0) - '0';
@@ -307,23 +316,20 @@ public final class BlockListFragment extends SherlockListFragment
 
 				for (final Transaction tx : transactions)
 				{
-					if (tx.getAppearsInHashes().containsKey(header.getHash()))
+					final View view;
+					if (iTransactionView < transactionChildCount)
+					{
+						view = row.getChildAt(ROW_INSERT_INDEX + iTransactionView);
+					}
+					else
 					{
-						final View view;
-						if (iTransactionView < transactionChildCount)
-						{
-							view = row.getChildAt(ROW_INSERT_INDEX + iTransactionView);
-						}
-						else
-						{
-							view = getLayoutInflater(null).inflate(R.layout.transaction_row_oneline, null);
-							row.addView(view, ROW_INSERT_INDEX + iTransactionView);
-						}
-
-						transactionsAdapter.bindView(view, tx);
-
-						iTransactionView++;
+						view = getLayoutInflater(null).inflate(R.layout.transaction_row_oneline, null);
+						row.addView(view, ROW_INSERT_INDEX + iTransactionView);
 					}
+
+					transactionsAdapter.bindView(view, tx);
+
+					iTransactionView++;
 				}
 			}
 
@@ -392,10 +398,6 @@ public final class BlockListFragment extends SherlockListFragment
 		public void onLoadFinished(final Loader<List<StoredBlock>> loader, final List<StoredBlock> blocks)
 		{
 			adapter.replace(blocks);
-
-			final Loader<Set<Transaction>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
-			if (transactionLoader != null && transactionLoader.isStarted())
-				transactionLoader.forceLoad();
 		}
 
 		@Override
@@ -404,58 +406,4 @@ public final class BlockListFragment extends SherlockListFragment
 			adapter.clear();
 		}
 	};
-
-	private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>>
-	{
-		private final Wallet wallet;
-
-		private TransactionsLoader(final Context context, final Wallet wallet)
-		{
-			super(context);
-
-			this.wallet = wallet;
-		}
-
-		@Override
-		public Set<Transaction> loadInBackground()
-		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
-
-			final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-			for (final Transaction tx : transactions)
-			{
-				final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-				if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-					filteredTransactions.add(tx);
-			}
-
-			return filteredTransactions;
-		}
-	}
-
-	private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>()
-	{
-		@Override
-		public Loader<Set<Transaction>> onCreateLoader(final int id, final Bundle args)
-		{
-			return new TransactionsLoader(activity, wallet);
-		}
-
-		@Override
-		public void onLoadFinished(final Loader<Set<Transaction>> loader, final Set<Transaction> transactions)
-		{
-			BlockListFragment.this.transactions = transactions;
-
-			adapter.notifyDataSetChanged();
-		}
-
-		@Override
-		public void onLoaderReset(final Loader<Set<Transaction>> loader)
-		{
-			BlockListFragment.this.transactions.clear(); // be nice
-			BlockListFragment.this.transactions = null;
-
-			adapter.notifyDataSetChanged();
-		}
-	};
 }
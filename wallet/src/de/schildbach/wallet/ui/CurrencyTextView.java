@@ -49,6 +49,8 @@ public final class CurrencyTextView extends TextView
 	private RelativeSizeSpan prefixRelativeSizeSpan = null;
 	private RelativeSizeSpan insignificantRelativeSizeSpan = null;
 
+	private final StringBuilder formatBuilder = new StringBuilder();
+
 	public CurrencyTextView(final Context context)
 	{
 		super(context);
@@ -128,13 +130,13 @@ public final class CurrencyTextView extends TextView
 
 		if (amount != null)
 		{
-			final String s;
+			formatBuilder.setLength(0);
 			if (alwaysSigned)
-				s = GenericUtils.formatValue(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
+				GenericUtils.formatValue(formatBuilder, amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
 			else
-				s = GenericUtils.formatValue(amount, precision, shift);
+				GenericUtils.formatValue(formatBuilder, amount, "", "-", precision, shift);
 
-			text = new SpannableStringBuilder(s);
+			text = new SpannableStringBuilder(formatBuilder);
 			WalletUtils.formatSignificant(text, insignificantRelativeSizeSpan);
 
 			if (prefix != null)
@@ -32,9 +32,9 @@ public final class ExchangeRatesActivity extends AbstractWalletActivity
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
+		super.onCreate(savedStateIfWalletLoaded(savedInstanceState));
 
-		setContentView(R.layout.exchange_rates_content);
+		setWalletContentView(R.layout.exchange_rates_content, null);
 
 		final ActionBar actionBar = getSupportActionBar();
 		actionBar.setDisplayHomeAsUpEnabled(true);
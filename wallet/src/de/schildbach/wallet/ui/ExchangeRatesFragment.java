@@ -43,8 +43,6 @@ import com.actionbarsherlock.view.ActionMode;
 import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
-import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.core.Wallet.BalanceType;
 
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.ExchangeRatesProvider;
@@ -62,7 +60,6 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 {
 	private AbstractWalletActivity activity;
 	private WalletApplication application;
-	private Wallet wallet;
 	private SharedPreferences prefs;
 	private LoaderManager loaderManager;
 
@@ -82,7 +79,6 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
-		this.wallet = application.getWallet();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 		this.loaderManager = getLoaderManager();
 	}
@@ -193,8 +189,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 
 	private void updateView()
 	{
-		balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
-
+		// the balance comes from the balance loader, as the wallet may still be loading
 		if (adapter != null)
 		{
 			final String precision = prefs.getString(Constants.PREFS_KEY_BTC_PRECISION, Constants.PREFS_DEFAULT_BTC_PRECISION);
@@ -245,7 +240,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 		@Override
 		public Loader<BigInteger> onCreateLoader(final int id, final Bundle args)
 		{
-			return new WalletBalanceLoader(activity, wallet);
+			return new WalletBalanceLoader(activity);
 		}
 
 		@Override
@@ -299,7 +294,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 
 			final CurrencyTextView walletView = (CurrencyTextView) view.findViewById(R.id.exchange_rate_row_balance);
 			walletView.setPrecision(isBTC ? Constants.BTC_MAX_PRECISION : Constants.LOCAL_PRECISION, 0);
-			if (!replaying)
+			if (!replaying && balance != null)
 			{
 				walletView.setAmount(WalletUtils.localValue(balance, exchangeRate.rate));
 				walletView.setStrikeThru(Constants.TEST);
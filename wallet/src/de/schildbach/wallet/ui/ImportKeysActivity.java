@@ -17,17 +17,15 @@
 
 package de.schildbach.wallet.ui;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.StringReader;
-import java.util.List;
+
+import javax.annotation.Nonnull;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
@@ -38,18 +36,14 @@ import android.view.View;
 import android.widget.CheckBox;
 import android.widget.EditText;
 
-import com.google.zetacoin.core.ECKey;
 import com.google.zetacoin.core.Wallet;
 
-import de.schildbach.wallet.Constants;
-import de.schildbach.wallet.util.Crypto;
-import de.schildbach.wallet.util.WalletUtils;
 import cc.mazacoin.wallet.R;
 
 /**
  * @author Andreas Schildbach
  */
-public final class ImportKeysActivity extends AbstractWalletActivity
+public final class ImportKeysActivity extends AbstractWalletActivity implements ImportKeysTask.Callback
 {
 	private static final int DIALOG_IMPORT_KEYS = 0;
 
@@ -58,17 +52,41 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 	private Uri backupFileUri;
 
+	private ProgressDialog importKeysProgressDialog;
+
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
+		// a restored dialog would need the wallet right away
+		final Bundle restoredState = savedStateIfWalletLoaded(savedInstanceState);
+		super.onCreate(restoredState);
 
-		wallet = getWalletApplication().getWallet();
 		contentResolver = getContentResolver();
 
 		backupFileUri = getIntent().getData();
 
-		showDialog(DIALOG_IMPORT_KEYS);
+		runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				wallet = getWalletApplication().getWallet();
+
+				// after a configuration change, the dialog or a running import has been restored
+				if (restoredState == null)
+					showDialog(DIALOG_IMPORT_KEYS);
+			}
+		});
+	}
+
+	@Override
+	protected void onDestroy()
+	{
+		// a running import survives configuration changes and shows a new dialog
+		if (importKeysProgressDialog != null)
+			importKeysProgressDialog.dismiss();
+
+		super.onDestroy();
 	}
 
 	@Override
@@ -162,78 +180,92 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 	private void importPrivateKeys(final InputStream is, final String password)
 	{
-		try
-		{
-			final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(is, Constants.UTF_8));
-			final StringBuilder cipherText = new StringBuilder();
-			while (true)
-			{
-				final String line = cipherIn.readLine();
-				if (line == null)
-					break;
+		ImportKeysTask.start(getSupportFragmentManager(), wallet, is, password.toCharArray());
+	}
 
-				cipherText.append(line);
-			}
-			cipherIn.close();
+	@Override
+	public void onImportKeysProgress(final int numLinesParsed, final int numLines)
+	{
+		if (importKeysProgressDialog == null)
+		{
+			importKeysProgressDialog = ImportKeysTask.progressDialog(this);
+			importKeysProgressDialog.show();
+		}
 
-			final String plainText = Crypto.decrypt(cipherText.toString(), password.toCharArray());
-			final Reader plainReader = new StringReader(plainText);
+		if (numLines > 0)
+		{
+			importKeysProgressDialog.setIndeterminate(false);
+			importKeysProgressDialog.setMax(numLines);
+			importKeysProgressDialog.setProgress(numLinesParsed);
+		}
+	}
 
-			final BufferedReader keyReader = new BufferedReader(plainReader);
-			final List<ECKey> importedKeys = WalletUtils.readKeys(keyReader);
-			keyReader.close();
+	@Override
+	public void onImportKeysSuccess(final int numKeysToImport, final int numKeysImported, final long earliestKeyCreationTime)
+	{
+		dismissImportKeysProgressDialog();
 
-			final int numKeysToImport = importedKeys.size();
-			final int numKeysImported = wallet.addKeys(importedKeys);
+		final boolean needsRescan = numKeysImported > 0 && ImportKeysTask.needsRescan(this, earliestKeyCreationTime);
 
-			final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
-			dialog.setInverseBackgroundForced(true);
-			final StringBuilder message = new StringBuilder();
-			if (numKeysImported > 0)
-				message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
-			if (numKeysImported < numKeysToImport)
-			{
-				if (message.length() > 0)
-					message.append('\n');
-				message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
-			}
-			if (numKeysImported > 0)
-			{
-				if (message.length() > 0)
-					message.append("\n\n");
-				message.append(getString(R.string.import_keys_dialog_success_reset));
-			}
-			dialog.setMessage(message);
-			if (numKeysImported > 0)
+		final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
+		dialog.setInverseBackgroundForced(true);
+		final StringBuilder message = new StringBuilder();
+		if (numKeysImported > 0)
+			message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
+		if (numKeysImported < numKeysToImport)
+		{
+			if (message.length() > 0)
+				message.append('\n');
+			message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
+		}
+		if (needsRescan)
+		{
+			if (message.length() > 0)
+				message.append("\n\n");
+			message.append(getString(R.string.import_keys_dialog_success_reset));
+		}
+		dialog.setMessage(message);
+		if (needsRescan)
+		{
+			dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
 			{
-				dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
+				@Override
+				public void onClick(final DialogInterface dialog, final int id)
 				{
-					@Override
-					public void onClick(final DialogInterface dialog, final int id)
-					{
-						getWalletApplication().resetBlockchain();
-						finish();
-					}
-				});
-				dialog.setNegativeButton(R.string.button_dismiss, finishListener);
-			}
-			else
-			{
-				dialog.setNeutralButton(R.string.button_dismiss, finishListener);
-			}
-			dialog.setOnCancelListener(finishListener);
-			dialog.show();
-
-			log.info("imported " + numKeysImported + " of " + numKeysToImport + " private keys");
+					getWalletApplication().resetBlockchain();
+					finish();
+				}
+			});
+			dialog.setNegativeButton(R.string.button_dismiss, finishListener);
 		}
-		catch (final IOException x)
+		else
 		{
-			new AlertDialog.Builder(this).setInverseBackgroundForced(true).setIcon(android.R.drawable.ic_dialog_alert)
-					.setTitle(R.string.import_export_keys_dialog_failure_title)
-					.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()))
-					.setNeutralButton(R.string.button_dismiss, finishListener).setOnCancelListener(finishListener).show();
+			dialog.setNeutralButton(R.string.button_dismiss, finishListener);
+		}
+		dialog.setOnCancelListener(finishListener);
+		dialog.show();
+	}
+
+	@Override
+	public void onImportKeysFailure(@Nonnull final Exception x)
+	{
+		dismissImportKeysProgressDialog();
 
-			log.info("problem reading private keys", x);
+		final String message = x instanceof IOException ? x.getMessage() : x.toString();
+
+		new AlertDialog.Builder(this).setInverseBackgroundForced(true).setIcon(android.R.drawable.ic_dialog_alert)
+				.setTitle(R.string.import_export_keys_dialog_failure_title).setMessage(getString(R.string.import_keys_dialog_failure, message))
+				.setNeutralButton(R.string.button_dismiss, finishListener).setOnCancelListener(finishListener).show();
+
+		log.info("problem reading private keys", x);
+	}
+
+	private void dismissImportKeysProgressDialog()
+	{
+		if (importKeysProgressDialog != null)
+		{
+			importKeysProgressDialog.dismiss();
+			importKeysProgressDialog = null;
 		}
 	}
 
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.text.format.DateUtils;
+
+import com.google.zetacoin.core.AddressFormatException;
+import com.google.zetacoin.core.ECKey;
+import com.google.zetacoin.core.Wallet;
+
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.service.BlockchainService;
+import de.schildbach.wallet.util.Crypto;
+import de.schildbach.wallet.util.Iso8601Format;
+import de.schildbach.wallet.util.WalletUtils;
+import cc.mazacoin.wallet.R;
+
+/**
+ * Imports keys from a backup off the main thread. Decoding the keys is CPU bound, so lines are parsed in parallel
+ * chunks. The new keys are then added to the wallet in one batch, which means a single keys added event and thus a
+ * single bloom filter recalculation, however many keys are imported.
+ *
+ * The task is a retained fragment without a view, so it survives configuration changes of its activity, which must
+ * implement {@link Callback}. Progress is reported whenever the fragment is resumed; the result is delivered once, to
+ * whichever activity instance is resumed when it arrives or next.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ImportKeysTask extends Fragment
+{
+	public interface Callback
+	{
+		/**
+		 * Called on every resume until the result is delivered, and for each parsed chunk of lines. numLines is 0
+		 * while the backup is still being read.
+		 */
+		void onImportKeysProgress(int numLinesParsed, int numLines);
+
+		/**
+		 * @param earliestKeyCreationTime
+		 *            in seconds, of the keys that were actually imported; 0 if any of them has no creation time
+		 */
+		void onImportKeysSuccess(int numKeysToImport, int numKeysImported, long earliestKeyCreationTime);
+
+		/**
+		 * @param x
+		 *            an {@link IOException} if the backup could not be read or decrypted, otherwise an unexpected problem
+		 */
+		void onImportKeysFailure(@Nonnull Exception x);
+	}
+
+	private static final String FRAGMENT_TAG = ImportKeysTask.class.getName();
+
+	private Wallet wallet;
+	private InputStream is;
+	private char[] password;
+
+	private HandlerThread backgroundThread;
+	private final Handler handler = new Handler();
+
+	// main thread only
+	private int numLinesParsed = 0;
+	private int numLines = 0;
+	@CheckForNull
+	private Runnable result = null;
+
+	private static final int CHUNK_SIZE = 64;
+
+	// block timestamps may be off by a few hours, so keys slightly older than the chain head still need a rescan
+	private static final long RESCAN_SLACK_MS = DateUtils.DAY_IN_MILLIS;
+
+	private static final Logger log = LoggerFactory.getLogger(ImportKeysTask.class);
+
+	/**
+	 * @param password
+	 *            password of an encrypted backup, or null if the backup is not encrypted. Cleared after use.
+	 */
+	public static void start(@Nonnull final FragmentManager fm, @Nonnull final Wallet wallet, @Nonnull final InputStream is,
+			@CheckForNull final char[] password)
+	{
+		final ImportKeysTask task = new ImportKeysTask();
+		task.wallet = wallet;
+		task.is = is;
+		task.password = password;
+
+		fm.beginTransaction().add(task, FRAGMENT_TAG).commit();
+	}
+
+	public static boolean isRunning(@Nonnull final FragmentManager fm)
+	{
+		return fm.findFragmentByTag(FRAGMENT_TAG) != null;
+	}
+
+	@Override
+	public void onCreate(final Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+
+		setRetainInstance(true);
+
+		// re-created after the process died, the import went with it
+		if (wallet == null)
+			return;
+
+		backgroundThread = new HandlerThread("importKeysThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		new Handler(backgroundThread.getLooper()).post(importRunnable);
+	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+
+		if (wallet == null)
+			remove();
+		else if (result != null)
+			deliverResult();
+		else
+			((Callback) getActivity()).onImportKeysProgress(numLinesParsed, numLines);
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		handler.removeCallbacksAndMessages(null);
+
+		// an import in progress still finishes, as the keys may already be in the wallet
+		if (backgroundThread != null)
+			backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
+	private void remove()
+	{
+		getFragmentManager().beginTransaction().remove(this).commit();
+	}
+
+	private void deliverResult()
+	{
+		final Runnable result = this.result;
+		this.result = null;
+
+		remove();
+		result.run();
+	}
+
+	private final Runnable importRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				final long start = System.currentTimeMillis();
+
+				final List<String> lines = readLines(is, password);
+				final List<ECKey> keys = parseKeys(lines);
+
+				// dropping known keys up front keeps the batch small when restoring an overlapping backup
+				final Set<ByteBuffer> existingPubKeys = new HashSet<ByteBuffer>();
+				for (final ECKey key : wallet.getKeys())
+					existingPubKeys.add(ByteBuffer.wrap(key.getPubKey()));
+
+				final List<ECKey> newKeys = new ArrayList<ECKey>(keys.size());
+				for (final ECKey key : keys)
+					if (existingPubKeys.add(ByteBuffer.wrap(key.getPubKey())))
+						newKeys.add(key);
+
+				final int numKeysImported = newKeys.isEmpty() ? 0 : wallet.addKeys(newKeys);
+
+				long earliestKeyCreationTime = Long.MAX_VALUE;
+				for (final ECKey key : newKeys)
+					earliestKeyCreationTime = Math.min(earliestKeyCreationTime, key.getCreationTimeSeconds());
+
+				log.info("imported " + numKeysImported + " of " + keys.size() + " private keys, took " + (System.currentTimeMillis() - start)
+						+ " ms");
+
+				final int numKeysToImport = keys.size();
+				final long earliest = earliestKeyCreationTime;
+				postResult(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						((Callback) getActivity()).onImportKeysSuccess(numKeysToImport, numKeysImported, earliest);
+					}
+				});
+			}
+			catch (final IOException x)
+			{
+				postFailure(x);
+			}
+			catch (final RuntimeException x)
+			{
+				// e.g. the wallet rejecting the keys, which would otherwise leave the progress dialog up forever
+				log.warn("problem importing private keys", x);
+
+				postFailure(x);
+			}
+			finally
+			{
+				if (password != null)
+					Arrays.fill(password, ' ');
+			}
+		}
+	};
+
+	private static List<String> readLines(final InputStream is, final char[] password) throws IOException
+	{
+		final Reader plainReader;
+		if (password != null)
+			plainReader = new InputStreamReader(Crypto.decryptingStream(is, password), Constants.UTF_8);
+		else
+			plainReader = new InputStreamReader(is, Constants.UTF_8);
+
+		final BufferedReader keyReader = new BufferedReader(plainReader);
+		try
+		{
+			final List<String> lines = new ArrayList<String>();
+			while (true)
+			{
+				final String line = keyReader.readLine();
+				if (line == null)
+					break; // eof
+
+				lines.add(line);
+			}
+
+			// the whole stream has been read, so the padding and thus the password have been checked
+			return lines;
+		}
+		finally
+		{
+			keyReader.close();
+		}
+	}
+
+	private List<ECKey> parseKeys(final List<String> lines) throws IOException
+	{
+		final int numLines = lines.size();
+		final int numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), (numLines + CHUNK_SIZE - 1) / CHUNK_SIZE));
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		final AtomicInteger numLinesParsed = new AtomicInteger();
+
+		try
+		{
+			final List<Future<List<ECKey>>> chunks = new ArrayList<Future<List<ECKey>>>();
+			for (int from = 0; from < numLines; from += CHUNK_SIZE)
+			{
+				final List<String> chunk = lines.subList(from, Math.min(from + CHUNK_SIZE, numLines));
+				chunks.add(executor.submit(new Callable<List<ECKey>>()
+				{
+					@Override
+					public List<ECKey> call() throws AddressFormatException, ParseException
+					{
+						// date formats are not thread safe
+						final DateFormat format = Iso8601Format.newDateTimeFormatT();
+
+						final List<ECKey> keys = new ArrayList<ECKey>(chunk.size());
+						for (final String line : chunk)
+						{
+							final ECKey key = WalletUtils.readKey(line, format);
+							if (key != null)
+								keys.add(key);
+						}
+
+						postProgress(numLinesParsed.addAndGet(chunk.size()), numLines);
+
+						return keys;
+					}
+				}));
+			}
+
+			// collect in file order
+			final List<ECKey> keys = new ArrayList<ECKey>(numLines);
+			for (final Future<List<ECKey>> chunk : chunks)
+				keys.addAll(chunk.get());
+
+			return keys;
+		}
+		catch (final ExecutionException x)
+		{
+			throw new IOException("cannot read keys", x.getCause());
+		}
+		catch (final InterruptedException x)
+		{
+			throw new IOException("cannot read keys", x);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private void postProgress(final int numLinesParsed, final int numLines)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ImportKeysTask.this.numLinesParsed = numLinesParsed;
+				ImportKeysTask.this.numLines = numLines;
+
+				if (isResumed())
+					((Callback) getActivity()).onImportKeysProgress(numLinesParsed, numLines);
+			}
+		});
+	}
+
+	private void postFailure(final Exception x)
+	{
+		postResult(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				((Callback) getActivity()).onImportKeysFailure(x);
+			}
+		});
+	}
+
+	// held until the fragment is resumed, e.g. while its activity is being re-created
+	private void postResult(final Runnable result)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ImportKeysTask.this.result = result;
+
+				if (isResumed())
+					deliverResult();
+			}
+		});
+	}
+
+	/**
+	 * @return progress dialog to show while importing, indeterminate until the first {@link Callback#onImportKeysProgress(int, int)}
+	 */
+	public static ProgressDialog progressDialog(@Nonnull final Context context)
+	{
+		final ProgressDialog progressDialog = new ProgressDialog(context);
+		progressDialog.setMessage(context.getString(R.string.import_keys_progress));
+		progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		progressDialog.setIndeterminate(true);
+		progressDialog.setCancelable(false);
+		return progressDialog;
+	}
+
+	/**
+	 * Keys created after the blockchain head will be found by the ongoing sync, as the bloom filter has been updated.
+	 * Only older keys need a rescan. As the wallet can only drop all of its transactions at once, the rescan then
+	 * starts at the earliest key of the whole wallet.
+	 *
+	 * @param earliestKeyCreationTime
+	 *            in seconds, as passed to {@link Callback#onImportKeysSuccess(int, int, long)}
+	 */
+	public static boolean needsRescan(@Nonnull final Context context, final long earliestKeyCreationTime)
+	{
+		if (earliestKeyCreationTime == 0)
+			return true; // unknown age
+
+		final Intent blockchainState = context.registerReceiver(null, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		if (blockchainState == null)
+			return true;
+
+		final Date bestChainDate = (Date) blockchainState.getSerializableExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE);
+		if (bestChainDate == null)
+			return true;
+
+		return earliestKeyCreationTime * DateUtils.SECOND_IN_MILLIS - RESCAN_SLACK_MS <= bestChainDate.getTime();
+	}
+}
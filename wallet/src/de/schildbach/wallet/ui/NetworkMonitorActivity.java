@@ -36,17 +36,29 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 {
 	private PeerListFragment peerListFragment;
 	private BlockListFragment blockListFragment;
+	private SyncStatsFragment syncStatsFragment;
 
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
-
-		setContentView(R.layout.network_monitor_content);
+		super.onCreate(savedStateIfWalletLoaded(savedInstanceState));
 
 		final ActionBar actionBar = getSupportActionBar();
 		actionBar.setDisplayHomeAsUpEnabled(true);
 
+		// the block list uses the wallet
+		setWalletContentView(R.layout.network_monitor_content, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				setupFragments();
+			}
+		});
+	}
+
+	private void setupFragments()
+	{
 		final ViewPager pager = (ViewPager) findViewById(R.id.network_monitor_pager);
 
 		final FragmentManager fm = getSupportFragmentManager();
@@ -54,7 +66,8 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 		if (pager != null)
 		{
 			final ViewPagerTabs pagerTabs = (ViewPagerTabs) findViewById(R.id.network_monitor_pager_tabs);
-			pagerTabs.addTabLabels(R.string.network_monitor_peer_list_title, R.string.network_monitor_block_list_title);
+			pagerTabs.addTabLabels(R.string.network_monitor_peer_list_title, R.string.network_monitor_block_list_title,
+					R.string.network_monitor_sync_stats_title);
 
 			final PagerAdapter pagerAdapter = new PagerAdapter(fm);
 
@@ -65,11 +78,13 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 
 			peerListFragment = new PeerListFragment();
 			blockListFragment = new BlockListFragment();
+			syncStatsFragment = new SyncStatsFragment();
 		}
 		else
 		{
 			peerListFragment = (PeerListFragment) fm.findFragmentById(R.id.peer_list_fragment);
 			blockListFragment = (BlockListFragment) fm.findFragmentById(R.id.block_list_fragment);
+			syncStatsFragment = (SyncStatsFragment) fm.findFragmentById(R.id.sync_stats_fragment);
 		}
 	}
 
@@ -96,7 +111,7 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 		@Override
 		public int getCount()
 		{
-			return 2;
+			return 3;
 		}
 
 		@Override
@@ -104,8 +119,10 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 		{
 			if (position == 0)
 				return peerListFragment;
-			else
+			else if (position == 1)
 				return blockListFragment;
+			else
+				return syncStatsFragment;
 		}
 	}
 }
@@ -51,6 +51,7 @@ import com.google.zetacoin.core.VersionMessage;
 
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainServiceImpl;
+import de.schildbach.wallet.service.PeerScore;
 import cc.mazacoin.wallet.R;
 
 /**
@@ -138,6 +139,11 @@ public final class PeerListFragment extends SherlockListFragment
 				rowPing.setText(pingTime < Long.MAX_VALUE ? getString(R.string.peer_list_row_ping_time, pingTime) : null);
 				rowPing.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 
+				final TextView rowScore = (TextView) row.findViewById(R.id.peer_list_row_score);
+				final PeerScore score = service != null ? service.getPeerScore(peer) : null;
+				rowScore.setText(score != null ? getString(R.string.peer_list_row_score, score.score, score.blocksPerSecond, score.stalls) : null);
+				rowScore.setTypeface(isDownloading ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
+
 				return row;
 			}
 
@@ -162,6 +162,10 @@ public final class PreferencesActivity extends SherlockPreferenceActivity implem
 				@Override
 				protected CharSequence collectWalletDump()
 				{
+					// don't wait for the wallet on the main thread, the report is useful without it
+					if (!application.isWalletLoaded())
+						return null;
+
 					return application.getWallet().toString(false, true, true, null);
 				}
 			};
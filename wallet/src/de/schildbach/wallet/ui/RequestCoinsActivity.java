@@ -33,9 +33,9 @@ public final class RequestCoinsActivity extends AbstractBindServiceActivity
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
+		super.onCreate(savedStateIfWalletLoaded(savedInstanceState));
 
-		setContentView(R.layout.request_coins_content);
+		setWalletContentView(R.layout.request_coins_content, null);
 
 		final ActionBar actionBar = getSupportActionBar();
 		actionBar.setDisplayHomeAsUpEnabled(true);
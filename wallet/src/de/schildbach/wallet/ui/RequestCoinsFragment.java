@@ -22,6 +22,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,8 +66,8 @@ import com.google.zetacoin.core.Address;
 import com.google.zetacoin.core.ECKey;
 import com.google.zetacoin.core.Wallet;
 import com.google.zetacoin.uri.BitcoinURI;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 
-import de.schildbach.wallet.AddressBookProvider;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.ExchangeRatesProvider;
 import de.schildbach.wallet.ExchangeRatesProvider.ExchangeRate;
@@ -76,6 +77,7 @@ import de.schildbach.wallet.util.BitmapFragment;
 import de.schildbach.wallet.util.Bluetooth;
 import de.schildbach.wallet.util.Nfc;
 import de.schildbach.wallet.util.Qr;
+import de.schildbach.wallet.util.QrRenderer;
 import cc.mazacoin.wallet.R;
 
 /**
@@ -91,6 +93,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 	private LoaderManager loaderManager;
 	private ClipboardManager clipboardManager;
 	private ShareActionProvider shareActionProvider;
+	private QrRenderer qrRenderer;
 	@CheckForNull
 	private BluetoothAdapter bluetoothAdapter;
 
@@ -98,6 +101,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 	private int btcShift;
 
 	private ImageView qrView;
+	@CheckForNull
 	private Bitmap qrCodeBitmap;
 	private Spinner addressView;
 	private CheckBox includeLabelView;
@@ -115,6 +119,19 @@ public final class RequestCoinsFragment extends SherlockFragment
 
 	private static final Logger log = LoggerFactory.getLogger(RequestCoinsFragment.class);
 
+	private final QrRenderer.Callback qrRendererCallback = new QrRenderer.Callback()
+	{
+		@Override
+		public void onQrRendered(@Nonnull final String content, @CheckForNull final Bitmap bitmap)
+		{
+			if (bitmap == null || !isResumed())
+				return;
+
+			qrCodeBitmap = bitmap;
+			qrView.setImageDrawable(Qr.drawable(getResources(), bitmap));
+		}
+	};
+
 	private final LoaderCallbacks<Cursor> rateLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
 	{
 		@Override
@@ -126,7 +143,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 		@Override
 		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
 		{
-			if (data != null)
+			if (data != null && data.getCount() > 0)
 			{
 				data.moveToFirst();
 				final ExchangeRate exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
@@ -155,6 +172,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 		this.nfcManager = (NfcManager) activity.getSystemService(Context.NFC_SERVICE);
 		this.clipboardManager = (ClipboardManager) activity.getSystemService(Context.CLIPBOARD_SERVICE);
 		this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+		this.qrRenderer = application.getQrRenderer();
 	}
 
 	@Override
@@ -178,7 +196,8 @@ public final class RequestCoinsFragment extends SherlockFragment
 			@Override
 			public void onClick(final View v)
 			{
-				BitmapFragment.show(getFragmentManager(), qrCodeBitmap);
+				if (qrCodeBitmap != null)
+					BitmapFragment.show(getFragmentManager(), qrCodeBitmap);
 			}
 		});
 
@@ -296,6 +315,8 @@ public final class RequestCoinsFragment extends SherlockFragment
 	@Override
 	public void onPause()
 	{
+		qrRenderer.cancel(qrRendererCallback);
+
 		loaderManager.destroyLoader(ID_RATE_LOADER);
 
 		Nfc.unpublish(nfcManager, activity);
@@ -388,10 +409,8 @@ public final class RequestCoinsFragment extends SherlockFragment
 
 		final String request = determineRequestStr(true);
 
-		// update qr code
-		final int size = (int) (256 * getResources().getDisplayMetrics().density);
-		qrCodeBitmap = Qr.bitmap(request, size);
-		qrView.setImageBitmap(qrCodeBitmap);
+		// update qr code, the previous one stays until the new one has been rendered
+		qrRenderer.render(request, ErrorCorrectionLevel.H, qrRendererCallback);
 
 		// update ndef message
 		final boolean nfcSuccess = Nfc.publishUri(nfcManager, getActivity(), request);
@@ -423,7 +442,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 
 		final ECKey key = (ECKey) addressView.getSelectedItem();
 		final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
-		final String label = includeLabel ? AddressBookProvider.resolveLabel(activity, address.toString()) : null;
+		final String label = includeLabel ? application.getAddressLabelIndex().resolveLabel(address.toString()) : null;
 		final BigInteger amount = amountCalculatorLink.getAmount();
 
 		final StringBuilder uri = new StringBuilder(BitcoinURI.convertToBitcoinURI(address, amount, label, null));
@@ -56,9 +56,9 @@ public final class SendCoinsActivity extends AbstractBindServiceActivity
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
+		super.onCreate(savedStateIfWalletLoaded(savedInstanceState));
 
-		setContentView(R.layout.send_coins_content);
+		setWalletContentView(R.layout.send_coins_content, null);
 
 		getWalletApplication().startBlockchainService(false);
 
@@ -28,13 +28,11 @@ import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.ContentObserver;
 import android.database.Cursor;
 import android.media.RingtoneManager;
 import android.net.Uri;
@@ -78,10 +76,11 @@ import com.google.zetacoin.core.Transaction;
 import com.google.zetacoin.core.TransactionConfidence;
 import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
 import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.core.Wallet.BalanceType;
 import com.google.zetacoin.core.Wallet.SendRequest;
 
 import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressLabelIndex;
+import de.schildbach.wallet.BalanceTracker;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.ExchangeRatesProvider;
 import de.schildbach.wallet.ExchangeRatesProvider.ExchangeRate;
@@ -101,7 +100,6 @@ public final class SendCoinsFragment extends SherlockFragment
 	private AbstractBindServiceActivity activity;
 	private WalletApplication application;
 	private Wallet wallet;
-	private ContentResolver contentResolver;
 	private LoaderManager loaderManager;
 	private SharedPreferences prefs;
 	@CheckForNull
@@ -277,10 +275,10 @@ public final class SendCoinsFragment extends SherlockFragment
 		}
 	};
 
-	private final ContentObserver contentObserver = new ContentObserver(handler)
+	private final AddressLabelIndex.Listener labelsListener = new AddressLabelIndex.Listener()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged()
 		{
 			updateView();
 		}
@@ -296,7 +294,7 @@ public final class SendCoinsFragment extends SherlockFragment
 				@Override
 				public void run()
 				{
-					sentTransactionListAdapter.notifyDataSetChanged();
+					sentTransactionListAdapter.replace(tx);
 
 					final TransactionConfidence confidence = sentTransaction.getConfidence();
 					final ConfidenceType confidenceType = confidence.getConfidenceType();
@@ -337,7 +335,7 @@ public final class SendCoinsFragment extends SherlockFragment
 		@Override
 		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
 		{
-			if (data != null)
+			if (data != null && data.getCount() > 0)
 			{
 				data.moveToFirst();
 				final ExchangeRate exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
@@ -362,7 +360,6 @@ public final class SendCoinsFragment extends SherlockFragment
 		this.application = (WalletApplication) activity.getApplication();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 		this.wallet = application.getWallet();
-		this.contentResolver = activity.getContentResolver();
 		this.loaderManager = getLoaderManager();
 	}
 
@@ -546,7 +543,7 @@ public final class SendCoinsFragment extends SherlockFragment
 	{
 		super.onResume();
 
-		contentResolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, contentObserver);
+		application.getAddressLabelIndex().addListener(labelsListener);
 
 		amountCalculatorLink.setListener(amountsListener);
 
@@ -562,7 +559,7 @@ public final class SendCoinsFragment extends SherlockFragment
 
 		amountCalculatorLink.setListener(null);
 
-		contentResolver.unregisterContentObserver(contentObserver);
+		application.getAddressLabelIndex().removeListener(labelsListener);
 
 		super.onPause();
 	}
@@ -723,7 +720,7 @@ public final class SendCoinsFragment extends SherlockFragment
 				else
 				{
 					// valid address
-					final String label = AddressBookProvider.resolveLabel(activity, addressStr);
+					final String label = application.getAddressLabelIndex().resolveLabel(addressStr);
 					validatedAddress = new AddressAndLabel(Constants.NETWORK_PARAMETERS, addressStr, label);
 					receivingAddressView.setText(null);
 				}
@@ -757,9 +754,9 @@ public final class SendCoinsFragment extends SherlockFragment
 		}
 		else if (amount.signum() > 0)
 		{
-			final BigInteger estimated = wallet.getBalance(BalanceType.ESTIMATED);
-			final BigInteger available = wallet.getBalance(BalanceType.AVAILABLE);
-			final BigInteger pending = estimated.subtract(available);
+			final BalanceTracker.Balance balance = application.getBalanceTracker().getBalance();
+			final BigInteger available = balance.available;
+			final BigInteger pending = balance.pending;
 			// TODO subscribe to wallet changes
 
 			final BigInteger availableAfterAmount = available.subtract(amount);
@@ -843,7 +840,7 @@ public final class SendCoinsFragment extends SherlockFragment
 		final BigInteger amount = amountCalculatorLink.getAmount();
 		final SendRequest sendRequest = SendRequest.to(validatedAddress.address, amount);
 		sendRequest.changeAddress = WalletUtils.pickOldestKey(wallet).toAddress(Constants.NETWORK_PARAMETERS);
-		sendRequest.emptyWallet = amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
+		sendRequest.emptyWallet = amount.equals(application.getBalanceTracker().getBalance().available);
 
 		new SendCoinsOfflineTask(wallet, backgroundHandler)
 		{
@@ -899,7 +896,7 @@ public final class SendCoinsFragment extends SherlockFragment
 
 	private void handleEmpty()
 	{
-		final BigInteger available = wallet.getBalance(BalanceType.AVAILABLE);
+		final BigInteger available = application.getBalanceTracker().getBalance().available;
 
 		amountCalculatorLink.setBtcAmount(available);
 	}
@@ -955,7 +952,7 @@ public final class SendCoinsFragment extends SherlockFragment
 			receivingStaticView.setVisibility(View.VISIBLE);
 			receivingStaticAddressView.setText(WalletUtils.formatAddress(validatedAddress.address, Constants.ADDRESS_FORMAT_GROUP_SIZE,
 					Constants.ADDRESS_FORMAT_LINE_SIZE));
-			final String addressBookLabel = AddressBookProvider.resolveLabel(activity, validatedAddress.address.toString());
+			final String addressBookLabel = application.getAddressLabelIndex().resolveLabel(validatedAddress.address.toString());
 			final String staticLabel;
 			if (addressBookLabel != null)
 				staticLabel = addressBookLabel;
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.util.Map;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.text.format.DateUtils;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import com.actionbarsherlock.app.SherlockListFragment;
+
+import de.schildbach.wallet.service.BlockchainService;
+import de.schildbach.wallet.service.BlockchainServiceImpl;
+import de.schildbach.wallet.service.SyncStats;
+import de.schildbach.wallet.service.SyncTelemetry.Metric;
+import de.schildbach.wallet.service.WalletQueueStats;
+import cc.mazacoin.wallet.R;
+
+/**
+ * @author Andreas Schildbach
+ */
+public final class SyncStatsFragment extends SherlockListFragment
+{
+	private AbstractWalletActivity activity;
+
+	private BlockchainService service;
+	private ArrayAdapter<String[]> adapter;
+
+	private final Handler handler = new Handler();
+
+	private static final long REFRESH_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int RATE_WINDOW_SECS = 10;
+
+	@Override
+	public void onAttach(final Activity activity)
+	{
+		super.onAttach(activity);
+
+		this.activity = (AbstractWalletActivity) activity;
+	}
+
+	@Override
+	public void onActivityCreated(final Bundle savedInstanceState)
+	{
+		super.onActivityCreated(savedInstanceState);
+
+		activity.bindService(new Intent(activity, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+	}
+
+	@Override
+	public void onViewCreated(final View view, final Bundle savedInstanceState)
+	{
+		super.onViewCreated(view, savedInstanceState);
+
+		setEmptyText(getString(R.string.sync_stats_fragment_empty));
+	}
+
+	@Override
+	public void onCreate(final Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+
+		adapter = new ArrayAdapter<String[]>(activity, 0)
+		{
+			@Override
+			public View getView(final int position, View row, final ViewGroup parent)
+			{
+				if (row == null)
+					row = getLayoutInflater(null).inflate(R.layout.sync_stats_row, null);
+
+				final String[] entry = getItem(position);
+
+				final TextView rowLabel = (TextView) row.findViewById(R.id.sync_stats_row_label);
+				rowLabel.setText(entry[0]);
+
+				final TextView rowValue = (TextView) row.findViewById(R.id.sync_stats_row_value);
+				rowValue.setText(entry[1]);
+
+				return row;
+			}
+
+			@Override
+			public boolean isEnabled(final int position)
+			{
+				return false;
+			}
+		};
+		setListAdapter(adapter);
+	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				updateView();
+
+				handler.postDelayed(this, REFRESH_MS);
+			}
+		});
+	}
+
+	@Override
+	public void onPause()
+	{
+		handler.removeCallbacksAndMessages(null);
+
+		super.onPause();
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		activity.unbindService(serviceConnection);
+
+		super.onDestroy();
+	}
+
+	private void updateView()
+	{
+		adapter.clear();
+
+		if (service == null)
+			return;
+
+		final SyncStats stats = service.getSyncStats();
+		if (stats.collectedSeconds == 0)
+			return;
+
+		addRateRow(stats, R.string.sync_stats_row_blocks, Metric.BLOCKS_RECEIVED);
+		addRateRow(stats, R.string.sync_stats_row_blocks_connected, Metric.BLOCKS_CONNECTED);
+		addRateRow(stats, R.string.sync_stats_row_filtered_transactions, Metric.FILTERED_TRANSACTIONS);
+		addRateRow(stats, R.string.sync_stats_row_false_positives, Metric.FALSE_POSITIVES);
+		addRateRow(stats, R.string.sync_stats_row_wallet_transactions, Metric.WALLET_TRANSACTIONS);
+
+		adapter.add(new String[] { getString(R.string.sync_stats_row_bytes_in),
+				getString(R.string.sync_stats_value_bytes_rate, stats.rate(Metric.BYTES_IN, RATE_WINDOW_SECS) / 1024) });
+
+		final float applyMs = stats.averageWalletApplyMs(RATE_WINDOW_SECS);
+		adapter.add(new String[] { getString(R.string.sync_stats_row_wallet_apply),
+				applyMs >= 0 ? getString(R.string.sync_stats_value_latency, applyMs) : "–" });
+
+		final WalletQueueStats walletQueue = service.getWalletQueueStats();
+		if (walletQueue != null)
+			adapter.add(new String[] { getString(R.string.sync_stats_row_wallet_queue),
+					getString(R.string.sync_stats_value_wallet_queue, walletQueue.throughput, walletQueue.queueDepth, walletQueue.queueCapacity) });
+
+		for (final Map.Entry<String, Long> entry : stats.peerBytesIn.entrySet())
+			adapter.add(new String[] { entry.getKey(), getString(R.string.sync_stats_value_bytes_total, entry.getValue() / 1024f) });
+	}
+
+	private void addRateRow(final SyncStats stats, final int labelResId, final Metric metric)
+	{
+		adapter.add(new String[] { getString(labelResId), getString(R.string.sync_stats_value_rate, stats.rate(metric, RATE_WINDOW_SECS)) });
+	}
+
+	private final ServiceConnection serviceConnection = new ServiceConnection()
+	{
+		@Override
+		public void onServiceConnected(final ComponentName name, final IBinder binder)
+		{
+			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+		}
+
+		@Override
+		public void onServiceDisconnected(final ComponentName name)
+		{
+			service = null;
+		}
+	};
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import android.util.SparseArray;
+
+/**
+ * Rows of a transaction list of which only some fixed-size pages are loaded. Positions are those of the whole list,
+ * which is in display order: pending transactions first, then newest first.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionPages
+{
+	public static final TransactionPages EMPTY = new TransactionPages(0, 1, new SparseArray<List<TransactionRow>>(0));
+
+	private final int size;
+	private final int pageSize;
+	private final SparseArray<List<TransactionRow>> pages;
+
+	/**
+	 * @param pages
+	 *            loaded pages by page number, must not be modified afterwards
+	 */
+	public TransactionPages(final int size, final int pageSize, @Nonnull final SparseArray<List<TransactionRow>> pages)
+	{
+		this.size = size;
+		this.pageSize = pageSize;
+		this.pages = pages;
+	}
+
+	public static TransactionPages single(@Nonnull final TransactionRow row)
+	{
+		final SparseArray<List<TransactionRow>> pages = new SparseArray<List<TransactionRow>>(1);
+		pages.put(0, Collections.singletonList(row));
+
+		return new TransactionPages(1, 1, pages);
+	}
+
+	/**
+	 * @return number of rows of the whole list
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the row at the given position, or null if its page isn't loaded
+	 */
+	@CheckForNull
+	public TransactionRow get(final int position)
+	{
+		final List<TransactionRow> page = pages.get(position / pageSize);
+		if (page == null)
+			return null;
+
+		final int offset = position % pageSize;
+
+		return offset < page.size() ? page.get(offset) : null;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.zetacoin.core.Address;
+import com.google.zetacoin.core.ScriptException;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.Transaction.Purpose;
+import com.google.zetacoin.core.TransactionConfidence;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.wallet.DefaultCoinSelector;
+
+import de.schildbach.wallet.AddressLabelIndex;
+import de.schildbach.wallet.util.WalletUtils;
+
+/**
+ * Everything a transaction row displays, evaluated once from the transaction. Evaluating involves script parsing and
+ * the wallet, so rows are meant to be created off the main thread and replaced when the confidence of their
+ * transaction changes. Depth and broadcast peers are part of the confidence.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TransactionRow
+{
+	public enum Message
+	{
+		NONE, PURPOSE_KEY_ROTATION, OWN_UNBROADCASTED, RECEIVED_DUST, RECEIVED_UNCONFIRMED_LOCKED, RECEIVED_UNCONFIRMED_UNLOCKED, RECEIVED_DEAD
+	}
+
+	public final Transaction tx;
+	public final Sha256Hash hash;
+	public final long id;
+
+	public final BigInteger value;
+	public final boolean sent;
+	public final boolean coinBase;
+	public final boolean internal;
+	public final boolean selectable;
+
+	public final ConfidenceType confidenceType;
+	public final int depth;
+	public final int numBroadcastPeers;
+
+	public final long time;
+	@CheckForNull
+	public final String address;
+	@CheckForNull
+	public final String label;
+	public final Message message;
+
+	private TransactionRow(@Nonnull final Transaction tx, @Nonnull final Wallet wallet, @Nullable final AddressLabelIndex labelIndex)
+			throws ScriptException
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+
+		this.tx = tx;
+		this.hash = tx.getHash();
+		this.id = WalletUtils.longHash(hash);
+
+		this.value = tx.getValue(wallet);
+		this.sent = value.signum() < 0;
+		this.coinBase = tx.isCoinBase();
+		this.internal = WalletUtils.isInternal(tx);
+		this.selectable = DefaultCoinSelector.isSelectable(tx);
+
+		this.confidenceType = confidence.getConfidenceType();
+		this.depth = confidenceType == ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0;
+		this.numBroadcastPeers = confidence.numBroadcastPeers();
+
+		final Date updateTime = tx.getUpdateTime();
+		this.time = updateTime != null ? updateTime.getTime() : 0;
+
+		final Address address = coinBase || internal ? null : sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+		this.address = address != null ? address.toString() : null;
+		this.label = this.address != null && labelIndex != null ? labelIndex.resolveLabel(this.address) : null;
+
+		final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+		final boolean pending = confidenceType == ConfidenceType.PENDING;
+
+		if (tx.getPurpose() == Purpose.KEY_ROTATION)
+			this.message = Message.PURPOSE_KEY_ROTATION;
+		else if (isOwn && pending && numBroadcastPeers <= 1)
+			this.message = Message.OWN_UNBROADCASTED;
+		else if (!sent && value.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0)
+			this.message = Message.RECEIVED_DUST;
+		else if (!sent && pending)
+			this.message = tx.isTimeLocked() ? Message.RECEIVED_UNCONFIRMED_LOCKED : Message.RECEIVED_UNCONFIRMED_UNLOCKED;
+		else if (!sent && confidenceType == ConfidenceType.DEAD)
+			this.message = Message.RECEIVED_DEAD;
+		else
+			this.message = Message.NONE;
+	}
+
+	/**
+	 * @param labelIndex
+	 *            for resolving the label of the address, or null for no labels
+	 */
+	public static TransactionRow create(@Nonnull final Transaction tx, @Nonnull final Wallet wallet, @Nullable final AddressLabelIndex labelIndex)
+	{
+		try
+		{
+			return new TransactionRow(tx, wallet, labelIndex);
+		}
+		catch (final ScriptException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+}
@@ -26,32 +26,23 @@ import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import com.google.zetacoin.core.Address;
-import com.google.zetacoin.core.ScriptException;
 import com.google.zetacoin.core.Transaction;
-import com.google.zetacoin.core.Transaction.Purpose;
-import com.google.zetacoin.core.TransactionConfidence;
 import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
 import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.wallet.DefaultCoinSelector;
-
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
+
+import java.util.EnumMap;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressLabelIndex;
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.util.CircularProgressView;
-import de.schildbach.wallet.util.WalletUtils;
 import cc.mazacoin.wallet.R;
 
 /**
@@ -64,7 +55,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final Wallet wallet;
 	private final int maxConnectedPeers;
 
-	private final List<Transaction> transactions = new ArrayList<Transaction>();
+	private TransactionPages pages = TransactionPages.EMPTY;
 	private int precision = 0;
 	private int shift = 0;
 	private boolean showEmptyText = false;
@@ -76,9 +67,12 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final int colorCircularBuilding = Color.parseColor("#44ff44");
 	private final String textCoinBase;
 	private final String textInternal;
+	private final CharSequence textWarningBackup;
+	private final Map<TransactionRow.Message, CharSequence> messageTexts = new EnumMap<TransactionRow.Message, CharSequence>(
+			TransactionRow.Message.class);
+	private final Map<TransactionRow.Message, Integer> messageColors = new EnumMap<TransactionRow.Message, Integer>(TransactionRow.Message.class);
 
-	private final Map<String, String> labelCache = new HashMap<String, String>();
-	private final static String CACHE_NULL_MARKER = "";
+	private final AddressLabelIndex labelIndex;
 
 	private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
 	private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
@@ -90,6 +84,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	{
 		this.context = context;
 		inflater = LayoutInflater.from(context);
+		labelIndex = ((WalletApplication) context.getApplicationContext()).getAddressLabelIndex();
 
 		this.wallet = wallet;
 		this.maxConnectedPeers = maxConnectedPeers;
@@ -101,6 +96,24 @@ public class TransactionsListAdapter extends BaseAdapter
 		colorError = resources.getColor(R.color.fg_error);
 		textCoinBase = context.getString(R.string.wallet_transactions_fragment_coinbase);
 		textInternal = context.getString(R.string.wallet_transactions_fragment_internal);
+		textWarningBackup = Html.fromHtml(context.getString(R.string.wallet_transactions_row_warning_backup));
+
+		putMessage(TransactionRow.Message.PURPOSE_KEY_ROTATION,
+				Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation)), colorSignificant);
+		putMessage(TransactionRow.Message.OWN_UNBROADCASTED, context.getString(R.string.transaction_row_message_own_unbroadcasted),
+				colorInsignificant);
+		putMessage(TransactionRow.Message.RECEIVED_DUST, context.getString(R.string.transaction_row_message_received_dust), colorInsignificant);
+		putMessage(TransactionRow.Message.RECEIVED_UNCONFIRMED_LOCKED,
+				context.getString(R.string.transaction_row_message_received_unconfirmed_locked), colorError);
+		putMessage(TransactionRow.Message.RECEIVED_UNCONFIRMED_UNLOCKED,
+				context.getString(R.string.transaction_row_message_received_unconfirmed_unlocked), colorInsignificant);
+		putMessage(TransactionRow.Message.RECEIVED_DEAD, context.getString(R.string.transaction_row_message_received_dead), colorError);
+	}
+
+	private void putMessage(final TransactionRow.Message message, final CharSequence text, final int color)
+	{
+		messageTexts.put(message, text);
+		messageColors.put(message, color);
 	}
 
 	public void setPrecision(final int precision, final int shift)
@@ -113,23 +126,24 @@ public class TransactionsListAdapter extends BaseAdapter
 
 	public void clear()
 	{
-		transactions.clear();
+		pages = TransactionPages.EMPTY;
 
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Evaluates the transaction on the spot, so should only be used for single transactions.
+	 */
 	public void replace(@Nonnull final Transaction tx)
 	{
-		transactions.clear();
-		transactions.add(tx);
+		pages = TransactionPages.single(TransactionRow.create(tx, wallet, labelIndex));
 
 		notifyDataSetChanged();
 	}
 
-	public void replace(@Nonnull final Collection<Transaction> transactions)
+	public void replace(@Nonnull final TransactionPages pages)
 	{
-		this.transactions.clear();
-		this.transactions.addAll(transactions);
+		this.pages = pages;
 
 		showEmptyText = true;
 
@@ -145,7 +159,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	@Override
 	public int getCount()
 	{
-		int count = transactions.size();
+		int count = pages.size();
 
 		if (count == 1 && showBackupWarning)
 			count++;
@@ -153,22 +167,34 @@ public class TransactionsListAdapter extends BaseAdapter
 		return count;
 	}
 
+	public boolean isBackupWarning(final int position)
+	{
+		return position == pages.size() && showBackupWarning;
+	}
+
+	/**
+	 * @return transaction at the given position, or null for the backup warning or if the row isn't loaded yet
+	 */
 	@Override
 	public Transaction getItem(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (isBackupWarning(position))
 			return null;
 
-		return transactions.get(position);
+		final TransactionRow row = pages.get(position);
+
+		return row != null ? row.tx : null;
 	}
 
 	@Override
 	public long getItemId(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (isBackupWarning(position))
 			return 0;
 
-		return WalletUtils.longHash(transactions.get(position).getHash());
+		final TransactionRow row = pages.get(position);
+
+		return row != null ? row.id : AdapterView.INVALID_ROW_ID;
 	}
 
 	@Override
@@ -180,7 +206,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	@Override
 	public int getItemViewType(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (isBackupWarning(position))
 			return VIEW_TYPE_WARNING;
 		else
 			return VIEW_TYPE_TRANSACTION;
@@ -202,8 +228,17 @@ public class TransactionsListAdapter extends BaseAdapter
 			if (row == null)
 				row = inflater.inflate(R.layout.transaction_row_extended, null);
 
-			final Transaction tx = getItem(position);
-			bindView(row, tx);
+			// rows of pages that are still loading are kept blank
+			final TransactionRow txRow = pages.get(position);
+			if (txRow != null)
+			{
+				row.setVisibility(View.VISIBLE);
+				bindView(row, txRow);
+			}
+			else
+			{
+				row.setVisibility(View.INVISIBLE);
+			}
 		}
 		else if (type == VIEW_TYPE_WARNING)
 		{
@@ -211,7 +246,7 @@ public class TransactionsListAdapter extends BaseAdapter
 				row = inflater.inflate(R.layout.transaction_row_warning, null);
 
 			final TextView messageView = (TextView) row.findViewById(R.id.transaction_row_warning_message);
-			messageView.setText(Html.fromHtml(context.getString(R.string.wallet_transactions_row_warning_backup)));
+			messageView.setText(textWarningBackup);
 		}
 		else
 		{
@@ -221,190 +256,129 @@ public class TransactionsListAdapter extends BaseAdapter
 		return row;
 	}
 
+	/**
+	 * Evaluates the transaction on the spot. For lists, create the rows off the main thread instead.
+	 */
 	public void bindView(@Nonnull final View row, @Nonnull final Transaction tx)
 	{
-		final TransactionConfidence confidence = tx.getConfidence();
-		final ConfidenceType confidenceType = confidence.getConfidenceType();
-		final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
-		final boolean isCoinBase = tx.isCoinBase();
-		final boolean isInternal = WalletUtils.isInternal(tx);
+		bindView(row, TransactionRow.create(tx, wallet, labelIndex));
+	}
 
-		try
+	public void bindView(@Nonnull final View row, @Nonnull final TransactionRow txRow)
+	{
+		final ConfidenceType confidenceType = txRow.confidenceType;
+
+		final CircularProgressView rowConfidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
+		final TextView rowConfidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
+
+		// confidence
+		if (confidenceType == ConfidenceType.PENDING)
+		{
+			rowConfidenceCircular.setVisibility(View.VISIBLE);
+			rowConfidenceTextual.setVisibility(View.GONE);
+
+			rowConfidenceCircular.setProgress(1);
+			rowConfidenceCircular.setMaxProgress(1);
+			rowConfidenceCircular.setSize(txRow.numBroadcastPeers);
+			rowConfidenceCircular.setMaxSize(maxConnectedPeers / 2); // magic value
+			rowConfidenceCircular.setColors(colorInsignificant, colorInsignificant);
+		}
+		else if (confidenceType == ConfidenceType.BUILDING)
 		{
-			final BigInteger value = tx.getValue(wallet);
-			final boolean sent = value.signum() < 0;
+			rowConfidenceCircular.setVisibility(View.VISIBLE);
+			rowConfidenceTextual.setVisibility(View.GONE);
+
+			rowConfidenceCircular.setProgress(txRow.depth);
+			rowConfidenceCircular.setMaxProgress(txRow.coinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
+					: Constants.MAX_NUM_CONFIRMATIONS);
+			rowConfidenceCircular.setSize(1);
+			rowConfidenceCircular.setMaxSize(1);
+			rowConfidenceCircular.setColors(colorCircularBuilding, Color.DKGRAY);
+		}
+		else if (confidenceType == ConfidenceType.DEAD)
+		{
+			rowConfidenceCircular.setVisibility(View.GONE);
+			rowConfidenceTextual.setVisibility(View.VISIBLE);
 
-			final CircularProgressView rowConfidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
-			final TextView rowConfidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
+			rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_DEAD);
+			rowConfidenceTextual.setTextColor(Color.RED);
+		}
+		else
+		{
+			rowConfidenceCircular.setVisibility(View.GONE);
+			rowConfidenceTextual.setVisibility(View.VISIBLE);
 
-			// confidence
-			if (confidenceType == ConfidenceType.PENDING)
-			{
-				rowConfidenceCircular.setVisibility(View.VISIBLE);
-				rowConfidenceTextual.setVisibility(View.GONE);
-
-				rowConfidenceCircular.setProgress(1);
-				rowConfidenceCircular.setMaxProgress(1);
-				rowConfidenceCircular.setSize(confidence.numBroadcastPeers());
-				rowConfidenceCircular.setMaxSize(maxConnectedPeers / 2); // magic value
-				rowConfidenceCircular.setColors(colorInsignificant, colorInsignificant);
-			}
-			else if (confidenceType == ConfidenceType.BUILDING)
-			{
-				rowConfidenceCircular.setVisibility(View.VISIBLE);
-				rowConfidenceTextual.setVisibility(View.GONE);
-
-				rowConfidenceCircular.setProgress(confidence.getDepthInBlocks());
-				rowConfidenceCircular.setMaxProgress(isCoinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
-						: Constants.MAX_NUM_CONFIRMATIONS);
-				rowConfidenceCircular.setSize(1);
-				rowConfidenceCircular.setMaxSize(1);
-				rowConfidenceCircular.setColors(colorCircularBuilding, Color.DKGRAY);
-			}
-			else if (confidenceType == ConfidenceType.DEAD)
-			{
-				rowConfidenceCircular.setVisibility(View.GONE);
-				rowConfidenceTextual.setVisibility(View.VISIBLE);
+			rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_UNKNOWN);
+			rowConfidenceTextual.setTextColor(colorInsignificant);
+		}
 
-				rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_DEAD);
-				rowConfidenceTextual.setTextColor(Color.RED);
-			}
-			else
-			{
-				rowConfidenceCircular.setVisibility(View.GONE);
-				rowConfidenceTextual.setVisibility(View.VISIBLE);
+		// spendability
+		final int textColor;
+		if (confidenceType == ConfidenceType.DEAD)
+			textColor = Color.RED;
+		else
+			textColor = txRow.selectable ? colorSignificant : colorInsignificant;
 
-				rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_UNKNOWN);
-				rowConfidenceTextual.setTextColor(colorInsignificant);
-			}
+		// time, relative to now and therefore not part of the row
+		final TextView rowTime = (TextView) row.findViewById(R.id.transaction_row_time);
+		if (rowTime != null)
+		{
+			rowTime.setText(txRow.time != 0 ? (DateUtils.getRelativeTimeSpanString(context, txRow.time)) : null);
+			rowTime.setTextColor(textColor);
+		}
 
-			// spendability
-			final int textColor;
-			if (confidenceType == ConfidenceType.DEAD)
-				textColor = Color.RED;
-			else
-				textColor = DefaultCoinSelector.isSelectable(tx) ? colorSignificant : colorInsignificant;
+		// receiving or sending
+		final TextView rowFromTo = (TextView) row.findViewById(R.id.transaction_row_fromto);
+		if (txRow.internal)
+			rowFromTo.setText(R.string.symbol_internal);
+		else if (txRow.sent)
+			rowFromTo.setText(R.string.symbol_to);
+		else
+			rowFromTo.setText(R.string.symbol_from);
+		rowFromTo.setTextColor(textColor);
+
+		// coinbase
+		final View rowCoinbase = row.findViewById(R.id.transaction_row_coinbase);
+		rowCoinbase.setVisibility(txRow.coinBase ? View.VISIBLE : View.GONE);
+
+		// address
+		final TextView rowAddress = (TextView) row.findViewById(R.id.transaction_row_address);
+		final String label;
+		if (txRow.coinBase)
+			label = textCoinBase;
+		else if (txRow.internal)
+			label = textInternal;
+		else if (txRow.address != null)
+			label = txRow.label;
+		else
+			label = "?";
+		rowAddress.setTextColor(textColor);
+		rowAddress.setText(label != null ? label : txRow.address);
+		rowAddress.setTypeface(label != null ? Typeface.DEFAULT : Typeface.MONOSPACE);
+
+		// value
+		final CurrencyTextView rowValue = (CurrencyTextView) row.findViewById(R.id.transaction_row_value);
+		rowValue.setTextColor(textColor);
+		rowValue.setAlwaysSigned(true);
+		rowValue.setPrecision(precision, shift);
+		rowValue.setAmount(txRow.value);
+
+		// extended message
+		final View rowExtend = row.findViewById(R.id.transaction_row_extend);
+		if (rowExtend != null)
+		{
+			final TextView rowMessage = (TextView) row.findViewById(R.id.transaction_row_message);
 
-			// time
-			final TextView rowTime = (TextView) row.findViewById(R.id.transaction_row_time);
-			if (rowTime != null)
+			if (txRow.message != TransactionRow.Message.NONE)
 			{
-				final Date time = tx.getUpdateTime();
-				rowTime.setText(time != null ? (DateUtils.getRelativeTimeSpanString(context, time.getTime())) : null);
-				rowTime.setTextColor(textColor);
+				rowExtend.setVisibility(View.VISIBLE);
+				rowMessage.setText(messageTexts.get(txRow.message));
+				rowMessage.setTextColor(messageColors.get(txRow.message));
 			}
-
-			// receiving or sending
-			final TextView rowFromTo = (TextView) row.findViewById(R.id.transaction_row_fromto);
-			if (isInternal)
-				rowFromTo.setText(R.string.symbol_internal);
-			else if (sent)
-				rowFromTo.setText(R.string.symbol_to);
 			else
-				rowFromTo.setText(R.string.symbol_from);
-			rowFromTo.setTextColor(textColor);
-
-			// coinbase
-			final View rowCoinbase = row.findViewById(R.id.transaction_row_coinbase);
-			rowCoinbase.setVisibility(isCoinBase ? View.VISIBLE : View.GONE);
-
-			// address
-			final TextView rowAddress = (TextView) row.findViewById(R.id.transaction_row_address);
-			final Address address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
-			final String label;
-			if (isCoinBase)
-				label = textCoinBase;
-			else if (isInternal)
-				label = textInternal;
-			else if (address != null)
-				label = resolveLabel(address.toString());
-			else
-				label = "?";
-			rowAddress.setTextColor(textColor);
-			rowAddress.setText(label != null ? label : address.toString());
-			rowAddress.setTypeface(label != null ? Typeface.DEFAULT : Typeface.MONOSPACE);
-
-			// value
-			final CurrencyTextView rowValue = (CurrencyTextView) row.findViewById(R.id.transaction_row_value);
-			rowValue.setTextColor(textColor);
-			rowValue.setAlwaysSigned(true);
-			rowValue.setPrecision(precision, shift);
-			rowValue.setAmount(value);
-
-			// extended message
-			final View rowExtend = row.findViewById(R.id.transaction_row_extend);
-			if (rowExtend != null)
 			{
-				final TextView rowMessage = (TextView) row.findViewById(R.id.transaction_row_message);
-				final boolean isTimeLocked = tx.isTimeLocked();
 				rowExtend.setVisibility(View.GONE);
-
-				if (tx.getPurpose() == Purpose.KEY_ROTATION)
-				{
-					rowExtend.setVisibility(View.VISIBLE);
-					rowMessage.setText(Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation)));
-					rowMessage.setTextColor(colorSignificant);
-				}
-				else if (isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() <= 1)
-				{
-					rowExtend.setVisibility(View.VISIBLE);
-					rowMessage.setText(R.string.transaction_row_message_own_unbroadcasted);
-					rowMessage.setTextColor(colorInsignificant);
-				}
-				else if (!sent && value.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0)
-				{
-					rowExtend.setVisibility(View.VISIBLE);
-					rowMessage.setText(R.string.transaction_row_message_received_dust);
-					rowMessage.setTextColor(colorInsignificant);
-				}
-				else if (!sent && confidenceType == ConfidenceType.PENDING && isTimeLocked)
-				{
-					rowExtend.setVisibility(View.VISIBLE);
-					rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_locked);
-					rowMessage.setTextColor(colorError);
-				}
-				else if (!sent && confidenceType == ConfidenceType.PENDING && !isTimeLocked)
-				{
-					rowExtend.setVisibility(View.VISIBLE);
-					rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_unlocked);
-					rowMessage.setTextColor(colorInsignificant);
-				}
-				else if (!sent && confidenceType == ConfidenceType.DEAD)
-				{
-					rowExtend.setVisibility(View.VISIBLE);
-					rowMessage.setText(R.string.transaction_row_message_received_dead);
-					rowMessage.setTextColor(colorError);
-				}
 			}
 		}
-		catch (final ScriptException x)
-		{
-			throw new RuntimeException(x);
-		}
-	}
-
-	private String resolveLabel(@Nonnull final String address)
-	{
-		final String cachedLabel = labelCache.get(address);
-		if (cachedLabel == null)
-		{
-			final String label = AddressBookProvider.resolveLabel(context, address);
-			if (label != null)
-				labelCache.put(address, label);
-			else
-				labelCache.put(address, CACHE_NULL_MARKER);
-			return label;
-		}
-		else
-		{
-			return cachedLabel != CACHE_NULL_MARKER ? cachedLabel : null;
-		}
-	}
-
-	public void clearLabelCache()
-	{
-		labelCache.clear();
-
-		notifyDataSetChanged();
 	}
 }
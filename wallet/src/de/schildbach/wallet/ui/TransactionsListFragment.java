@@ -18,18 +18,15 @@
 package de.schildbach.wallet.ui;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.nfc.NfcManager;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
@@ -38,7 +35,10 @@ import android.support.v4.content.Loader;
 import android.text.SpannableStringBuilder;
 import android.text.format.DateUtils;
 import android.text.style.StyleSpan;
+import android.util.SparseArray;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 
 import com.actionbarsherlock.app.SherlockListFragment;
@@ -48,39 +48,43 @@ import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.google.zetacoin.core.Address;
 import com.google.zetacoin.core.ScriptException;
+import com.google.zetacoin.core.Sha256Hash;
 import com.google.zetacoin.core.Transaction;
 import com.google.zetacoin.core.Transaction.Purpose;
-import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
 import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.script.Script;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 
 import java.math.BigInteger;
 import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressLabelIndex;
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.TransactionIndex;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.WalletChangeDispatcher;
 import de.schildbach.wallet.util.BitmapFragment;
 import de.schildbach.wallet.util.Nfc;
 import de.schildbach.wallet.util.Qr;
-import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
+import de.schildbach.wallet.util.QrRenderer;
 import de.schildbach.wallet.util.WalletUtils;
 import cc.mazacoin.wallet.R;
 
 /**
  * @author Andreas Schildbach
  */
-public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<List<Transaction>>, OnSharedPreferenceChangeListener
+public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<TransactionPages>,
+		OnSharedPreferenceChangeListener
 {
 	public enum Direction
 	{
@@ -92,7 +96,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	private Wallet wallet;
 	private SharedPreferences prefs;
 	private NfcManager nfcManager;
-	private ContentResolver resolver;
 	private LoaderManager loaderManager;
 
 	private TransactionsListAdapter adapter;
@@ -100,10 +103,10 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@CheckForNull
 	private Direction direction;
 
-	private final Handler handler = new Handler();
-
 	private static final String KEY_DIRECTION = "direction";
 	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int PAGE_SIZE = 50;
+	private static final int PAGE_PREFETCH = PAGE_SIZE / 2;
 	private static final Uri KEY_ROTATION_URI = Uri.parse("http://bitcoin.org/en/alert/2013-08-11-android");
 
 	public static TransactionsListFragment instance(@Nullable final Direction direction)
@@ -117,12 +120,13 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		return fragment;
 	}
 
-	private final ContentObserver addressBookObserver = new ContentObserver(handler)
+	private final QrRenderer.Callback qrRendererCallback = new QrRenderer.Callback()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onQrRendered(@Nonnull final String content, @CheckForNull final Bitmap bitmap)
 		{
-			adapter.clearLabelCache();
+			if (bitmap != null && isResumed())
+				BitmapFragment.show(getFragmentManager(), bitmap);
 		}
 	};
 
@@ -136,7 +140,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		this.wallet = application.getWallet();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 		this.nfcManager = (NfcManager) activity.getSystemService(Context.NFC_SERVICE);
-		this.resolver = activity.getContentResolver();
 		this.loaderManager = getLoaderManager();
 	}
 
@@ -160,14 +163,10 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	{
 		super.onResume();
 
-		resolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, addressBookObserver);
-
 		prefs.registerOnSharedPreferenceChangeListener(this);
 
 		loaderManager.initLoader(0, null, this);
 
-		wallet.addEventListener(transactionChangeListener);
-
 		updateView();
 	}
 
@@ -184,19 +183,18 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 			emptyText.append("\n\n").append(getString(R.string.wallet_transactions_fragment_empty_text_howto));
 
 		setEmptyText(emptyText);
+
+		getListView().setOnScrollListener(scrollListener);
 	}
 
 	@Override
 	public void onPause()
 	{
-		wallet.removeEventListener(transactionChangeListener);
-		transactionChangeListener.removeCallbacks();
-
 		loaderManager.destroyLoader(0);
 
 		prefs.unregisterOnSharedPreferenceChangeListener(this);
 
-		resolver.unregisterContentObserver(addressBookObserver);
+		application.getQrRenderer().cancel(qrRendererCallback);
 
 		super.onPause();
 	}
@@ -204,10 +202,13 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@Override
 	public void onListItemClick(final ListView l, final View v, final int position, final long id)
 	{
-		final Transaction tx = (Transaction) adapter.getItem(position);
+		final Transaction tx = adapter.getItem(position);
 
-		if (tx == null)
+		// tx is null while its page is still loading
+		if (adapter.isBackupWarning(position))
 			handleBackupWarningClick();
+		else if (tx == null)
+			return;
 		else if (tx.getPurpose() == Purpose.KEY_ROTATION)
 			handleKeyRotationClick();
 		else
@@ -253,7 +254,7 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 					if (tx.isCoinBase())
 						label = getString(R.string.wallet_transactions_fragment_coinbase);
 					else if (address != null)
-						label = AddressBookProvider.resolveLabel(activity, address.toString());
+						label = application.getAddressLabelIndex().resolveLabel(address.toString());
 					else
 						label = "?";
 
@@ -320,9 +321,7 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 
 			private void handleShowQr()
 			{
-				final int size = (int) (384 * getResources().getDisplayMetrics().density);
-				final Bitmap qrCodeBitmap = Qr.bitmap(Qr.encodeBinary(serializedTx), size);
-				BitmapFragment.show(getFragmentManager(), qrCodeBitmap);
+				application.getQrRenderer().render(Qr.encodeBinary(serializedTx), ErrorCorrectionLevel.H, qrRendererCallback);
 			}
 		});
 	}
@@ -338,48 +337,72 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	}
 
 	@Override
-	public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
+	public Loader<TransactionPages> onCreateLoader(final int id, final Bundle args)
 	{
-		return new TransactionsLoader(activity, wallet, direction);
+		return new TransactionsLoader(activity, wallet, application.getWalletChangeDispatcher(), application.getTransactionIndex(),
+				application.getAddressLabelIndex(), direction);
 	}
 
 	@Override
-	public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
+	public void onLoadFinished(final Loader<TransactionPages> loader, final TransactionPages pages)
 	{
-		adapter.replace(transactions);
+		adapter.replace(pages);
 	}
 
 	@Override
-	public void onLoaderReset(final Loader<List<Transaction>> loader)
+	public void onLoaderReset(final Loader<TransactionPages> loader)
 	{
 		// don't clear the adapter, because it will confuse users
 	}
 
-	private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(THROTTLE_MS)
+	private final OnScrollListener scrollListener = new OnScrollListener()
 	{
 		@Override
-		public void onThrottledWalletChanged()
+		public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount, final int totalItemCount)
 		{
-			adapter.notifyDataSetChanged();
+			final Loader<TransactionPages> loader = loaderManager.getLoader(0);
+			if (loader != null)
+				((TransactionsLoader) loader).setVisibleRange(firstVisibleItem, visibleItemCount);
 		}
 
-        @Override
-        public void onScriptsAdded(Wallet wallet, List<Script> scripts) {
-
-        }
-    };
+		@Override
+		public void onScrollStateChanged(final AbsListView view, final int scrollState)
+		{
+		}
+	};
 
-	private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>>
+	/**
+	 * Loads the pages around the visible part of the list. Keeps the rows of the previous load and only creates rows
+	 * for transactions that are new or have changed since, or have just been scrolled to.
+	 */
+	private static class TransactionsLoader extends AsyncTaskLoader<TransactionPages>
 	{
 		private final Wallet wallet;
+		private final WalletChangeDispatcher walletChangeDispatcher;
+		private final TransactionIndex transactionIndex;
+		private final AddressLabelIndex labelIndex;
 		@CheckForNull
 		private final Direction direction;
 
-		private TransactionsLoader(final Context context, @Nonnull final Wallet wallet, @Nullable final Direction direction)
+		// only used by loadInBackground, as loads don't overlap
+		private Map<Sha256Hash, TransactionRow> rows = new HashMap<Sha256Hash, TransactionRow>();
+
+		// guarded by invalidated
+		private final Set<Sha256Hash> invalidated = new HashSet<Sha256Hash>();
+		private boolean invalidatedAll = false;
+		private int firstPage = 0;
+		private int lastPage = 0;
+
+		private TransactionsLoader(final Context context, @Nonnull final Wallet wallet,
+				@Nonnull final WalletChangeDispatcher walletChangeDispatcher, @Nonnull final TransactionIndex transactionIndex,
+				@Nonnull final AddressLabelIndex labelIndex, @Nullable final Direction direction)
 		{
 			super(context);
 
 			this.wallet = wallet;
+			this.walletChangeDispatcher = walletChangeDispatcher;
+			this.transactionIndex = transactionIndex;
+			this.labelIndex = labelIndex;
 			this.direction = direction;
 		}
 
@@ -388,83 +411,132 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		{
 			super.onStartLoading();
 
-			wallet.addEventListener(transactionAddRemoveListener);
-			transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
+			walletChangeDispatcher.addListener(walletChangeListener, THROTTLE_MS);
+			labelIndex.addListener(labelsListener);
 
+			// changes while stopped haven't been tracked
+			invalidateAll();
 			forceLoad();
 		}
 
 		@Override
 		protected void onStopLoading()
 		{
-			wallet.removeEventListener(transactionAddRemoveListener);
-			transactionAddRemoveListener.removeCallbacks();
+			labelIndex.removeListener(labelsListener);
+			walletChangeDispatcher.removeListener(walletChangeListener);
 
 			super.onStopLoading();
 		}
 
+		public void setVisibleRange(final int firstPosition, final int numPositions)
+		{
+			final int firstPage = Math.max(firstPosition - PAGE_PREFETCH, 0) / PAGE_SIZE;
+			final int lastPage = (firstPosition + numPositions + PAGE_PREFETCH) / PAGE_SIZE;
+
+			synchronized (invalidated)
+			{
+				if (firstPage == this.firstPage && lastPage == this.lastPage)
+					return;
+
+				this.firstPage = firstPage;
+				this.lastPage = lastPage;
+			}
+
+			if (isStarted())
+				forceLoad();
+		}
+
 		@Override
-		public List<Transaction> loadInBackground()
+		public TransactionPages loadInBackground()
 		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
-			final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
+			final int firstPage, lastPage;
+			final Set<Sha256Hash> invalidated;
+			synchronized (this.invalidated)
+			{
+				firstPage = this.firstPage;
+				lastPage = this.lastPage;
+
+				if (invalidatedAll)
+					rows.clear();
+				invalidatedAll = false;
+
+				invalidated = new HashSet<Sha256Hash>(this.invalidated);
+				this.invalidated.clear();
+			}
 
-			try
+			// size and window from the same snapshot, as the index may change in between
+			final List<Transaction> snapshot = transactionIndex.getTransactions(direction);
+			final int size = snapshot.size();
+			final List<Transaction> transactions = snapshot.subList(Math.min(firstPage * PAGE_SIZE, size), Math.min((lastPage + 1) * PAGE_SIZE, size));
+
+			// rows outside of the loaded pages are dropped, so memory doesn't grow with the wallet
+			final Map<Sha256Hash, TransactionRow> newRows = new HashMap<Sha256Hash, TransactionRow>(transactions.size());
+			final SparseArray<List<TransactionRow>> pages = new SparseArray<List<TransactionRow>>(lastPage - firstPage + 1);
+
+			for (int i = 0; i < transactions.size(); i++)
 			{
-				for (final Transaction tx : transactions)
+				final Transaction tx = transactions.get(i);
+				final Sha256Hash hash = tx.getHash();
+
+				TransactionRow row = rows.get(hash);
+				if (row == null || invalidated.contains(hash))
+					row = TransactionRow.create(tx, wallet, labelIndex);
+				newRows.put(hash, row);
+
+				final int page = firstPage + i / PAGE_SIZE;
+				List<TransactionRow> pageRows = pages.get(page);
+				if (pageRows == null)
 				{
-					final boolean sent = tx.getValue(wallet).signum() < 0;
-					if ((direction == Direction.RECEIVED && !sent) || direction == null || (direction == Direction.SENT && sent))
-						filteredTransactions.add(tx);
+					pageRows = new ArrayList<TransactionRow>(PAGE_SIZE);
+					pages.put(page, pageRows);
 				}
-			}
-			catch (final ScriptException x)
-			{
-				throw new RuntimeException(x);
+				pageRows.add(row);
 			}
 
-			Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+			rows = newRows;
 
-			return filteredTransactions;
+			return new TransactionPages(size, PAGE_SIZE, pages);
 		}
 
-		private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true,
-				false)
+		private void invalidateAll()
 		{
-			@Override
-			public void onThrottledWalletChanged()
+			synchronized (invalidated)
 			{
-				forceLoad();
+				invalidatedAll = true;
+				invalidated.clear();
 			}
+		}
 
-            @Override
-            public void onScriptsAdded(Wallet wallet, List<Script> scripts) {
-
-            }
-        };
-
-		private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>()
+		private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
 		{
 			@Override
-			public int compare(final Transaction tx1, final Transaction tx2)
+			public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
 			{
-				final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-				final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-
-				if (pending1 != pending2)
-					return pending1 ? -1 : 1;
+				if (changes.isFull())
+				{
+					invalidateAll();
+				}
+				else
+				{
+					synchronized (invalidated)
+					{
+						invalidated.addAll(changes.getAdded());
+						invalidated.addAll(changes.getConfidenceChanged());
+					}
+				}
 
-				final Date updateTime1 = tx1.getUpdateTime();
-				final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-				final Date updateTime2 = tx2.getUpdateTime();
-				final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
+				// also picks up moves, e.g. from pending to confirmed
+				forceLoad();
+			}
+		};
 
-				if (time1 > time2)
-					return -1;
-				else if (time1 < time2)
-					return 1;
-				else
-					return 0;
+		private final AddressLabelIndex.Listener labelsListener = new AddressLabelIndex.Listener()
+		{
+			@Override
+			public void onLabelsChanged()
+			{
+				invalidateAll();
+				forceLoad();
 			}
 		};
 	}
@@ -483,6 +555,5 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		final int btcShift = precision.length() == 3 ? precision.charAt(2) - '0' : 0;
 
 		adapter.setPrecision(btcPrecision, btcShift);
-		adapter.clearLabelCache();
 	}
 }
@@ -17,16 +17,12 @@
 
 package de.schildbach.wallet.ui;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigInteger;
 import java.net.SocketException;
@@ -45,6 +41,7 @@ import javax.annotation.Nonnull;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
@@ -90,7 +87,7 @@ import cc.mazacoin.wallet.R;
 /**
  * @author Andreas Schildbach
  */
-public final class WalletActivity extends AbstractOnDemandServiceActivity
+public final class WalletActivity extends AbstractOnDemandServiceActivity implements ImportKeysTask.Callback
 {
 	private static final int DIALOG_IMPORT_KEYS = 0;
 	private static final int DIALOG_EXPORT_KEYS = 1;
@@ -100,26 +97,39 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	private Wallet wallet;
 	private SharedPreferences prefs;
 
+	private ProgressDialog importKeysProgressDialog;
+
 	private static final int REQUEST_CODE_SCAN = 0;
 
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
+		super.onCreate(savedStateIfWalletLoaded(savedInstanceState));
 
 		application = getWalletApplication();
-		wallet = application.getWallet();
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
-		setContentView(R.layout.wallet_content);
+		touchLastUsed();
+
+		setWalletContentView(R.layout.wallet_content, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				onWalletLoaded();
+			}
+		});
+	}
+
+	private void onWalletLoaded()
+	{
+		wallet = application.getWallet();
 
         // TODO: Build version announcement site
         // For now, mute alerts
 //		if (savedInstanceState == null)
 //			checkAlerts();
 
-		touchLastUsed();
-
 		handleIntent(getIntent());
 	}
 
@@ -133,10 +143,23 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 		checkLowStorageAlert();
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		// a running import survives configuration changes and shows a new dialog
+		if (importKeysProgressDialog != null)
+			importKeysProgressDialog.dismiss();
+
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onNewIntent(final Intent intent)
 	{
-		handleIntent(intent);
+		if (wallet != null)
+			handleIntent(intent);
+		else
+			setIntent(intent);
 	}
 
 	private void handleIntent(@Nonnull final Intent intent)
@@ -207,6 +230,9 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	{
 		super.onCreateOptionsMenu(menu);
 
+		if (wallet == null)
+			return false;
+
 		getSupportMenuInflater().inflate(R.menu.wallet_options, menu);
 		menu.findItem(R.id.wallet_options_donate).setVisible(!Constants.TEST);
 
@@ -218,6 +244,9 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	{
 		super.onPrepareOptionsMenu(menu);
 
+		if (wallet == null)
+			return false;
+
 		final Resources res = getResources();
 		final String externalStorageState = Environment.getExternalStorageState();
 
@@ -771,92 +800,118 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 
 	private void importPrivateKeys(@Nonnull final File file, @Nonnull final String password)
 	{
+		final char[] passwordChars;
+		if (Crypto.OPENSSL_FILE_FILTER.accept(file))
+			passwordChars = password.toCharArray();
+		else if (WalletUtils.KEYS_FILE_FILTER.accept(file))
+			passwordChars = null;
+		else
+			throw new IllegalStateException(file.getAbsolutePath());
+
+		final InputStream is;
 		try
 		{
-			final Reader plainReader;
-			if (Crypto.OPENSSL_FILE_FILTER.accept(file))
-			{
-				final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF_8));
-				final StringBuilder cipherText = new StringBuilder();
-				while (true)
-				{
-					final String line = cipherIn.readLine();
-					if (line == null)
-						break;
+			is = new FileInputStream(file);
+		}
+		catch (final IOException x)
+		{
+			handleImportKeysFailure(x);
+			return;
+		}
 
-					cipherText.append(line);
-				}
-				cipherIn.close();
+		ImportKeysTask.start(getSupportFragmentManager(), wallet, is, passwordChars);
+	}
 
-				final String plainText = Crypto.decrypt(cipherText.toString(), password.toCharArray());
-				plainReader = new StringReader(plainText);
-			}
-			else if (WalletUtils.KEYS_FILE_FILTER.accept(file))
-			{
-				plainReader = new InputStreamReader(new FileInputStream(file), Constants.UTF_8);
-			}
-			else
-			{
-				throw new IllegalStateException(file.getAbsolutePath());
-			}
+	@Override
+	public void onImportKeysProgress(final int numLinesParsed, final int numLines)
+	{
+		if (importKeysProgressDialog == null)
+		{
+			importKeysProgressDialog = ImportKeysTask.progressDialog(this);
+			importKeysProgressDialog.show();
+		}
 
-			final BufferedReader keyReader = new BufferedReader(plainReader);
-			final List<ECKey> importedKeys = WalletUtils.readKeys(keyReader);
-			keyReader.close();
+		if (numLines > 0)
+		{
+			importKeysProgressDialog.setIndeterminate(false);
+			importKeysProgressDialog.setMax(numLines);
+			importKeysProgressDialog.setProgress(numLinesParsed);
+		}
+	}
 
-			final int numKeysToImport = importedKeys.size();
-			final int numKeysImported = wallet.addKeys(importedKeys);
+	@Override
+	public void onImportKeysSuccess(final int numKeysToImport, final int numKeysImported, final long earliestKeyCreationTime)
+	{
+		dismissImportKeysProgressDialog();
 
-			final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
-			dialog.setInverseBackgroundForced(true);
-			final StringBuilder message = new StringBuilder();
-			if (numKeysImported > 0)
-				message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
-			if (numKeysImported < numKeysToImport)
-			{
-				if (message.length() > 0)
-					message.append('\n');
-				message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
-			}
-			if (numKeysImported > 0)
-			{
-				if (message.length() > 0)
-					message.append("\n\n");
-				message.append(getString(R.string.import_keys_dialog_success_reset));
-			}
-			dialog.setMessage(message);
-			if (numKeysImported > 0)
+		final boolean needsRescan = numKeysImported > 0 && ImportKeysTask.needsRescan(this, earliestKeyCreationTime);
+
+		final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
+		dialog.setInverseBackgroundForced(true);
+		final StringBuilder message = new StringBuilder();
+		if (numKeysImported > 0)
+			message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
+		if (numKeysImported < numKeysToImport)
+		{
+			if (message.length() > 0)
+				message.append('\n');
+			message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
+		}
+		if (needsRescan)
+		{
+			if (message.length() > 0)
+				message.append("\n\n");
+			message.append(getString(R.string.import_keys_dialog_success_reset));
+		}
+		dialog.setMessage(message);
+		if (needsRescan)
+		{
+			dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
 			{
-				dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
+				@Override
+				public void onClick(final DialogInterface dialog, final int id)
 				{
-					@Override
-					public void onClick(final DialogInterface dialog, final int id)
-					{
-						getWalletApplication().resetBlockchain();
-						finish();
-					}
-				});
-				dialog.setNegativeButton(R.string.button_dismiss, null);
-			}
-			else
-			{
-				dialog.setNeutralButton(R.string.button_dismiss, null);
-			}
-			dialog.show();
-
-			log.info("imported " + numKeysImported + " of " + numKeysToImport + " private keys");
+					getWalletApplication().resetBlockchain();
+					finish();
+				}
+			});
+			dialog.setNegativeButton(R.string.button_dismiss, null);
 		}
-		catch (final IOException x)
+		else
 		{
-			new AlertDialog.Builder(this).setInverseBackgroundForced(true).setIcon(android.R.drawable.ic_dialog_alert)
-					.setTitle(R.string.import_export_keys_dialog_failure_title)
-					.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage())).setNeutralButton(R.string.button_dismiss, null)
-					.show();
+			dialog.setNeutralButton(R.string.button_dismiss, null);
+		}
+		dialog.show();
+	}
+
+	@Override
+	public void onImportKeysFailure(@Nonnull final Exception x)
+	{
+		dismissImportKeysProgressDialog();
 
-			log.info("problem reading private keys", x);
+		handleImportKeysFailure(x);
+	}
+
+	private void dismissImportKeysProgressDialog()
+	{
+		if (importKeysProgressDialog != null)
+		{
+			importKeysProgressDialog.dismiss();
+			importKeysProgressDialog = null;
 		}
 	}
 
+	private void handleImportKeysFailure(@Nonnull final Exception x)
+	{
+		final String message = x instanceof IOException ? x.getMessage() : x.toString();
+
+		new AlertDialog.Builder(this).setInverseBackgroundForced(true).setIcon(android.R.drawable.ic_dialog_alert)
+				.setTitle(R.string.import_export_keys_dialog_failure_title).setMessage(getString(R.string.import_keys_dialog_failure, message))
+				.setNeutralButton(R.string.button_dismiss, null).show();
+
+		log.info("problem reading private keys", x);
+	}
+
 	private void exportPrivateKeys(@Nonnull final String password)
 	{
 		try
@@ -872,16 +927,10 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 				if (!wallet.isKeyRotating(key))
 					keys.add(key);
 
-			final StringWriter plainOut = new StringWriter();
+			final Writer plainOut = new OutputStreamWriter(Crypto.encryptingStream(new FileOutputStream(file), password.toCharArray()),
+					Constants.UTF_8);
 			WalletUtils.writeKeys(plainOut, keys);
 			plainOut.close();
-			final String plainText = plainOut.toString();
-
-			final String cipherText = Crypto.encrypt(plainText, password.toCharArray());
-
-			final Writer cipherOut = new OutputStreamWriter(new FileOutputStream(file), Constants.UTF_8);
-			cipherOut.write(cipherText);
-			cipherOut.close();
 
 			final AlertDialog.Builder dialog = new AlertDialog.Builder(this).setInverseBackgroundForced(true).setMessage(
 					getString(R.string.export_keys_dialog_success, file));
@@ -38,15 +38,16 @@ import com.google.zetacoin.core.Address;
 import com.google.zetacoin.core.ECKey;
 import com.google.zetacoin.core.Wallet;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressLabelIndex;
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.util.WalletUtils;
 import cc.mazacoin.wallet.R;
 
 public class WalletAddressesAdapter extends BaseAdapter
 {
-	private final Context context;
 	private final Wallet wallet;
+	private final AddressLabelIndex labelIndex;
 	private final DateFormat dateFormat;
 	private final int colorSignificant;
 	private final int colorInsignificant;
@@ -61,8 +62,8 @@ public class WalletAddressesAdapter extends BaseAdapter
 	{
 		final Resources res = context.getResources();
 
-		this.context = context;
 		this.wallet = wallet;
+		this.labelIndex = ((WalletApplication) context.getApplicationContext()).getAddressLabelIndex();
 		dateFormat = android.text.format.DateFormat.getDateFormat(context);
 		colorSignificant = res.getColor(R.color.fg_significant);
 		colorInsignificant = res.getColor(R.color.fg_insignificant);
@@ -130,7 +131,7 @@ public class WalletAddressesAdapter extends BaseAdapter
 		addressView.setTextColor(isRotateKey ? colorInsignificant : colorSignificant);
 
 		final TextView labelView = (TextView) row.findViewById(R.id.address_book_row_label);
-		final String label = AddressBookProvider.resolveLabel(context, address.toString());
+		final String label = labelIndex.resolveLabel(address.toString());
 		if (label != null)
 		{
 			labelView.setText(label);
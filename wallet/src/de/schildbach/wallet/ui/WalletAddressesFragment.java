@@ -25,12 +25,10 @@ import javax.annotation.Nonnull;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -53,7 +51,7 @@ import com.google.zetacoin.core.Wallet;
 import com.google.zetacoin.core.WalletEventListener;
 import com.google.zetacoin.uri.BitcoinURI;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressLabelIndex;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.util.BitmapFragment;
@@ -69,7 +67,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	private AddressBookActivity activity;
 	private WalletApplication application;
 	private Wallet wallet;
-	private ContentResolver contentResolver;
 	private SharedPreferences prefs;
 
 	private WalletAddressesAdapter adapter;
@@ -82,7 +79,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 		this.activity = (AddressBookActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
 		this.wallet = application.getWallet();
-		this.contentResolver = activity.getContentResolver();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 	}
 
@@ -106,7 +102,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	{
 		super.onResume();
 
-		contentResolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, contentObserver);
+		application.getAddressLabelIndex().addListener(labelsListener);
 
 		wallet.addEventListener(walletListener);
 		walletListener.onKeysAdded(null, null); // trigger initial load of keys
@@ -119,7 +115,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	{
 		wallet.removeEventListener(walletListener);
 
-		contentResolver.unregisterContentObserver(contentObserver);
+		application.getAddressLabelIndex().removeListener(labelsListener);
 
 		super.onPause();
 	}
@@ -181,7 +177,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 				final ECKey key = getKey(position);
 
 				final String address = key.toAddress(Constants.NETWORK_PARAMETERS).toString();
-				final String label = AddressBookProvider.resolveLabel(activity, address);
+				final String label = application.getAddressLabelIndex().resolveLabel(address);
 				mode.setTitle(label != null ? label : WalletUtils.formatHash(address, Constants.ADDRESS_FORMAT_GROUP_SIZE, 0));
 
 				return true;
@@ -250,8 +246,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 			private void handleShowQr(@Nonnull final Address address)
 			{
 				final String uri = BitcoinURI.convertToBitcoinURI(address, null, null, null);
-				final int size = (int) (256 * getResources().getDisplayMetrics().density);
-				BitmapFragment.show(getFragmentManager(), Qr.bitmap(uri, size));
+				BitmapFragment.show(getFragmentManager(), Qr.bitmap(uri));
 			}
 
 			private void handleCopyToClipboard(@Nonnull final Address address)
@@ -278,10 +273,10 @@ public final class WalletAddressesFragment extends SherlockListFragment
 
 	private final Handler handler = new Handler();
 
-	private final ContentObserver contentObserver = new ContentObserver(handler)
+	private final AddressLabelIndex.Listener labelsListener = new AddressLabelIndex.Listener()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged()
 		{
 			updateView();
 		}
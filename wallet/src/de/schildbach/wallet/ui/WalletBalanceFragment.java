@@ -43,7 +43,6 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
-import com.google.zetacoin.core.Wallet;
 
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.ExchangeRatesProvider;
@@ -60,7 +59,6 @@ public final class WalletBalanceFragment extends Fragment
 {
 	private WalletApplication application;
 	private AbstractWalletActivity activity;
-	private Wallet wallet;
 	private SharedPreferences prefs;
 	private LoaderManager loaderManager;
 
@@ -92,7 +90,6 @@ public final class WalletBalanceFragment extends Fragment
 
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
-		this.wallet = application.getWallet();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 		this.loaderManager = getLoaderManager();
 
@@ -281,7 +278,7 @@ public final class WalletBalanceFragment extends Fragment
 		@Override
 		public Loader<BigInteger> onCreateLoader(final int id, final Bundle args)
 		{
-			return new WalletBalanceLoader(activity, wallet);
+			return new WalletBalanceLoader(activity);
 		}
 
 		@Override
@@ -309,7 +306,7 @@ public final class WalletBalanceFragment extends Fragment
 		@Override
 		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
 		{
-			if (data != null)
+			if (data != null && data.getCount() > 0)
 			{
 				data.moveToFirst();
 				exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
@@ -20,29 +20,26 @@ package de.schildbach.wallet.ui;
 import android.content.Context;
 import android.support.v4.content.AsyncTaskLoader;
 
-import com.google.zetacoin.core.Wallet;
-import com.google.zetacoin.core.Wallet.BalanceType;
-import com.google.zetacoin.script.Script;
-
 import java.math.BigInteger;
-import java.util.List;
-
-import javax.annotation.Nonnull;
 
-import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.WalletChangeDispatcher;
 
 /**
  * @author Andreas Schildbach
  */
 public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 {
-	private final Wallet wallet;
+	private final WalletApplication application;
+	private WalletChangeDispatcher walletChangeDispatcher;
 
-	public WalletBalanceLoader(final Context context, @Nonnull final Wallet wallet)
+	private static final long THROTTLE_MS = 500;
+
+	public WalletBalanceLoader(final Context context)
 	{
 		super(context);
 
-		this.wallet = wallet;
+		this.application = (WalletApplication) context.getApplicationContext();
 	}
 
 	@Override
@@ -50,7 +47,19 @@ public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 	{
 		super.onStartLoading();
 
-		wallet.addEventListener(walletChangeListener);
+		// the dispatcher only exists once the wallet is loaded
+		application.runWhenWalletLoaded(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (isStarted() && walletChangeDispatcher == null)
+				{
+					walletChangeDispatcher = application.getWalletChangeDispatcher();
+					walletChangeDispatcher.addListener(walletChangeListener, THROTTLE_MS);
+				}
+			}
+		});
 
 		forceLoad();
 	}
@@ -58,8 +67,11 @@ public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 	@Override
 	protected void onStopLoading()
 	{
-		wallet.removeEventListener(walletChangeListener);
-		walletChangeListener.removeCallbacks();
+		if (walletChangeDispatcher != null)
+		{
+			walletChangeDispatcher.removeListener(walletChangeListener);
+			walletChangeDispatcher = null;
+		}
 
 		super.onStopLoading();
 	}
@@ -67,20 +79,16 @@ public final class WalletBalanceLoader extends AsyncTaskLoader<BigInteger>
 	@Override
 	public BigInteger loadInBackground()
 	{
-		return wallet.getBalance(BalanceType.ESTIMATED);
+		// waits for the wallet to load, off the main thread
+		return application.getBalanceTracker().getBalance().estimated;
 	}
 
-	private final ThrottlingWalletChangeListener walletChangeListener = new ThrottlingWalletChangeListener()
+	private final WalletChangeDispatcher.Listener walletChangeListener = new WalletChangeDispatcher.Listener()
 	{
 		@Override
-		public void onThrottledWalletChanged()
+		public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
 		{
 			forceLoad();
 		}
-
-        @Override
-        public void onScriptsAdded(Wallet wallet, List<Script> scripts) {
-
-        }
-    };
+	};
 }
@@ -16,12 +16,12 @@
 
 package de.schildbach.wallet.util;
 
-import java.nio.charset.Charset;
-
 import javax.annotation.Nonnull;
 
 /**
- * Base43, derived from bitcoinj Base58
+ * Base43, derived from bitcoinj Base58. Instead of dividing the whole number by 43 (or 256) once per output digit, the
+ * conversion works on 32 bit limbs and in radix 43^5, which cuts the number of passes and the work per pass by more
+ * than an order of magnitude. Output is identical to the plain byte-wise conversion.
  * 
  * @author Andreas Schildbach
  */
@@ -39,42 +39,94 @@ public class Base43
 			INDEXES[ALPHABET[i]] = i;
 	}
 
-	public static String encode(@Nonnull byte[] input)
+	// largest power of 43 that keeps (remainder << 32 | limb) within a long
+	private static final int DIGITS_PER_CHUNK = 5;
+	private static final long[] POWERS = new long[DIGITS_PER_CHUNK + 1];
+	static
+	{
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++)
+			POWERS[i] = POWERS[i - 1] * 43;
+	}
+	private static final long CHUNK_RADIX = POWERS[DIGITS_PER_CHUNK];
+
+	private static final long LIMB_MASK = 0xffffffffL;
+
+	private static final class Scratch
+	{
+		public int[] limbs = new int[64];
+		public char[] chars = new char[512];
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{
+			return new Scratch();
+		}
+	};
+
+	public static String encode(@Nonnull final byte[] input)
 	{
 		if (input.length == 0)
 			return "";
 
-		input = copyOfRange(input, 0, input.length);
-
 		// Count leading zeroes.
 		int zeroCount = 0;
 		while (zeroCount < input.length && input[zeroCount] == 0)
 			++zeroCount;
 
-		// The actual encoding.
-		final byte[] temp = new byte[input.length * 2];
-		int j = temp.length;
+		final Scratch scratch = SCRATCH.get();
+
+		// Big-endian 32 bit limbs, most significant limb first.
+		final int numBytes = input.length - zeroCount;
+		final int numLimbs = (numBytes + 3) / 4;
+		final int[] limbs = scratch.limbs = ensureCapacity(scratch.limbs, numLimbs);
+		for (int i = 0, b = input.length - 1; i < numLimbs; i++)
+		{
+			int limb = 0;
+			for (int shift = 0; shift < 32 && b >= zeroCount; shift += 8, b--)
+				limb |= (input[b] & 0xff) << shift;
+			limbs[numLimbs - 1 - i] = limb;
+		}
+
+		// Upper bound of digits is numBytes * log(256) / log(43), rounded up to whole chunks.
+		final int maxDigits = (numBytes * 148 / 100 + DIGITS_PER_CHUNK) / DIGITS_PER_CHUNK * DIGITS_PER_CHUNK + zeroCount;
+		final char[] chars = scratch.chars = ensureCapacity(scratch.chars, maxDigits);
+		int j = maxDigits;
 
-		int startAt = zeroCount;
-		while (startAt < input.length)
+		// The actual encoding, one chunk of digits per pass.
+		int startAt = 0;
+		while (startAt < numLimbs)
 		{
-			byte mod = divmod43(input, startAt);
-			if (input[startAt] == 0)
+			long remainder = 0;
+			for (int i = startAt; i < numLimbs; i++)
+			{
+				final long temp = (remainder << 32) | (limbs[i] & LIMB_MASK);
+				limbs[i] = (int) (temp / CHUNK_RADIX);
+				remainder = temp % CHUNK_RADIX;
+			}
+
+			while (startAt < numLimbs && limbs[startAt] == 0)
 				++startAt;
-			temp[--j] = (byte) ALPHABET[mod];
+
+			for (int d = 0; d < DIGITS_PER_CHUNK; d++)
+			{
+				chars[--j] = ALPHABET[(int) (remainder % 43)];
+				remainder /= 43;
+			}
 		}
 
-		// Strip extra '1' if there are some after decoding.
-		while (j < temp.length && temp[j] == ALPHABET[0])
+		// Strip extra '0' from the last chunk.
+		while (j < maxDigits && chars[j] == ALPHABET[0])
 			++j;
 
-		// Add as many leading '1' as there were leading zeros.
+		// Add as many leading '0' as there were leading zeros.
 		while (--zeroCount >= 0)
-			temp[--j] = (byte) ALPHABET[0];
-
-		final byte[] output = copyOfRange(temp, j, temp.length);
+			chars[--j] = ALPHABET[0];
 
-		return new String(output, Charset.forName("US-ASCII"));
+		return new String(chars, j, maxDigits - j);
 	}
 
 	public static byte[] decode(@Nonnull final String input) throws IllegalArgumentException
@@ -82,92 +134,84 @@ public class Base43
 		if (input.length() == 0)
 			return new byte[0];
 
-		final byte[] input43 = new byte[input.length()];
-		// Transform the String to a base43 byte sequence
+		// Validate and count leading zeroes.
+		int zeroCount = 0;
 		for (int i = 0; i < input.length(); ++i)
 		{
-			final char c = input.charAt(i);
-
-			int digit43 = -1;
-
-			if (c >= 0 && c < 128)
-				digit43 = INDEXES[c];
+			final int digit43 = digit(input, i);
 
-			if (digit43 < 0)
-				throw new IllegalArgumentException("Illegal character " + c + " at " + i);
-
-			input43[i] = (byte) digit43;
+			if (digit43 == 0 && zeroCount == i)
+				++zeroCount;
 		}
 
-		// Count leading zeroes
-		int zeroCount = 0;
-		while (zeroCount < input43.length && input43[zeroCount] == 0)
-			++zeroCount;
+		final Scratch scratch = SCRATCH.get();
 
-		// The encoding
-		final byte[] temp = new byte[input.length()];
-		int j = temp.length;
+		// Accumulate chunks of digits into little-endian 32 bit limbs, most significant chunk first.
+		final int numDigits = input.length() - zeroCount;
+		final int maxLimbs = numDigits * 68 / 100 / 4 + 2;
+		final int[] limbs = scratch.limbs = ensureCapacity(scratch.limbs, maxLimbs);
+		int numLimbs = 0;
 
-		int startAt = zeroCount;
-		while (startAt < input43.length)
+		int i = zeroCount;
+		int chunkSize = numDigits % DIGITS_PER_CHUNK;
+		if (chunkSize == 0)
+			chunkSize = DIGITS_PER_CHUNK;
+		while (i < input.length())
 		{
-			byte mod = divmod256(input43, startAt);
-			if (input43[startAt] == 0)
-				++startAt;
-
-			temp[--j] = mod;
+			long chunk = 0;
+			for (final int end = i + chunkSize; i < end; i++)
+				chunk = chunk * 43 + digit(input, i);
+
+			// limbs = limbs * 43^chunkSize + chunk
+			final long multiplier = POWERS[chunkSize];
+			long carry = chunk;
+			for (int l = 0; l < numLimbs; l++)
+			{
+				final long temp = (limbs[l] & LIMB_MASK) * multiplier + carry;
+				limbs[l] = (int) temp;
+				carry = temp >>> 32;
+			}
+			if (carry != 0)
+				limbs[numLimbs++] = (int) carry;
+
+			chunkSize = DIGITS_PER_CHUNK;
 		}
 
-		// Do no add extra leading zeroes, move j to first non null byte.
-		while (j < temp.length && temp[j] == 0)
-			++j;
+		// Do no add extra leading zeroes, skip leading zero bytes of the top limb.
+		int numBytes = numLimbs * 4;
+		if (numLimbs > 0)
+			for (int top = limbs[numLimbs - 1]; (top & 0xff000000) == 0; top <<= 8)
+				--numBytes;
+
+		final byte[] output = new byte[zeroCount + numBytes];
+		for (int b = 0; b < numBytes; b++)
+			output[output.length - 1 - b] = (byte) (limbs[b / 4] >>> (b % 4 * 8));
 
-		return copyOfRange(temp, j - zeroCount, temp.length);
+		return output;
 	}
 
-	//
-	// number -> number / 43, returns number % 43
-	//
-	private static byte divmod43(final byte[] number, final int startAt)
+	private static int digit(final String input, final int i)
 	{
-		int remainder = 0;
-		for (int i = startAt; i < number.length; i++)
-		{
-			final int digit256 = (int) number[i] & 0xFF;
-			final int temp = remainder * 256 + digit256;
+		final char c = input.charAt(i);
 
-			number[i] = (byte) (temp / 43);
+		int digit43 = -1;
 
-			remainder = temp % 43;
-		}
+		if (c >= 0 && c < 128)
+			digit43 = INDEXES[c];
+
+		if (digit43 < 0)
+			throw new IllegalArgumentException("Illegal character " + c + " at " + i);
 
-		return (byte) remainder;
+		return digit43;
 	}
 
-	//
-	// number -> number / 256, returns number % 256
-	//
-	private static byte divmod256(final byte[] number43, final int startAt)
+	private static int[] ensureCapacity(final int[] array, final int capacity)
 	{
-		int remainder = 0;
-		for (int i = startAt; i < number43.length; i++)
-		{
-			final int digit58 = (int) number43[i] & 0xFF;
-			final int temp = remainder * 43 + digit58;
-
-			number43[i] = (byte) (temp / 256);
-
-			remainder = temp % 256;
-		}
-
-		return (byte) remainder;
+		return array.length >= capacity ? array : new int[Math.max(capacity, array.length * 2)];
 	}
 
-	private static byte[] copyOfRange(final byte[] source, final int from, final int to)
+	private static char[] ensureCapacity(final char[] array, final int capacity)
 	{
-		final byte[] range = new byte[to - from];
-		System.arraycopy(source, from, range, 0, range.length);
-
-		return range;
+		return array.length >= capacity ? array : new char[Math.max(capacity, array.length * 2)];
 	}
 }
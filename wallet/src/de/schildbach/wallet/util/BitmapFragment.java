@@ -31,6 +31,8 @@ import android.widget.ImageView;
 import cc.mazacoin.wallet.R;
 
 /**
+ * Shows a QR code module bitmap, as rendered by {@link Qr}, scaled up to the dialog size.
+ * 
  * @author Andreas Schildbach
  */
 public class BitmapFragment extends DialogFragment
@@ -77,7 +79,7 @@ public class BitmapFragment extends DialogFragment
 		dialog.setCanceledOnTouchOutside(true);
 
 		final ImageView imageView = (ImageView) dialog.findViewById(R.id.bitmap_dialog_image);
-		imageView.setImageBitmap(bitmap);
+		imageView.setImageDrawable(Qr.drawable(getResources(), bitmap));
 		imageView.setOnClickListener(new View.OnClickListener()
 		{
 			@Override
@@ -16,13 +16,18 @@
 
 package de.schildbach.wallet.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 
@@ -38,6 +43,8 @@ import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
 import de.schildbach.wallet.Constants;
 
 /**
@@ -92,8 +99,15 @@ public class Crypto
 	private static final String OPENSSL_MAGIC_TEXT = new String(encodeBase64(Crypto.OPENSSL_SALTED_BYTES), Constants.UTF_8).substring(0,
 			Crypto.NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT);
 
+	private static final byte[] OPENSSL_MAGIC_BYTES = OPENSSL_MAGIC_TEXT.getBytes(Constants.US_ASCII);
+
 	private static final int NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT = 10;
 
+	/**
+	 * Size of the chunks the streams encrypt and decrypt at a time.
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
 	private static final SecureRandom secureRandom = new SecureRandom();
 
 	/**
@@ -127,173 +141,307 @@ public class Crypto
 	 */
 	public static String encrypt(@Nonnull final String plainText, @Nonnull final char[] password) throws IOException
 	{
-		final byte[] plainTextAsBytes = plainText.getBytes(Constants.UTF_8);
+		final ByteArrayOutputStream cipherBytes = new ByteArrayOutputStream();
 
-		final byte[] encryptedBytes = encrypt(plainTextAsBytes, password);
+		final OutputStream plainOut = encryptingStream(cipherBytes, password);
+		plainOut.write(plainText.getBytes(Constants.UTF_8));
+		plainOut.close();
 
-		// OpenSSL prefixes the salt bytes + encryptedBytes with Salted___ and then base64 encodes it
-		final byte[] encryptedBytesPlusSaltedText = concat(OPENSSL_SALTED_BYTES, encryptedBytes);
-
-		return new String(encodeBase64(encryptedBytesPlusSaltedText), Constants.UTF_8);
+		return new String(cipherBytes.toByteArray(), Constants.UTF_8);
 	}
 
 	/**
-	 * Password based encryption using AES - CBC 256 bits.
+	 * Decrypt text previously encrypted with this class.
 	 * 
-	 * @param plainBytes
-	 *            The bytes to encrypt
+	 * @param textToDecode
+	 *            The code to decrypt
 	 * @param password
-	 *            The password to use for encryption
-	 * @return SALT_LENGTH bytes of salt followed by the encrypted bytes.
+	 *            password to use for decryption
+	 * @return The decrypted text
 	 * @throws IOException
 	 */
-	private static byte[] encrypt(final byte[] plainTextAsBytes, final char[] password) throws IOException
+	public static String decrypt(@Nonnull final String textToDecode, @Nonnull final char[] password) throws IOException
 	{
-		try
-		{
-			// Generate salt - each encryption call has a different salt.
-			final byte[] salt = new byte[SALT_LENGTH];
-			secureRandom.nextBytes(salt);
-
-			final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
-
-			// The following code uses an AES cipher to encrypt the message.
-			final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
-			cipher.init(true, key);
-			final byte[] encryptedBytes = new byte[cipher.getOutputSize(plainTextAsBytes.length)];
-			final int length = cipher.processBytes(plainTextAsBytes, 0, plainTextAsBytes.length, encryptedBytes, 0);
+		final ByteArrayOutputStream plainBytes = new ByteArrayOutputStream(textToDecode.length());
 
-			cipher.doFinal(encryptedBytes, length);
+		final InputStream plainIn = decryptingStream(new ByteArrayInputStream(textToDecode.getBytes(Constants.UTF_8)), password);
+		Io.copy(plainIn, plainBytes);
+		plainIn.close();
 
-			// The result bytes are the SALT_LENGTH bytes followed by the encrypted bytes.
-			return concat(salt, encryptedBytes);
-		}
-		catch (final InvalidCipherTextException x)
-		{
-			throw new IOException("Could not encrypt bytes", x);
-		}
-		catch (final DataLengthException x)
-		{
-			throw new IOException("Could not encrypt bytes", x);
-		}
+		return new String(plainBytes.toByteArray(), Constants.UTF_8).trim();
 	}
 
 	/**
-	 * Decrypt text previously encrypted with this class.
+	 * Password based encryption using AES - CBC 256 bits, as a stream. Everything written to the returned stream is
+	 * encrypted and Base64 encoded in fixed size chunks, in the same format as {@link #encrypt(String, char[])}.
 	 * 
-	 * @param textToDecode
-	 *            The code to decrypt
+	 * Closing the returned stream writes the final block and closes the given stream.
+	 * 
+	 * @param out
+	 *            The stream to write the encrypted text to
 	 * @param password
-	 *            password to use for decryption
-	 * @return The decrypted text
+	 *            The password to use for encryption
+	 * @return The stream to write the plain bytes to
 	 * @throws IOException
 	 */
-	public static String decrypt(@Nonnull final String textToDecode, @Nonnull final char[] password) throws IOException
+	public static OutputStream encryptingStream(@Nonnull final OutputStream out, @Nonnull final char[] password) throws IOException
 	{
-		final byte[] decodeTextAsBytes = decodeBase64(textToDecode.getBytes(Constants.UTF_8));
-
-		if (decodeTextAsBytes.length < OPENSSL_SALTED_BYTES.length)
-			throw new IOException("out of salt");
+		// Generate salt - each encryption has a different salt.
+		final byte[] salt = new byte[SALT_LENGTH];
+		secureRandom.nextBytes(salt);
 
-		final byte[] cipherBytes = new byte[decodeTextAsBytes.length - OPENSSL_SALTED_BYTES.length];
-		System.arraycopy(decodeTextAsBytes, OPENSSL_SALTED_BYTES.length, cipherBytes, 0, decodeTextAsBytes.length - OPENSSL_SALTED_BYTES.length);
+		// OpenSSL prefixes the salt bytes + encrypted bytes with Salted__ and then base64 encodes it
+		final OutputStream base64Out = new Base64OutputStream(out, Base64.DEFAULT);
+		base64Out.write(OPENSSL_SALTED_BYTES);
+		base64Out.write(salt);
 
-		final byte[] decryptedBytes = decrypt(cipherBytes, password);
-
-		return new String(decryptedBytes, Constants.UTF_8).trim();
+		return new CipherOutputStream(base64Out, newCipher(true, password, salt));
 	}
 
 	/**
-	 * Decrypt bytes previously encrypted with this class.
+	 * Decrypt a stream previously encrypted with this class, or by OpenSSL. The Base64 text is decoded and decrypted in
+	 * fixed size chunks as the returned stream is read.
+	 * 
+	 * A wrong password usually only shows at the end of the stream, as an {@link IOException} about bad padding.
 	 * 
-	 * @param bytesToDecode
-	 *            The bytes to decrypt
-	 * @param passwordbThe
+	 * @param in
+	 *            The stream to read the encrypted text from
+	 * @param password
 	 *            password to use for decryption
-	 * @return The decrypted bytes
+	 * @return The stream to read the decrypted bytes from
 	 * @throws IOException
 	 */
-	private static byte[] decrypt(final byte[] bytesToDecode, final char[] password) throws IOException
+	public static InputStream decryptingStream(@Nonnull final InputStream in, @Nonnull final char[] password) throws IOException
 	{
-		try
+		final InputStream base64In = new Base64InputStream(in, Base64.DEFAULT);
+
+		// separate the salt and bytes to decrypt
+		final byte[] header = new byte[OPENSSL_SALTED_BYTES.length + SALT_LENGTH];
+		int length = 0;
+		while (length < header.length)
 		{
-			// separate the salt and bytes to decrypt
-			final byte[] salt = new byte[SALT_LENGTH];
+			final int read = base64In.read(header, length, header.length - length);
+			if (read == -1)
+				throw new IOException("out of salt");
+			length += read;
+		}
+
+		for (int i = 0; i < OPENSSL_SALTED_BYTES.length; i++)
+			if (header[i] != OPENSSL_SALTED_BYTES[i])
+				throw new IOException("not salted");
 
-			System.arraycopy(bytesToDecode, 0, salt, 0, SALT_LENGTH);
+		final byte[] salt = new byte[SALT_LENGTH];
+		System.arraycopy(header, OPENSSL_SALTED_BYTES.length, salt, 0, SALT_LENGTH);
 
-			final byte[] cipherBytes = new byte[bytesToDecode.length - SALT_LENGTH];
-			System.arraycopy(bytesToDecode, SALT_LENGTH, cipherBytes, 0, bytesToDecode.length - SALT_LENGTH);
+		return new CipherInputStream(base64In, newCipher(false, password, salt));
+	}
+
+	private static BufferedBlockCipher newCipher(final boolean forEncryption, final char[] password, final byte[] salt)
+	{
+		final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
 
-			final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(forEncryption, key);
 
-			// decrypt the message
-			final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
-			cipher.init(false, key);
+		return cipher;
+	}
 
-			final byte[] decryptedBytes = new byte[cipher.getOutputSize(cipherBytes.length)];
-			final int length = cipher.processBytes(cipherBytes, 0, cipherBytes.length, decryptedBytes, 0);
+	private static final class CipherOutputStream extends FilterOutputStream
+	{
+		private final BufferedBlockCipher cipher;
+		private final byte[] buf;
+		private final byte[] singleByte = new byte[1];
 
-			cipher.doFinal(decryptedBytes, length);
+		public CipherOutputStream(final OutputStream out, final BufferedBlockCipher cipher)
+		{
+			super(out);
 
-			return decryptedBytes;
+			this.cipher = cipher;
+			this.buf = new byte[BUFFER_SIZE + 2 * cipher.getBlockSize()];
 		}
-		catch (final InvalidCipherTextException x)
+
+		@Override
+		public void write(final int b) throws IOException
 		{
-			throw new IOException("Could not decrypt input string", x);
+			singleByte[0] = (byte) b;
+			write(singleByte, 0, 1);
 		}
-		catch (final DataLengthException x)
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException
 		{
-			throw new IOException("Could not decrypt input string", x);
+			try
+			{
+				while (len > 0)
+				{
+					final int chunk = Math.min(len, BUFFER_SIZE);
+					final int length = cipher.processBytes(b, off, chunk, buf, 0);
+					out.write(buf, 0, length);
+
+					off += chunk;
+					len -= chunk;
+				}
+			}
+			catch (final DataLengthException x)
+			{
+				throw new IOException("Could not encrypt bytes", x);
+			}
 		}
-	}
 
-	private static byte[] encodeBase64(byte[] decoded)
-	{
-		return Base64.encode(decoded, Base64.DEFAULT);
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				final int length = cipher.doFinal(buf, 0);
+				out.write(buf, 0, length);
+			}
+			catch (final InvalidCipherTextException x)
+			{
+				throw new IOException("Could not encrypt bytes", x);
+			}
+			catch (final DataLengthException x)
+			{
+				throw new IOException("Could not encrypt bytes", x);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
 	}
 
-	private static byte[] decodeBase64(byte[] encoded) throws IOException
+	private static final class CipherInputStream extends FilterInputStream
 	{
-		try
+		private final BufferedBlockCipher cipher;
+		private final byte[] inBuf = new byte[BUFFER_SIZE];
+		private final byte[] outBuf;
+		private int outPos = 0;
+		private int outLimit = 0;
+		private boolean finished = false;
+
+		public CipherInputStream(final InputStream in, final BufferedBlockCipher cipher)
+		{
+			super(in);
+
+			this.cipher = cipher;
+			this.outBuf = new byte[BUFFER_SIZE + 2 * cipher.getBlockSize()];
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (!fill())
+				return -1;
+
+			return outBuf[outPos++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+
+			if (!fill())
+				return -1;
+
+			final int length = Math.min(len, outLimit - outPos);
+			System.arraycopy(outBuf, outPos, b, off, length);
+			outPos += length;
+
+			return length;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException
 		{
-			return Base64.decode(encoded, Base64.DEFAULT);
+			long skipped = 0;
+			while (skipped < n && fill())
+			{
+				final int length = (int) Math.min(n - skipped, outLimit - outPos);
+				outPos += length;
+				skipped += length;
+			}
+
+			return skipped;
 		}
-		catch (final IllegalArgumentException x)
+
+		@Override
+		public int available()
 		{
-			throw new IOException("illegal base64 padding", x);
+			return outLimit - outPos;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		// returns false at end of stream, after the final block has been checked
+		private boolean fill() throws IOException
+		{
+			try
+			{
+				while (outPos == outLimit)
+				{
+					if (finished)
+						return false;
+
+					final int read = in.read(inBuf, 0, inBuf.length);
+					outPos = 0;
+					if (read == -1)
+					{
+						finished = true;
+						outLimit = cipher.doFinal(outBuf, 0);
+					}
+					else
+					{
+						outLimit = cipher.processBytes(inBuf, 0, read, outBuf, 0);
+					}
+				}
+
+				return true;
+			}
+			catch (final InvalidCipherTextException x)
+			{
+				throw new IOException("Could not decrypt input stream", x);
+			}
+			catch (final DataLengthException x)
+			{
+				throw new IOException("Could not decrypt input stream", x);
+			}
 		}
 	}
 
-	/**
-	 * Concatenate two byte arrays.
-	 */
-	private static byte[] concat(final byte[] arrayA, final byte[] arrayB)
+	private static byte[] encodeBase64(byte[] decoded)
 	{
-		final byte[] result = new byte[arrayA.length + arrayB.length];
-		System.arraycopy(arrayA, 0, result, 0, arrayA.length);
-		System.arraycopy(arrayB, 0, result, arrayA.length, arrayB.length);
-
-		return result;
+		return Base64.encode(decoded, Base64.DEFAULT);
 	}
 
 	public final static FileFilter OPENSSL_FILE_FILTER = new FileFilter()
 	{
-		private final char[] buf = new char[OPENSSL_MAGIC_TEXT.length()];
-
 		@Override
 		public boolean accept(final File file)
 		{
-			Reader in = null;
+			// only the magic is read, base64 text is plain ascii so no decoder is needed
+			final byte[] buf = new byte[OPENSSL_MAGIC_BYTES.length];
+
+			InputStream in = null;
 			try
 			{
-				in = new InputStreamReader(new FileInputStream(file), Constants.UTF_8);
-				if (in.read(buf) == -1)
-					return false;
-				final String str = new String(buf);
-				if (!str.toString().equals(OPENSSL_MAGIC_TEXT))
-					return false;
-				return true;
+				in = new FileInputStream(file);
+				int length = 0;
+				while (length < buf.length)
+				{
+					final int read = in.read(buf, length, buf.length - length);
+					if (read == -1)
+						return false;
+					length += read;
+				}
+
+				return Arrays.equals(buf, OPENSSL_MAGIC_BYTES);
 			}
 			catch (final IOException x)
 			{
@@ -19,7 +19,6 @@ package de.schildbach.wallet.util;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.Locale;
 
 import javax.annotation.Nonnull;
 
@@ -36,6 +35,15 @@ public class GenericUtils
 	private static final int ONE_BTC_INT = ONE_BTC.intValue();
 	private static final int ONE_MBTC_INT = ONE_MBTC.intValue();
 
+	private static final ThreadLocal<StringBuilder> FORMAT_BUILDER = new ThreadLocal<StringBuilder>()
+	{
+		@Override
+		protected StringBuilder initialValue()
+		{
+			return new StringBuilder(24);
+		}
+	};
+
 	public static String formatValue(@Nonnull final BigInteger value, final int precision, final int shift)
 	{
 		return formatValue(value, "", "-", precision, shift);
@@ -43,6 +51,21 @@ public class GenericUtils
 
 	public static String formatValue(@Nonnull final BigInteger value, @Nonnull final String plusSign, @Nonnull final String minusSign,
 			final int precision, final int shift)
+	{
+		final StringBuilder builder = FORMAT_BUILDER.get();
+		builder.setLength(0);
+
+		return formatValue(builder, value, plusSign, minusSign, precision, shift).toString();
+	}
+
+	/**
+	 * Appends the formatted value to the given builder, without allocating. Output is the same as of
+	 * {@link #formatValue(BigInteger, String, String, int, int)}.
+	 *
+	 * @return the builder, for chaining
+	 */
+	public static StringBuilder formatValue(@Nonnull final StringBuilder builder, @Nonnull final BigInteger value, @Nonnull final String plusSign,
+			@Nonnull final String minusSign, final int precision, final int shift)
 	{
 		long longValue = value.longValue();
 
@@ -65,14 +88,18 @@ public class GenericUtils
 			final long coins = absValue / ONE_BTC_INT;
 			final int satoshis = (int) (absValue % ONE_BTC_INT);
 
+			builder.append(sign);
+			appendDigits(builder, coins, 1);
+			builder.append('.');
+
 			if (satoshis % 1000000 == 0)
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000000);
+				appendDigits(builder, satoshis / 1000000, 2);
 			else if (satoshis % 10000 == 0)
-				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10000);
+				appendDigits(builder, satoshis / 10000, 4);
 			else if (satoshis % 100 == 0)
-				return String.format(Locale.US, "%s%d.%06d", sign, coins, satoshis / 100);
+				appendDigits(builder, satoshis / 100, 6);
 			else
-				return String.format(Locale.US, "%s%d.%08d", sign, coins, satoshis);
+				appendDigits(builder, satoshis, 8);
 		}
 		else if (shift == 3)
 		{
@@ -89,17 +116,41 @@ public class GenericUtils
 			final long coins = absValue / ONE_MBTC_INT;
 			final int satoshis = (int) (absValue % ONE_MBTC_INT);
 
+			builder.append(sign);
+			appendDigits(builder, coins, 1);
+			builder.append('.');
+
 			if (satoshis % 1000 == 0)
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+				appendDigits(builder, satoshis / 1000, 2);
 			else if (satoshis % 10 == 0)
-				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+				appendDigits(builder, satoshis / 10, 4);
 			else
-				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+				appendDigits(builder, satoshis, 5);
 		}
 		else
 		{
 			throw new IllegalArgumentException("cannot handle shift: " + shift);
 		}
+
+		return builder;
+	}
+
+	// like %0<minDigits>d for non-negative values, writing in place
+	private static void appendDigits(final StringBuilder builder, long value, final int minDigits)
+	{
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10)
+			digits++;
+		if (digits < minDigits)
+			digits = minDigits;
+
+		final int end = builder.length() + digits;
+		builder.setLength(end);
+		for (int i = end - 1; i >= end - digits; i--)
+		{
+			builder.setCharAt(i, (char) ('0' + value % 10));
+			value /= 10;
+		}
 	}
 
 	public static BigInteger toNanoCoins(final String value, final int shift)
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Minimal streaming JSON tokenizer, modelled after android.util.JsonReader which isn't available on API level 10.
+ * Values that are skipped are scanned without being materialized, so only the parts of a document that are actually
+ * read cause allocations. Numbers are returned in their literal form by {@link #nextString()}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class JsonPullParser implements Closeable
+{
+	public enum Token
+	{
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int NONEMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private final Reader reader;
+	private final char[] buffer = new char[1024];
+	private int pos = 0;
+	private int limit = 0;
+
+	private int[] stack = new int[16];
+	private int depth = 0;
+	private Token peeked = null;
+
+	private final StringBuilder scratch = new StringBuilder();
+
+	public JsonPullParser(@Nonnull final Reader reader)
+	{
+		this.reader = reader;
+
+		stack[depth++] = EMPTY_DOCUMENT;
+	}
+
+	public Token peek() throws IOException
+	{
+		if (peeked != null)
+			return peeked;
+
+		final int scope = stack[depth - 1];
+
+		if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY)
+		{
+			final int c = nextNonWhitespace();
+			if (c == ']')
+				return peeked = Token.END_ARRAY;
+
+			if (scope == NONEMPTY_ARRAY)
+			{
+				if (c != ',')
+					throw syntaxError("expected ',' or ']'");
+			}
+			else
+			{
+				pos--;
+			}
+
+			stack[depth - 1] = NONEMPTY_ARRAY;
+		}
+		else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT)
+		{
+			int c = nextNonWhitespace();
+			if (c == '}')
+				return peeked = Token.END_OBJECT;
+
+			if (scope == NONEMPTY_OBJECT)
+			{
+				if (c != ',')
+					throw syntaxError("expected ',' or '}'");
+				c = nextNonWhitespace();
+			}
+
+			if (c != '"')
+				throw syntaxError("expected name");
+
+			stack[depth - 1] = DANGLING_NAME;
+
+			return peeked = Token.NAME;
+		}
+		else if (scope == DANGLING_NAME)
+		{
+			if (nextNonWhitespace() != ':')
+				throw syntaxError("expected ':'");
+
+			stack[depth - 1] = NONEMPTY_OBJECT;
+		}
+		else if (scope == EMPTY_DOCUMENT)
+		{
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+		}
+		else if (scope == NONEMPTY_DOCUMENT)
+		{
+			if (skipWhitespace())
+				throw syntaxError("trailing data");
+
+			return peeked = Token.END_DOCUMENT;
+		}
+
+		final int c = nextNonWhitespace();
+		switch (c)
+		{
+			case '{':
+				return peeked = Token.BEGIN_OBJECT;
+			case '[':
+				return peeked = Token.BEGIN_ARRAY;
+			case '"':
+				return peeked = Token.STRING;
+			case 't':
+			case 'f':
+				pos--;
+				return peeked = Token.BOOLEAN;
+			case 'n':
+				pos--;
+				return peeked = Token.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+				{
+					pos--;
+					return peeked = Token.NUMBER;
+				}
+
+				throw syntaxError("unexpected character '" + (char) c + "'");
+		}
+	}
+
+	public boolean hasNext() throws IOException
+	{
+		final Token token = peek();
+
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException
+	{
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException
+	{
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	public void beginArray() throws IOException
+	{
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException
+	{
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	public String nextName() throws IOException
+	{
+		expect(Token.NAME);
+
+		return readString();
+	}
+
+	/**
+	 * Matches the next name against the given candidates, without allocating a string for it.
+	 *
+	 * @return index of the matching candidate, or -1 if none matches
+	 */
+	public int nextName(@Nonnull final String[] candidates) throws IOException
+	{
+		expect(Token.NAME);
+		readStringToScratch();
+
+		for (int i = 0; i < candidates.length; i++)
+			if (candidates[i].contentEquals(scratch))
+				return i;
+
+		return -1;
+	}
+
+	/**
+	 * @return the next string value, or the literal of the next number value
+	 */
+	public String nextString() throws IOException
+	{
+		final Token token = peek();
+		if (token == Token.STRING)
+		{
+			peeked = null;
+			return readString();
+		}
+		else if (token == Token.NUMBER)
+		{
+			peeked = null;
+			return readLiteral();
+		}
+		else
+		{
+			throw new IllegalStateException("expected string or number but was " + token);
+		}
+	}
+
+	/**
+	 * Skips the next value, including all of its children.
+	 */
+	public void skipValue() throws IOException
+	{
+		final Token token = peek();
+		switch (token)
+		{
+			case BEGIN_OBJECT:
+				beginObject();
+				while (hasNext())
+				{
+					expect(Token.NAME);
+					skipString();
+					skipValue();
+				}
+				endObject();
+				break;
+			case BEGIN_ARRAY:
+				beginArray();
+				while (hasNext())
+					skipValue();
+				endArray();
+				break;
+			case STRING:
+				peeked = null;
+				skipString();
+				break;
+			case NUMBER:
+			case BOOLEAN:
+			case NULL:
+				peeked = null;
+				skipLiteral();
+				break;
+			default:
+				throw new IllegalStateException("expected value but was " + token);
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+
+	private void expect(final Token expected) throws IOException
+	{
+		final Token token = peek();
+		if (token != expected)
+			throw new IllegalStateException("expected " + expected + " but was " + token);
+
+		peeked = null;
+	}
+
+	private void push(final int scope)
+	{
+		if (depth == stack.length)
+		{
+			final int[] newStack = new int[depth * 2];
+			System.arraycopy(stack, 0, newStack, 0, depth);
+			stack = newStack;
+		}
+
+		stack[depth++] = scope;
+	}
+
+	private String readString() throws IOException
+	{
+		readStringToScratch();
+
+		return scratch.toString();
+	}
+
+	// the opening quote has already been consumed
+	private void readStringToScratch() throws IOException
+	{
+		scratch.setLength(0);
+
+		while (true)
+		{
+			int start = pos;
+			while (pos < limit)
+			{
+				final char c = buffer[pos++];
+				if (c == '"')
+				{
+					scratch.append(buffer, start, pos - start - 1);
+					return;
+				}
+				else if (c == '\\')
+				{
+					scratch.append(buffer, start, pos - start - 1);
+					scratch.append(readEscape());
+					start = pos;
+				}
+			}
+
+			scratch.append(buffer, start, pos - start);
+
+			if (!fill())
+				throw new EOFException("unterminated string");
+		}
+	}
+
+	private void skipString() throws IOException
+	{
+		while (true)
+		{
+			while (pos < limit)
+			{
+				final char c = buffer[pos++];
+				if (c == '"')
+					return;
+				else if (c == '\\')
+					readEscape();
+			}
+
+			if (!fill())
+				throw new EOFException("unterminated string");
+		}
+	}
+
+	// the backslash has already been consumed
+	private char readEscape() throws IOException
+	{
+		final char c = nextChar();
+		switch (c)
+		{
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++)
+				{
+					final int digit = Character.digit(nextChar(), 16);
+					if (digit < 0)
+						throw syntaxError("malformed unicode escape");
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			default:
+				return c;
+		}
+	}
+
+	private String readLiteral() throws IOException
+	{
+		scratch.setLength(0);
+
+		while (pos < limit || fill())
+		{
+			final char c = buffer[pos];
+			if (isLiteralEnd(c))
+				break;
+
+			scratch.append(c);
+			pos++;
+		}
+
+		return scratch.toString();
+	}
+
+	private void skipLiteral() throws IOException
+	{
+		while (pos < limit || fill())
+		{
+			if (isLiteralEnd(buffer[pos]))
+				return;
+
+			pos++;
+		}
+	}
+
+	private static boolean isLiteralEnd(final char c)
+	{
+		return c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+	}
+
+	private char nextChar() throws IOException
+	{
+		if (pos == limit && !fill())
+			throw new EOFException("unexpected end of input");
+
+		return buffer[pos++];
+	}
+
+	private int nextNonWhitespace() throws IOException
+	{
+		if (!skipWhitespace())
+			throw new EOFException("unexpected end of input");
+
+		return buffer[pos++];
+	}
+
+	// returns false at end of input
+	private boolean skipWhitespace() throws IOException
+	{
+		while (pos < limit || fill())
+		{
+			final char c = buffer[pos];
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+				return true;
+
+			pos++;
+		}
+
+		return false;
+	}
+
+	private boolean fill() throws IOException
+	{
+		final int n = reader.read(buffer, 0, buffer.length);
+		pos = 0;
+		limit = Math.max(n, 0);
+
+		return n > 0;
+	}
+
+	private IOException syntaxError(final String message)
+	{
+		return new IOException(message + " at depth " + depth);
+	}
+}
@@ -25,13 +25,16 @@ import java.util.Hashtable;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
@@ -49,14 +52,29 @@ public class Qr
 
 	private static final Logger log = LoggerFactory.getLogger(Qr.class);
 
-	public static Bitmap bitmap(@Nonnull final String content, final int size)
+	/**
+	 * Encodes the content at module resolution, one bit per module and without quiet zone.
+	 */
+	public static BitMatrix matrix(@Nonnull final String content, @Nonnull final ErrorCorrectionLevel errorCorrectionLevel) throws WriterException
+	{
+		final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+		hints.put(EncodeHintType.MARGIN, 0);
+		hints.put(EncodeHintType.ERROR_CORRECTION, errorCorrectionLevel);
+
+		// a requested size of zero makes the writer return one pixel per module
+		return QR_CODE_WRITER.encode(content, BarcodeFormat.QR_CODE, 0, 0, hints);
+	}
+
+	/**
+	 * Renders the content as an {@link Bitmap.Config#ALPHA_8} bitmap with one pixel per module. It is meant to be scaled
+	 * at draw time, see {@link #drawable(Resources, Bitmap)}.
+	 */
+	@CheckForNull
+	public static Bitmap bitmap(@Nonnull final String content, @Nonnull final ErrorCorrectionLevel errorCorrectionLevel)
 	{
 		try
 		{
-			final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
-			hints.put(EncodeHintType.MARGIN, 0);
-			hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
-			final BitMatrix result = QR_CODE_WRITER.encode(content, BarcodeFormat.QR_CODE, size, size, hints);
+			final BitMatrix result = matrix(content, errorCorrectionLevel);
 
 			final int width = result.getWidth();
 			final int height = result.getHeight();
@@ -71,7 +89,7 @@ public class Qr
 				}
 			}
 
-			final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
 			bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
 			return bitmap;
 		}
@@ -82,6 +100,24 @@ public class Qr
 		}
 	}
 
+	@CheckForNull
+	public static Bitmap bitmap(@Nonnull final String content)
+	{
+		return bitmap(content, ErrorCorrectionLevel.H);
+	}
+
+	/**
+	 * Wraps a module bitmap for display. Alpha bitmaps are drawn in the paint color, which is black by default, and
+	 * filtering is disabled so the modules stay sharp when scaled up.
+	 */
+	public static BitmapDrawable drawable(@Nonnull final Resources res, @Nonnull final Bitmap bitmap)
+	{
+		final BitmapDrawable drawable = new BitmapDrawable(res, bitmap);
+		drawable.setFilterBitmap(false);
+		drawable.setAntiAlias(false);
+		return drawable;
+	}
+
 	public static String encodeBinary(@Nonnull final byte[] bytes)
 	{
 		try
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Renders QR codes on a background thread and keeps the most recently used ones. Bitmaps are rendered at module
+ * resolution by {@link Qr#bitmap(String, ErrorCorrectionLevel)} and scaled at draw time, so the cache key is content
+ * and error correction level only.
+ *
+ * Requests and callbacks happen on the main thread. Each callback only ever receives the result of its latest request,
+ * requests superseded before they have been rendered are dropped.
+ *
+ * @author Andreas Schildbach
+ */
+public final class QrRenderer
+{
+	public interface Callback
+	{
+		void onQrRendered(@Nonnull String content, @CheckForNull Bitmap bitmap);
+	}
+
+	private static final int CACHE_SIZE_BYTES = 256 * 1024;
+
+	private final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(CACHE_SIZE_BYTES)
+	{
+		@Override
+		protected int sizeOf(final String key, final Bitmap bitmap)
+		{
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	};
+
+	// latest request per callback, guarded by itself
+	private final Map<Callback, Request> pending = new HashMap<Callback, Request>();
+
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+
+	private static final Logger log = LoggerFactory.getLogger(QrRenderer.class);
+
+	private static final class Request
+	{
+		public final String content;
+		public final ErrorCorrectionLevel errorCorrectionLevel;
+		public final String key;
+
+		public Request(final String content, final ErrorCorrectionLevel errorCorrectionLevel)
+		{
+			this.content = content;
+			this.errorCorrectionLevel = errorCorrectionLevel;
+			this.key = key(content, errorCorrectionLevel);
+		}
+	}
+
+	public QrRenderer()
+	{
+		final HandlerThread thread = new HandlerThread("qr renderer", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		backgroundHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * @return the cached bitmap, or null if it hasn't been rendered yet
+	 */
+	@CheckForNull
+	public Bitmap getCached(@Nonnull final String content, @Nonnull final ErrorCorrectionLevel errorCorrectionLevel)
+	{
+		return cache.get(key(content, errorCorrectionLevel));
+	}
+
+	/**
+	 * Delivers the bitmap to the callback, right away if it is cached and otherwise after rendering it in the
+	 * background. Supersedes any earlier request of the same callback.
+	 */
+	public void render(@Nonnull final String content, @Nonnull final ErrorCorrectionLevel errorCorrectionLevel, @Nonnull final Callback callback)
+	{
+		final Request request = new Request(content, errorCorrectionLevel);
+
+		final Bitmap cached = cache.get(request.key);
+		if (cached != null)
+		{
+			synchronized (pending)
+			{
+				pending.remove(callback);
+			}
+
+			callback.onQrRendered(content, cached);
+			return;
+		}
+
+		synchronized (pending)
+		{
+			pending.put(callback, request);
+		}
+
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!isLatest(callback, request))
+					return;
+
+				Bitmap bitmap = cache.get(request.key);
+				if (bitmap == null)
+				{
+					final long start = System.currentTimeMillis();
+					bitmap = Qr.bitmap(request.content, request.errorCorrectionLevel);
+					if (bitmap != null)
+						cache.put(request.key, bitmap);
+					log.debug("rendered qr code for " + request.content.length() + " chars in " + (System.currentTimeMillis() - start) + " ms");
+				}
+
+				final Bitmap result = bitmap;
+				callbackHandler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						synchronized (pending)
+						{
+							if (pending.get(callback) != request)
+								return;
+
+							pending.remove(callback);
+						}
+
+						callback.onQrRendered(request.content, result);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Drops the pending request of the callback, if any. Should be called when the callback goes away.
+	 */
+	public void cancel(@Nonnull final Callback callback)
+	{
+		synchronized (pending)
+		{
+			pending.remove(callback);
+		}
+	}
+
+	private boolean isLatest(final Callback callback, final Request request)
+	{
+		synchronized (pending)
+		{
+			return pending.get(callback) == request;
+		}
+	}
+
+	private static String key(final String content, final ErrorCorrectionLevel errorCorrectionLevel)
+	{
+		return errorCorrectionLevel.name() + ':' + content;
+	}
+}
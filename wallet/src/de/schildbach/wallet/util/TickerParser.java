@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import de.schildbach.wallet.util.JsonPullParser.Token;
+
+/**
+ * Extracts exchange rates from ticker payloads while streaming them, only keeping the configured fields.
+ *
+ * @author Andreas Schildbach
+ */
+public final class TickerParser
+{
+	private TickerParser()
+	{
+	}
+
+	/**
+	 * Parses a ticker of the form <code>{ "USD": { "24h": "432.5", ... }, ... }</code>.
+	 *
+	 * @return per currency code, the value of the first of the given fields that holds a positive rate
+	 */
+	public static Map<String, BigDecimal> parseTickers(@Nonnull final Reader reader, @Nonnull final String... fields) throws IOException
+	{
+		final JsonPullParser parser = new JsonPullParser(reader);
+		final Map<String, BigDecimal> rates = new TreeMap<String, BigDecimal>();
+		final String[] values = new String[fields.length];
+
+		parser.beginObject();
+		while (parser.hasNext())
+		{
+			final String currencyCode = parser.nextName();
+
+			// skips "timestamp" and anything else that isn't a currency
+			if (parser.peek() != Token.BEGIN_OBJECT)
+			{
+				parser.skipValue();
+				continue;
+			}
+
+			readFields(parser, fields, values);
+
+			for (final String value : values)
+			{
+				final BigDecimal rate = parseRate(value);
+				if (rate != null)
+				{
+					rates.put(currencyCode, rate);
+					break;
+				}
+			}
+		}
+		parser.endObject();
+
+		return rates;
+	}
+
+	/**
+	 * Reads the object the parser is positioned at, keeping the values of the given fields in the same order.
+	 * Fields that are missing or not strings or numbers are left null.
+	 */
+	public static void readFields(@Nonnull final JsonPullParser parser, @Nonnull final String[] fields, @Nonnull final String[] values)
+			throws IOException
+	{
+		for (int i = 0; i < values.length; i++)
+			values[i] = null;
+
+		parser.beginObject();
+		while (parser.hasNext())
+		{
+			final int index = parser.nextName(fields);
+			final Token token = parser.peek();
+			if (index >= 0 && (token == Token.STRING || token == Token.NUMBER))
+				values[index] = parser.nextString();
+			else
+				parser.skipValue();
+		}
+		parser.endObject();
+	}
+
+	/**
+	 * Descends into the named member of the object the parser is positioned at, skipping all other members.
+	 *
+	 * @return false if there is no such member
+	 */
+	public static boolean enterMember(@Nonnull final JsonPullParser parser, @Nonnull final String name) throws IOException
+	{
+		final String[] names = new String[] { name };
+
+		parser.beginObject();
+		while (parser.hasNext())
+		{
+			if (parser.nextName(names) == 0)
+				return true;
+
+			parser.skipValue();
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the rate if it is a positive decimal, otherwise null
+	 */
+	@CheckForNull
+	public static BigDecimal parseRate(@CheckForNull final String value)
+	{
+		if (value == null)
+			return null;
+
+		try
+		{
+			final BigDecimal rate = new BigDecimal(value);
+
+			return rate.signum() > 0 ? rate : null;
+		}
+		catch (final NumberFormatException x)
+		{
+			return null;
+		}
+	}
+}
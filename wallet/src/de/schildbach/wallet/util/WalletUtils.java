@@ -236,15 +236,10 @@ public class WalletUtils
 				final String line = in.readLine();
 				if (line == null)
 					break; // eof
-				if (line.trim().isEmpty() || line.charAt(0) == '#')
-					continue; // skip comment
 
-				final String[] parts = line.split(" ");
-
-				final ECKey key = new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, parts[0]).getKey();
-				key.setCreationTimeSeconds(parts.length >= 2 ? format.parse(parts[1]).getTime() / DateUtils.SECOND_IN_MILLIS : 0);
-
-				keys.add(key);
+				final ECKey key = readKey(line, format);
+				if (key != null)
+					keys.add(key);
 			}
 
 			return keys;
@@ -259,6 +254,27 @@ public class WalletUtils
 		}
 	}
 
+	/**
+	 * Parses one line of a keys file, as written by {@link #writeKeys(Writer, List)}.
+	 * 
+	 * @param format
+	 *            as created by {@link Iso8601Format#newDateTimeFormatT()}, not to be shared between threads
+	 * @return the key, or null if the line is empty or a comment
+	 */
+	@CheckForNull
+	public static ECKey readKey(@Nonnull final String line, @Nonnull final DateFormat format) throws AddressFormatException, ParseException
+	{
+		if (line.trim().isEmpty() || line.charAt(0) == '#')
+			return null; // skip comment
+
+		final String[] parts = line.split(" ");
+
+		final ECKey key = new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, parts[0]).getKey();
+		key.setCreationTimeSeconds(parts.length >= 2 ? format.parse(parts[1]).getTime() / DateUtils.SECOND_IN_MILLIS : 0);
+
+		return key;
+	}
+
 	public static final FileFilter KEYS_FILE_FILTER = new FileFilter()
 	{
 		@Override
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.zetacoin.core.AbstractBlockChain.NewBlockType;
+import com.google.zetacoin.core.ECKey;
+import com.google.zetacoin.core.NetworkParameters;
+import com.google.zetacoin.core.PeerAddress;
+import com.google.zetacoin.core.StoredBlock;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.TransactionInput;
+import com.google.zetacoin.core.TransactionOutput;
+import com.google.zetacoin.core.Utils;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.params.UnitTestParams;
+import com.google.zetacoin.utils.Threading;
+
+/**
+ * Applies sequences of wallet events to a real wallet and checks after each event that the tracked balance equals the
+ * balance the wallet computes by walking its outputs.
+ *
+ * @author Andreas Schildbach
+ */
+public class BalanceTrackerTest
+{
+	// trivial proof of work, so blocks can be solved in tests
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	private ECKey key;
+	private Wallet wallet;
+	private BalanceTracker balanceTracker;
+	private List<StoredBlock> chain;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		key = new ECKey();
+		wallet = new Wallet(PARAMS);
+		wallet.addKey(key);
+		balanceTracker = new BalanceTracker(wallet, new WalletChangeDispatcher(wallet));
+
+		chain = new ArrayList<StoredBlock>();
+		chain.add(new StoredBlock(PARAMS.getGenesisBlock(), PARAMS.getGenesisBlock().getWork(), 0));
+	}
+
+	@Test
+	public void receivePendingThenConfirm() throws Exception
+	{
+		final Transaction tx = pay(foreignOutput(Utils.toNanoCoins(1, 0)), Utils.toNanoCoins(1, 0));
+		wallet.receivePending(tx, null);
+		assertBalance();
+		assertTrue(balanceTracker.getBalance().pending.signum() > 0);
+
+		connectBlock(tx);
+		connectBlock();
+	}
+
+	@Test
+	public void spendWithChange() throws Exception
+	{
+		connectBlock(pay(foreignOutput(Utils.toNanoCoins(1, 0)), Utils.toNanoCoins(1, 0)));
+
+		final Transaction spend = wallet.createSend(new ECKey().toAddress(PARAMS), Utils.toNanoCoins(0, 30));
+		wallet.commitTx(spend);
+		assertBalance();
+
+		// own pending transactions become selectable once seen by more than one peer
+		spend.getConfidence().markBroadcastBy(peer(1));
+		assertBalance();
+		spend.getConfidence().markBroadcastBy(peer(2));
+		assertBalance();
+
+		connectBlock(spend);
+	}
+
+	@Test
+	public void pendingReceiveGoesDead() throws Exception
+	{
+		final TransactionOutput from = foreignOutput(Utils.toNanoCoins(2, 0));
+
+		final Transaction pending = pay(from, Utils.toNanoCoins(2, 0));
+		wallet.receivePending(pending, null);
+		assertBalance();
+
+		// the sender double spends with less
+		connectBlock(pay(from, Utils.toNanoCoins(1, 0)));
+		assertEquals(ConfidenceType.DEAD, pending.getConfidence().getConfidenceType());
+	}
+
+	@Test
+	public void coinbaseMatures() throws Exception
+	{
+		final Transaction coinbase = coinbase(Utils.toNanoCoins(50, 0));
+		connectBlock(coinbase);
+
+		for (int i = 0; i < PARAMS.getSpendableCoinbaseDepth(); i++)
+			connectBlock();
+
+		assertTrue(coinbase.isMature());
+		assertEquals(Utils.toNanoCoins(50, 0), balanceTracker.getBalance().available);
+	}
+
+	@Test
+	public void reorganize() throws Exception
+	{
+		connectBlock(pay(foreignOutput(Utils.toNanoCoins(1, 0)), Utils.toNanoCoins(1, 0)));
+		connectBlock(coinbase(Utils.toNanoCoins(50, 0)), pay(foreignOutput(Utils.toNanoCoins(3, 0)), Utils.toNanoCoins(3, 0)));
+		connectBlock();
+
+		// the received transaction goes back to pending, the coinbase dies
+		reorganize(2);
+		connectBlock();
+	}
+
+	private void connectBlock(final Transaction... transactions) throws Exception
+	{
+		final StoredBlock block = nextBlock(chain.get(chain.size() - 1));
+
+		for (int i = 0; i < transactions.length; i++)
+		{
+			wallet.receiveFromBlock(transactions[i], block, NewBlockType.BEST_CHAIN, i);
+			assertBalance();
+		}
+
+		wallet.notifyNewBestBlock(block);
+		assertBalance();
+
+		chain.add(block);
+	}
+
+	// replaces the given number of blocks at the top of the chain by a longer fork of empty blocks
+	private void reorganize(final int depth) throws Exception
+	{
+		final StoredBlock splitPoint = chain.get(chain.size() - 1 - depth);
+
+		final List<StoredBlock> oldBlocks = new ArrayList<StoredBlock>(chain.subList(chain.size() - depth, chain.size()));
+		Collections.reverse(oldBlocks);
+
+		final List<StoredBlock> newBlocks = new ArrayList<StoredBlock>();
+		StoredBlock block = splitPoint;
+		for (int i = 0; i <= depth; i++)
+		{
+			block = nextBlock(block);
+			newBlocks.add(0, block);
+		}
+
+		wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+		assertBalance();
+
+		chain.subList(chain.size() - depth, chain.size()).clear();
+		for (int i = newBlocks.size() - 1; i >= 0; i--)
+			chain.add(newBlocks.get(i));
+	}
+
+	private void assertBalance()
+	{
+		// confidence listeners of the wallet may run on the user thread
+		Threading.waitForUserCode();
+
+		final BalanceTracker.Balance balance = balanceTracker.getBalance();
+		assertEquals(wallet.getBalance(Wallet.BalanceType.ESTIMATED), balance.estimated);
+		assertEquals(wallet.getBalance(Wallet.BalanceType.AVAILABLE), balance.available);
+	}
+
+	private static StoredBlock nextBlock(final StoredBlock previous) throws Exception
+	{
+		return previous.build(previous.getHeader().createNextBlock(new ECKey().toAddress(PARAMS)));
+	}
+
+	private static TransactionOutput foreignOutput(final BigInteger value)
+	{
+		final Transaction from = new Transaction(PARAMS);
+		from.addOutput(value, new ECKey());
+
+		return from.getOutput(0);
+	}
+
+	private Transaction pay(final TransactionOutput from, final BigInteger value)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(from);
+		tx.addOutput(value, key);
+
+		return tx;
+	}
+
+	private Transaction coinbase(final BigInteger value)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { (byte) chain.size(), 1 }));
+		tx.addOutput(value, key);
+
+		return tx;
+	}
+
+	private static PeerAddress peer(final int lastOctet) throws IOException
+	{
+		return new PeerAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) lastOctet }), PARAMS.getPort());
+	}
+}
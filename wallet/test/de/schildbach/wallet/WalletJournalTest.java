@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.zetacoin.core.AbstractBlockChain.NewBlockType;
+import com.google.zetacoin.core.ECKey;
+import com.google.zetacoin.core.NetworkParameters;
+import com.google.zetacoin.core.PeerAddress;
+import com.google.zetacoin.core.Sha256Hash;
+import com.google.zetacoin.core.StoredBlock;
+import com.google.zetacoin.core.Transaction;
+import com.google.zetacoin.core.TransactionConfidence;
+import com.google.zetacoin.core.TransactionConfidence.ConfidenceType;
+import com.google.zetacoin.core.Utils;
+import com.google.zetacoin.core.Wallet;
+import com.google.zetacoin.params.UnitTestParams;
+import com.google.zetacoin.wallet.WalletTransaction;
+import com.google.zetacoin.wallet.WalletTransaction.Pool;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletJournalTest
+{
+	// trivial proof of work, so blocks can be solved in tests
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final Sha256Hash BLOCK_HASH = new Sha256Hash("0000000000000000000000000000000000000000000000000000000000000064");
+
+	private ECKey key;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		key = new ECKey();
+		file = File.createTempFile("wallet-journal", null);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		file.delete();
+	}
+
+	@Test
+	public void replayEqualsSnapshot() throws Exception
+	{
+		final Transaction building = receive(Utils.toNanoCoins(1, 0));
+		building.addBlockAppearance(BLOCK_HASH, 0);
+		building.getConfidence().setAppearedAtChainHeight(100);
+		building.getConfidence().setDepthInBlocks(11);
+		building.getConfidence().setSource(TransactionConfidence.Source.NETWORK);
+
+		final Transaction pending = receive(Utils.toNanoCoins(0, 50));
+		pending.getConfidence().setSource(TransactionConfidence.Source.SELF);
+		pending.getConfidence().markBroadcastBy(peer(1));
+		pending.getConfidence().markBroadcastBy(peer(2));
+
+		final Transaction dead = receive(Utils.toNanoCoins(2, 0));
+		dead.getConfidence().setConfidenceType(ConfidenceType.DEAD);
+		dead.getConfidence().setOverridingTransaction(building);
+
+		final Wallet wallet = wallet();
+		wallet.addWalletTransaction(new WalletTransaction(Pool.UNSPENT, building));
+		wallet.addWalletTransaction(new WalletTransaction(Pool.PENDING, pending));
+		wallet.addWalletTransaction(new WalletTransaction(Pool.DEAD, dead));
+		wallet.setLastBlockSeenHash(BLOCK_HASH);
+		wallet.setLastBlockSeenHeight(110);
+		wallet.setLastBlockSeenTimeSecs(1400000000);
+
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		for (final WalletTransaction wtx : wallet.getWalletTransactions())
+			WalletJournal.writeRecord(records, WalletJournal.transactionPayload(wtx));
+		WalletJournal.writeRecord(records, WalletJournal.lastBlockSeenPayload(BLOCK_HASH, 110, 1400000000));
+		write(records);
+
+		// journal on top of an empty snapshot
+		final Wallet replayed = wallet();
+		assertEquals(3, WalletJournal.replay(replayed, file));
+
+		for (final WalletTransaction wtx : wallet.getWalletTransactions())
+		{
+			final Transaction tx = wtx.getTransaction();
+			final Transaction replayedTx = replayed.getTransactionPool(wtx.getPool()).get(tx.getHash());
+			assertNotNull(replayedTx);
+
+			final TransactionConfidence confidence = tx.getConfidence();
+			final TransactionConfidence replayedConfidence = replayedTx.getConfidence();
+			assertEquals(confidence.getConfidenceType(), replayedConfidence.getConfidenceType());
+			assertEquals(confidence.getSource(), replayedConfidence.getSource());
+			assertEquals(confidence.numBroadcastPeers(), replayedConfidence.numBroadcastPeers());
+			if (confidence.getConfidenceType() == ConfidenceType.BUILDING)
+			{
+				assertEquals(confidence.getAppearedAtChainHeight(), replayedConfidence.getAppearedAtChainHeight());
+				assertEquals(confidence.getDepthInBlocks(), replayedConfidence.getDepthInBlocks());
+			}
+			if (confidence.getOverridingTransaction() != null)
+				assertEquals(confidence.getOverridingTransaction().getHash(), replayedConfidence.getOverridingTransaction().getHash());
+			else
+				assertNull(replayedConfidence.getOverridingTransaction());
+			assertEquals(tx.getUpdateTime(), replayedTx.getUpdateTime());
+			assertEquals(tx.getPurpose(), replayedTx.getPurpose());
+		}
+
+		assertEquals(wallet.getPoolSize(Pool.UNSPENT), replayed.getPoolSize(Pool.UNSPENT));
+		assertEquals(wallet.getPoolSize(Pool.PENDING), replayed.getPoolSize(Pool.PENDING));
+		assertEquals(wallet.getPoolSize(Pool.DEAD), replayed.getPoolSize(Pool.DEAD));
+		assertEquals(BLOCK_HASH, replayed.getLastBlockSeenHash());
+		assertEquals(110, replayed.getLastBlockSeenHeight());
+		assertEquals(1400000000, replayed.getLastBlockSeenTimeSecs());
+		assertEquals(wallet.getBalance(Wallet.BalanceType.ESTIMATED), replayed.getBalance(Wallet.BalanceType.ESTIMATED));
+		assertEquals(wallet.getBalance(Wallet.BalanceType.AVAILABLE), replayed.getBalance(Wallet.BalanceType.AVAILABLE));
+	}
+
+	@Test
+	public void tornRecordIsTruncated() throws Exception
+	{
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		WalletJournal.writeRecord(records, WalletJournal.transactionPayload(new WalletTransaction(Pool.PENDING, receive(BigInteger.ONE))));
+		final int validLength = records.size();
+
+		// crash in the middle of appending the second record
+		final ByteArrayOutputStream torn = new ByteArrayOutputStream();
+		WalletJournal.writeRecord(torn, WalletJournal.transactionPayload(new WalletTransaction(Pool.PENDING, receive(BigInteger.TEN))));
+		records.write(torn.toByteArray(), 0, torn.size() / 2);
+		write(records);
+
+		final Wallet wallet = wallet();
+		assertEquals(1, WalletJournal.replay(wallet, file));
+		assertEquals(1, wallet.getPoolSize(Pool.PENDING));
+		assertEquals(validLength, file.length());
+	}
+
+	@Test
+	public void crcMismatchEndsReplay() throws Exception
+	{
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		WalletJournal.writeRecord(records, WalletJournal.transactionPayload(new WalletTransaction(Pool.PENDING, receive(BigInteger.ONE))));
+		final int validLength = records.size();
+		WalletJournal.writeRecord(records, WalletJournal.transactionPayload(new WalletTransaction(Pool.PENDING, receive(BigInteger.TEN))));
+		WalletJournal.writeRecord(records, WalletJournal.lastBlockSeenPayload(BLOCK_HASH, 110, 1400000000));
+		write(records);
+
+		// flip a bit in the payload of the second record
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		final long offset = validLength + 12 + 10;
+		raf.seek(offset);
+		final int b = raf.read();
+		raf.seek(offset);
+		raf.write(b ^ 0x01);
+		raf.close();
+
+		final Wallet wallet = wallet();
+		assertEquals(1, WalletJournal.replay(wallet, file));
+		assertEquals(1, wallet.getPoolSize(Pool.PENDING));
+		assertNull(wallet.getLastBlockSeenHash());
+		assertEquals(validLength, file.length());
+	}
+
+	@Test
+	public void spendChain() throws Exception
+	{
+		final Wallet wallet = wallet();
+		final WalletJournal journal = new WalletJournal(wallet, new WalletChangeDispatcher(wallet), file, new WalletJournal.Snapshotter()
+		{
+			@Override
+			public void saveSnapshot()
+			{
+			}
+		}, null);
+
+		final StoredBlock genesis = new StoredBlock(PARAMS.getGenesisBlock(), PARAMS.getGenesisBlock().getWork(), 0);
+		final StoredBlock block1 = nextBlock(genesis);
+		final Transaction parent = receive(Utils.toNanoCoins(1, 0));
+		wallet.receiveFromBlock(parent, block1, NewBlockType.BEST_CHAIN, 0);
+		wallet.notifyNewBestBlock(block1);
+		journal.flush();
+
+		// spending moves the parent from unspent to spent, without an event for the parent itself
+		final Transaction spend = wallet.createSend(new ECKey().toAddress(PARAMS), Utils.toNanoCoins(0, 30));
+		wallet.commitTx(spend);
+		journal.flush();
+
+		final StoredBlock block2 = nextBlock(block1);
+		wallet.receiveFromBlock(spend, block2, NewBlockType.BEST_CHAIN, 0);
+		wallet.notifyNewBestBlock(block2);
+		journal.flush();
+
+		assertEquals(1, wallet.getPoolSize(Pool.SPENT));
+
+		// journal on top of an empty snapshot
+		final Wallet replayed = wallet();
+		WalletJournal.replay(replayed, file);
+
+		assertTrue(replayed.isConsistent());
+		assertNotNull(replayed.getTransactionPool(Pool.SPENT).get(parent.getHash()));
+		assertNotNull(replayed.getTransactionPool(Pool.UNSPENT).get(spend.getHash()));
+		assertEquals(wallet.getBalance(Wallet.BalanceType.ESTIMATED), replayed.getBalance(Wallet.BalanceType.ESTIMATED));
+		assertEquals(wallet.getBalance(Wallet.BalanceType.AVAILABLE), replayed.getBalance(Wallet.BalanceType.AVAILABLE));
+	}
+
+	@Test
+	public void emptyJournal() throws Exception
+	{
+		final Wallet wallet = wallet();
+		assertEquals(0, WalletJournal.replay(wallet, file));
+		assertEquals(0, file.length());
+	}
+
+	private Wallet wallet()
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(key);
+
+		return wallet;
+	}
+
+	private Transaction receive(final BigInteger value)
+	{
+		final Transaction from = new Transaction(PARAMS);
+		from.addOutput(value, new ECKey());
+
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(from.getOutput(0));
+		tx.addOutput(value, key);
+
+		return tx;
+	}
+
+	private static StoredBlock nextBlock(final StoredBlock previous) throws Exception
+	{
+		return previous.build(previous.getHeader().createNextBlock(new ECKey().toAddress(PARAMS)));
+	}
+
+	private static PeerAddress peer(final int lastOctet) throws IOException
+	{
+		return new PeerAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) lastOctet }), PARAMS.getPort());
+	}
+
+	private void write(final ByteArrayOutputStream records) throws IOException
+	{
+		final FileOutputStream os = new FileOutputStream(file);
+		try
+		{
+			records.writeTo(os);
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+}
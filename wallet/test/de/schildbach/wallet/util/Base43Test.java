@@ -20,6 +20,8 @@ package de.schildbach.wallet.util;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -50,4 +52,50 @@ public class Base43Test
 
 		assertArrayEquals("Hello World".getBytes(), Base43.decode("RNO2-MYFN0D35RHM"));
 	}
+
+	@Test
+	public void leadingZeros() throws Exception
+	{
+		assertEquals("000", Base43.encode(new byte[3]));
+		assertArrayEquals(new byte[3], Base43.decode("000"));
+
+		assertEquals("005.", Base43.encode(new byte[] { 0, 0, (byte) 0xff }));
+		assertArrayEquals(new byte[] { 0, 0, (byte) 0xff }, Base43.decode("005."));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeIllegalCharacter() throws Exception
+	{
+		Base43.decode("RNO2-MYFN0D35RHm");
+	}
+
+	@Test
+	public void equivalentToLegacy() throws Exception
+	{
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 2000; i++)
+		{
+			// up to the size of transactions in QR codes, with some leading zeros now and then
+			final byte[] bytes = new byte[random.nextInt(i % 10 == 0 ? 3000 : 64)];
+			random.nextBytes(bytes);
+			for (int z = random.nextInt(4) == 0 ? random.nextInt(4) : 0; z > 0 && z <= bytes.length; z--)
+				bytes[z - 1] = 0;
+
+			final String encoded = LegacyBase43.encode(bytes);
+			assertEquals(encoded, Base43.encode(bytes));
+			assertArrayEquals(bytes, Base43.decode(encoded));
+		}
+
+		for (int i = 0; i < 2000; i++)
+		{
+			// arbitrary digit strings, which don't necessarily come from encoding
+			final char[] chars = new char[random.nextInt(100)];
+			for (int c = 0; c < chars.length; c++)
+				chars[c] = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:".charAt(random.nextInt(c < 2 ? 2 : 43));
+			final String encoded = new String(chars);
+
+			assertArrayEquals(LegacyBase43.decode(encoded), Base43.decode(encoded));
+		}
+	}
 }
@@ -22,6 +22,7 @@ import com.google.zetacoin.core.NetworkParameters;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -77,4 +78,68 @@ public class GenericUtilsTest
 
 		assertEquals("200000000000.00", GenericUtils.formatValue(NetworkParameters.MAX_MONEY, 5, 3));
 	}
+
+	@Test
+	public void formatSigned() throws Exception
+	{
+		final BigInteger coin = new BigInteger("100000000");
+		assertEquals("+1.00", GenericUtils.formatValue(coin, "+", "-", 4, 0));
+		assertEquals("-1.00", GenericUtils.formatValue(coin.negate(), "+", "-", 4, 0));
+		assertEquals("+0.00", GenericUtils.formatValue(BigInteger.ZERO, "+", "-", 2, 0));
+		assertEquals("-0.00", GenericUtils.formatValue(BigInteger.ONE.negate(), "+", "-", 2, 0));
+		assertEquals("-1000.0001", GenericUtils.formatValue(new BigInteger("-100000010"), "+", "-", 4, 3));
+	}
+
+	@Test
+	public void formatIntoBuilder() throws Exception
+	{
+		final StringBuilder builder = new StringBuilder("balance: ");
+		GenericUtils.formatValue(builder, new BigInteger("1122334455667788"), "", "-", 6, 0).append(" BTC");
+		assertEquals("balance: 11223344.556678 BTC", builder.toString());
+	}
+
+	@Test
+	public void formatGolden() throws Exception
+	{
+		final int[][] precisionShifts = { { 2, 0 }, { 4, 0 }, { 6, 0 }, { 8, 0 }, { 2, 3 }, { 4, 3 }, { 5, 3 } };
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 100000; i++)
+		{
+			final BigInteger value = goldenValue(random, i);
+
+			for (final int[] precisionShift : precisionShifts)
+			{
+				final int precision = precisionShift[0];
+				final int shift = precisionShift[1];
+
+				assertEquals(value + " " + precision + "/" + shift, LegacyValueFormat.formatValue(value, "+", "-", precision, shift),
+						GenericUtils.formatValue(value, "+", "-", precision, shift));
+			}
+		}
+	}
+
+	// mixes round amounts, amounts near rounding boundaries and arbitrary amounts up to max money, both signs
+	private static BigInteger goldenValue(final Random random, final int i)
+	{
+		final long maxMoney = NetworkParameters.MAX_MONEY.longValue();
+		final long value;
+		switch (i % 4)
+		{
+			case 0:
+				value = (long) (random.nextDouble() * maxMoney);
+				break;
+			case 1:
+				value = random.nextInt(1000) * (long) Math.pow(10, random.nextInt(9));
+				break;
+			case 2:
+				value = random.nextInt(100) * 1000000L + 500000 + random.nextInt(3) - 1;
+				break;
+			default:
+				value = random.nextInt(1000000);
+				break;
+		}
+
+		return BigInteger.valueOf(random.nextBoolean() ? value : -value);
+	}
 }
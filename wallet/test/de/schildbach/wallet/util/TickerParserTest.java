@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class TickerParserTest
+{
+	@Test
+	public void bitcoinaverage() throws Exception
+	{
+		final Map<String, BigDecimal> rates = TickerParser.parseTickers(fixture("bitcoinaverage-ticker-all.json"), "24h_avg");
+
+		assertEquals(166, rates.size());
+		assertEquals(new BigDecimal("12069.22"), rates.get("USD"));
+		assertEquals(new BigDecimal("4787.7"), rates.get("EUR"));
+		assertNull(rates.get("BOB")); // zero rate
+		assertNull(rates.get("timestamp"));
+	}
+
+	@Test
+	public void bitcoincharts() throws Exception
+	{
+		final Map<String, BigDecimal> rates = TickerParser.parseTickers(fixture("bitcoincharts-weighted-prices.json"), "24h", "7d", "30d");
+
+		assertEquals(new BigDecimal("48565.87"), rates.get("BOB"));
+		assertEquals(new BigDecimal("37982.02"), rates.get("AED")); // falls back to 7d
+		assertNull(rates.get("timestamp"));
+	}
+
+	@Test
+	public void blockchaininfo() throws Exception
+	{
+		final Map<String, BigDecimal> rates = TickerParser.parseTickers(fixture("blockchaininfo-ticker.json"), "15m");
+
+		assertEquals(21, rates.size());
+		assertEquals(new BigDecimal("12069.22"), rates.get("USD"));
+	}
+
+	@Test
+	public void cryptopia() throws Exception
+	{
+		final JsonPullParser parser = new JsonPullParser(fixture("cryptopia-market.json"));
+		final String[] values = new String[1];
+
+		assertTrue(TickerParser.enterMember(parser, "Data"));
+		TickerParser.readFields(parser, new String[] { "AskPrice" }, values);
+		assertEquals(0, new BigDecimal("0.00000011").compareTo(TickerParser.parseRate(values[0])));
+	}
+
+	@Test
+	public void skipsNestedValues() throws Exception
+	{
+		final Map<String, BigDecimal> rates = TickerParser.parseTickers(new StringReader(
+				"{ \"X\": [1, {\"a\": [true, null]}], \"USD\": {\"n\": {\"24h\": \"9\"}, \"s\": \"\\\"}\\u0041\", \"24h\": 1.5e2}, \"t\": null }"),
+				"24h");
+
+		assertEquals(1, rates.size());
+		assertEquals(0, new BigDecimal("150").compareTo(rates.get("USD")));
+	}
+
+	@Test
+	public void unescapesStrings() throws Exception
+	{
+		final JsonPullParser parser = new JsonPullParser(new StringReader("[\"a\\\"b\\\\c\\u00e9\\n\", -0.5]"));
+
+		parser.beginArray();
+		assertEquals("a\"b\\c\u00e9\n", parser.nextString());
+		assertEquals("-0.5", parser.nextString());
+		assertFalse(parser.hasNext());
+		parser.endArray();
+	}
+
+	@Test(expected = IOException.class)
+	public void truncated() throws Exception
+	{
+		TickerParser.parseTickers(new StringReader("{ \"USD\": { \"24h\": \"1"), "24h");
+	}
+
+	private Reader fixture(final String name)
+	{
+		return new InputStreamReader(getClass().getResourceAsStream("fixtures/" + name), Charset.forName("UTF-8"));
+	}
+}